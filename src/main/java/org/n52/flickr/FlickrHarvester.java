@@ -28,8 +28,13 @@
  */
 package org.n52.flickr;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -38,21 +43,56 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.joda.time.DateTime;
+import org.n52.flickr.dao.ExecutionMode;
+import org.n52.flickr.dao.FairScheduler;
 import org.n52.flickr.dao.FlickrDAO;
+import org.n52.flickr.dao.HedgingPolicy;
+import org.n52.flickr.dao.QueryResultCache;
+import org.n52.flickr.dao.RateLimiter;
+import org.n52.flickr.dao.ResponseDecoding;
+import org.n52.flickr.dao.TenantUsage;
+import org.n52.flickr.harvest.ContinuousHarvester;
+import org.n52.flickr.harvest.FileSystemTileQueue;
+import org.n52.flickr.harvest.HarvestJournal;
+import org.n52.flickr.harvest.ImageDownloader;
+import org.n52.flickr.harvest.PhotoRefresher;
+import org.n52.flickr.harvest.QueryPrefetcher;
+import org.n52.flickr.harvest.ResumableHarvest;
+import org.n52.flickr.harvest.TileCoordinator;
+import org.n52.flickr.harvest.TileQueue;
+import org.n52.flickr.harvest.TileWorker;
 import org.n52.flickr.model.AccessToken;
+import org.n52.flickr.model.FlickrMessage;
 import org.n52.flickr.model.FlickrQuery;
+import org.n52.flickr.model.HarvestRegion;
+import org.n52.flickr.model.ImageSize;
+import org.n52.flickr.model.ObservationGrid;
+import org.n52.flickr.model.PartialResult;
+import org.n52.flickr.model.SortOrder;
+import org.n52.flickr.model.TagMode;
 import org.n52.socialmedia.DecodingException;
 import org.n52.socialmedia.Harvester;
 import org.n52.socialmedia.model.HumanVisualPerceptionObservation;
 import org.n52.socialmedia.util.CoordinateUtil;
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.flickr4java.flickr.FlickrException;
 
-public class FlickrHarvester implements Harvester {
+public class FlickrHarvester implements Harvester, Closeable {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(FlickrHarvester.class);
 	
@@ -61,6 +101,30 @@ public class FlickrHarvester implements Harvester {
 	public static final String API_HOST = "https://api.flickr.com";
 	
 	public static final int API_PORT = 443;
+
+	private static final int DEFAULT_ASYNC_POOL_SIZE = 8;
+
+	private static final long DEFAULT_HARVEST_PERIOD_MINUTES = 60;
+
+	private static final double DEFAULT_HEDGING_MAX_RATIO = 0.05;
+
+	private static final long DEFAULT_TILE_LEASE_MINUTES = 10;
+
+	private static final int DEFAULT_TENANT_QUEUE_DEPTH = 100;
+
+	private static final int DEFAULT_RESULT_CACHE_SIZE = 100;
+
+	private static final String PLACE_CACHE_FILE = "places.tsv";
+
+	private static final String OWNER_CACHE_FILE = "owners.tsv";
+
+	private static final String PHOTO_VERSIONS_FILE = "photo-versions.tsv";
+
+	/**
+	 * Meters per degree of latitude, converts <code>QUADRATICAL_BBOX_WIDTH</code>
+	 * into the size of the prefetch grid cells.
+	 */
+	private static final double METERS_PER_DEGREE = 111320d;
 	
 	private AccessToken accessToken;
 
@@ -72,6 +136,48 @@ public class FlickrHarvester implements Harvester {
 
 	private double quadraticalBboxWidth;
 
+	private FlickrDAO dao;
+
+	private ExecutorService executor;
+
+	private ScheduledExecutorService timeoutScheduler;
+
+	private ExecutionMode executionMode = ExecutionMode.SEQUENTIAL;
+
+	private RateLimiter rateLimiter;
+
+	private FairScheduler fairScheduler;
+
+	private QueryResultCache queryResultCache;
+
+	private QueryPrefetcher prefetcher;
+
+	private List<HarvestRegion> harvestRegions;
+
+	private long harvestPeriodMinutes = DEFAULT_HARVEST_PERIOD_MINUTES;
+
+	private Path cacheDirectory;
+
+	private ResponseDecoding responseDecoding = ResponseDecoding.FLICKR4JAVA;
+
+	private int asyncPoolSize = DEFAULT_ASYNC_POOL_SIZE;
+
+	private HedgingPolicy hedgingPolicy;
+
+	private Path journalFile;
+
+	private HarvestJournal journal;
+
+	private Path tileQueueDirectory;
+
+	private long tileLeaseMinutes = DEFAULT_TILE_LEASE_MINUTES;
+
+	private final AtomicInteger tileWorkers = new AtomicInteger();
+
+	private boolean refreshRecentlyUpdated;
+
+	private PhotoRefresher photoRefresher;
+
 	public FlickrHarvester() {
 		InputStream is = getClass().getResourceAsStream(FLICKR_CREDENTIALS_PROPERTIES);
 		if (is == null) {
@@ -79,6 +185,7 @@ public class FlickrHarvester implements Harvester {
 		}
 		
 		Properties props = new Properties();
+		int prefetchQueries = 0;
 		try {
 			props.load(is);
 			String accessToken = props.getProperty("ACCESS_TOKEN");
@@ -86,37 +193,236 @@ public class FlickrHarvester implements Harvester {
 			this.accessToken = new AccessToken(accessToken, accessTokenSecret);
 			this.oauthConsumerSecret = props.getProperty("OAUTH_CONSUMER_SECRET");
 			this.oauthConsumerKey = props.getProperty("OAUTH_CONSUMER_KEY");
-			this.quadraticalBboxWidth = Double.parseDouble(props.getProperty("QUADRATICAL_BBOX_WIDTH"));
-			if (props.containsKey("SEARCH_TERMS") && 
-					!(props.getProperty("SEARCH_TERMS") == null) && 
-					!props.getProperty("SEARCH_TERMS").isEmpty()) {
-				this.searchTerms = Arrays.asList(props.getProperty("SEARCH_TERMS").split(","));
+			this.quadraticalBboxWidth = getDoubleProperty(props, "QUADRATICAL_BBOX_WIDTH", Double.NaN);
+			if (Double.isNaN(quadraticalBboxWidth)) {
+				throw new IllegalStateException("QUADRATICAL_BBOX_WIDTH is required");
+			}
+			if (getStringProperty(props, "SEARCH_TERMS") != null) {
+				this.searchTerms = Arrays.asList(getStringProperty(props, "SEARCH_TERMS").split(","));
+			}
+			asyncPoolSize = getIntProperty(props, "ASYNC_POOL_SIZE", asyncPoolSize);
+			this.executionMode = getEnumProperty(props, "EXECUTION_MODE", ExecutionMode.class, executionMode);
+			int apiCallsPerHour = getIntProperty(props, "API_CALLS_PER_HOUR", 0);
+			if (getStringProperty(props, "API_CALLS_PER_HOUR") != null) {
+				this.rateLimiter = new RateLimiter(apiCallsPerHour, TimeUnit.HOURS);
+			}
+			if (getStringProperty(props, "TENANT_WEIGHTS") != null) {
+				if (rateLimiter == null) {
+					throw new IllegalStateException("TENANT_WEIGHTS requires API_CALLS_PER_HOUR");
+				}
+				int queueDepth = getIntProperty(props, "TENANT_QUEUE_DEPTH", DEFAULT_TENANT_QUEUE_DEPTH);
+				this.fairScheduler = new FairScheduler(apiCallsPerHour, TimeUnit.HOURS, queueDepth);
+				this.fairScheduler.setWeights(getStringProperty(props, "TENANT_WEIGHTS"));
+			}
+			if (getStringProperty(props, "RESULT_CACHE_MINUTES") != null) {
+				int cacheSize = getIntProperty(props, "RESULT_CACHE_SIZE", DEFAULT_RESULT_CACHE_SIZE);
+				this.queryResultCache = new QueryResultCache(cacheSize, getLongProperty(props, "RESULT_CACHE_MINUTES", 0), TimeUnit.MINUTES);
+			}
+			prefetchQueries = getIntProperty(props, "PREFETCH_QUERIES", 0);
+			if (prefetchQueries > 0 && queryResultCache == null) {
+				throw new IllegalStateException("PREFETCH_QUERIES requires RESULT_CACHE_MINUTES");
+			}
+			if (prefetchQueries > 0 && rateLimiter == null) {
+				throw new IllegalStateException("PREFETCH_QUERIES requires API_CALLS_PER_HOUR");
+			}
+			this.harvestRegions = HarvestRegion.parse(props.getProperty("HARVEST_REGIONS"));
+			this.harvestPeriodMinutes = getLongProperty(props, "HARVEST_PERIOD_MINUTES", harvestPeriodMinutes);
+			if (getStringProperty(props, "CACHE_DIRECTORY") != null) {
+				this.cacheDirectory = Paths.get(getStringProperty(props, "CACHE_DIRECTORY"));
 			}
+			if (getStringProperty(props, "HEDGING_PERCENTILE") != null) {
+				double maxHedgeRatio = getDoubleProperty(props, "HEDGING_MAX_RATIO", DEFAULT_HEDGING_MAX_RATIO);
+				this.hedgingPolicy = new HedgingPolicy(getDoubleProperty(props, "HEDGING_PERCENTILE", 0), maxHedgeRatio);
+			}
+			if (getStringProperty(props, "JOURNAL_FILE") != null) {
+				this.journalFile = Paths.get(getStringProperty(props, "JOURNAL_FILE"));
+			}
+			if (getStringProperty(props, "TILE_QUEUE_DIRECTORY") != null) {
+				this.tileQueueDirectory = Paths.get(getStringProperty(props, "TILE_QUEUE_DIRECTORY"));
+			}
+			this.tileLeaseMinutes = getLongProperty(props, "TILE_LEASE_MINUTES", tileLeaseMinutes);
+			if (getStringProperty(props, "REFRESH_RECENTLY_UPDATED") != null) {
+				this.refreshRecentlyUpdated = Boolean.parseBoolean(getStringProperty(props, "REFRESH_RECENTLY_UPDATED"));
+			}
+			this.responseDecoding = getEnumProperty(props, "RESPONSE_DECODING", ResponseDecoding.class, responseDecoding);
+			if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+				this.executor = executionMode.createExecutor(asyncPoolSize);
+			} else {
+				this.executor = ExecutionMode.PLATFORM_THREADS.createExecutor(asyncPoolSize);
+			}
+			this.timeoutScheduler = Executors.newSingleThreadScheduledExecutor(ExecutionMode.createDaemonThreadFactory("flickr-harvester-timeout"));
 		} catch (IOException e) {
 			LOGGER.warn("properties malformed or unreadable", e);
 			throw new IllegalStateException(e);
 		}
+		this.dao = new FlickrDAO(accessToken, oauthConsumerKey, oauthConsumerSecret);
+		this.dao.setExecutionMode(executionMode, executor);
+		this.dao.setRateLimiter(rateLimiter);
+		this.dao.setFairScheduler(fairScheduler);
+		this.dao.setResponseDecoding(responseDecoding, asyncPoolSize);
+		this.dao.setHedgingPolicy(hedgingPolicy);
+		this.dao.setQueryResultCache(queryResultCache);
+		if (prefetchQueries > 0) {
+			this.prefetcher = new QueryPrefetcher(dao, prefetchQueries);
+		}
+		loadCaches();
+	}
+
+	/**
+	 * @return the trimmed value, <code>null</code> if the property is missing
+	 *         or blank
+	 */
+	static String getStringProperty(Properties props, String name) {
+		String value = props.getProperty(name);
+		return value != null && !value.trim().isEmpty() ? value.trim() : null;
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             naming the property if its value is not an integer
+	 */
+	static int getIntProperty(Properties props, String name, int defaultValue) {
+		String value = getStringProperty(props, name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalStateException(String.format("%s must be an integer: %s", name, value), e);
+		}
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             naming the property if its value is not an integer
+	 */
+	static long getLongProperty(Properties props, String name, long defaultValue) {
+		String value = getStringProperty(props, name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalStateException(String.format("%s must be an integer: %s", name, value), e);
+		}
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             naming the property if its value is not a number
+	 */
+	static double getDoubleProperty(Properties props, String name, double defaultValue) {
+		String value = getStringProperty(props, name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalStateException(String.format("%s must be a number: %s", name, value), e);
+		}
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             naming the property and the valid values if its value is
+	 *             none of them
+	 */
+	static <E extends Enum<E>> E getEnumProperty(Properties props, String name, Class<E> type, E defaultValue) {
+		String value = getStringProperty(props, name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Enum.valueOf(type, value);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalStateException(String.format("%s must be one of %s: %s",
+					name, Arrays.toString(type.getEnumConstants()), value), e);
+		}
+	}
+
+	private void loadCaches() {
+		if (cacheDirectory == null) {
+			return;
+		}
+		try {
+			if (Files.exists(cacheDirectory.resolve(PLACE_CACHE_FILE))) {
+				LOGGER.info("{} places loaded", dao.getPlaceCache().load(cacheDirectory.resolve(PLACE_CACHE_FILE)));
+			}
+			if (Files.exists(cacheDirectory.resolve(OWNER_CACHE_FILE))) {
+				LOGGER.info("{} owners loaded", dao.getProcedureCache().load(cacheDirectory.resolve(OWNER_CACHE_FILE)));
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Could not warm up caches from " + cacheDirectory, e);
+		}
+	}
+
+	/**
+	 * Stores the place and owner caches and the versions of the photos
+	 * tracked by the {@link #getPhotoRefresher() refresher} to the
+	 * <code>CACHE_DIRECTORY</code> for the next start, if configured.
+	 */
+	public void storeCaches() throws IOException {
+		if (cacheDirectory == null) {
+			return;
+		}
+		Files.createDirectories(cacheDirectory);
+		dao.getPlaceCache().store(cacheDirectory.resolve(PLACE_CACHE_FILE));
+		dao.getProcedureCache().store(cacheDirectory.resolve(OWNER_CACHE_FILE));
+		synchronized (this) {
+			if (photoRefresher != null) {
+				photoRefresher.store(cacheDirectory.resolve(PHOTO_VERSIONS_FILE));
+			}
+		}
+	}
+
+	/**
+	 * Stops the prefetcher and the threads of this harvester and closes the
+	 * connections of the DAO. The caches are not stored, see
+	 * {@link #storeCaches()}.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (prefetcher != null) {
+			prefetcher.close();
+		}
+		timeoutScheduler.shutdownNow();
+		executor.shutdownNow();
+		dao.close();
+	}
+
+	/**
+	 * The refresher shared by all callers of this harvester. Harvested photos
+	 * have to be {@link PhotoRefresher#track(FlickrMessage) tracked} to be
+	 * refreshed. The tracked versions are restored from the
+	 * <code>CACHE_DIRECTORY</code>, if configured, and stored with
+	 * {@link #storeCaches()}.
+	 */
+	public synchronized PhotoRefresher getPhotoRefresher() {
+		if (photoRefresher == null) {
+			photoRefresher = new PhotoRefresher(dao, refreshRecentlyUpdated);
+			if (cacheDirectory != null && Files.exists(cacheDirectory.resolve(PHOTO_VERSIONS_FILE))) {
+				try {
+					LOGGER.info("{} photo versions loaded", photoRefresher.load(cacheDirectory.resolve(PHOTO_VERSIONS_FILE)));
+				} catch (IOException e) {
+					LOGGER.warn("Could not restore photo versions from " + cacheDirectory, e);
+				}
+			}
+		}
+		return photoRefresher;
 	}
 
 	public Collection<HumanVisualPerceptionObservation> searchForObservationsAt(double latitude, double longitude, DateTime start, DateTime end) throws DecodingException {
 		List<HumanVisualPerceptionObservation> result = new ArrayList<>();
 		
-		FlickrDAO dao = new FlickrDAO(accessToken,oauthConsumerKey, oauthConsumerSecret);
-		
 		try {
 			
-			double[] bbox = CoordinateUtil.createBBoxCordinates(latitude, longitude, quadraticalBboxWidth / 2.0d);
-			
-			FlickrQuery query = new FlickrQuery(
-					bbox[0],
-					bbox[1],
-					bbox[2],
-					bbox[3],
-					start,
-					end,
-					null);
+			FlickrQuery query = createQueryAt(latitude, longitude, start, end);
 
 			result.addAll(dao.executeQuery(query));
+			prefetchAfter(query);
 			return result;
 			
 		} catch (FlickrException e) {
@@ -127,22 +433,12 @@ public class FlickrHarvester implements Harvester {
 	public Collection<HumanVisualPerceptionObservation> searchForObservationsAt(double latitude, double longitude) throws DecodingException {
 		List<HumanVisualPerceptionObservation> result = new ArrayList<>();
 		
-		FlickrDAO dao = new FlickrDAO(accessToken,oauthConsumerKey,oauthConsumerSecret);
-		
 		try {
 			
-			double[] bbox = CoordinateUtil.createBBoxCordinates(latitude, longitude, quadraticalBboxWidth / 2.0d);
-			
-			FlickrQuery query = new FlickrQuery(
-					bbox[0],
-					bbox[1],
-					bbox[2],
-					bbox[3],
-					null,
-					null,
-					null);
+			FlickrQuery query = createQueryAt(latitude, longitude, null, null);
 			
 			result.addAll(dao.executeQuery(query));
+			prefetchAfter(query);
 			return result;
 			
 		} catch (FlickrException e) {
@@ -150,13 +446,29 @@ public class FlickrHarvester implements Harvester {
 		}
 	}
 	
+	/**
+	 * Returns at most <code>maxResults</code> observations in the given
+	 * order, e.g. the 50 most recent ones. Pagination and enrichment stop as
+	 * soon as the budget is met.
+	 */
+	public Collection<HumanVisualPerceptionObservation> searchForObservationsAt(double latitude, double longitude, DateTime start, DateTime end, int maxResults, SortOrder sortOrder) throws DecodingException {
+		FlickrQuery query = createQueryAt(latitude, longitude, start, end);
+		query.setMaxResults(maxResults);
+		query.setSortOrder(sortOrder);
+		Collection<HumanVisualPerceptionObservation> observations = searchForObservations(query);
+		prefetchAfter(query);
+		return observations;
+	}
+	
+	public Collection<HumanVisualPerceptionObservation> searchForObservationsAt(double latitude, double longitude, int maxResults, SortOrder sortOrder) throws DecodingException {
+		return searchForObservationsAt(latitude, longitude, null, null, maxResults, sortOrder);
+	}
+	
 	public Collection<HumanVisualPerceptionObservation> searchForObservationsByTags(final String... tags) throws DecodingException {
 		Set<HumanVisualPerceptionObservation> result = new HashSet<>();
 		
 		try {
 			if (tags != null && tags.length > 0) {
-				FlickrDAO dao = new FlickrDAO(accessToken, oauthConsumerKey, oauthConsumerSecret);
-
 				FlickrQuery query = new FlickrQuery(
 						Double.MIN_VALUE,
 						Double.MIN_VALUE,
@@ -178,6 +490,148 @@ public class FlickrHarvester implements Harvester {
 		return result;	
 	}
 	
+	/**
+	 * @param tagMode
+	 *            {@link TagMode#ANY} queries with more tags than Flickr
+	 *            accepts per search are split and run in parallel
+	 */
+	public Collection<HumanVisualPerceptionObservation> searchForObservationsByTags(TagMode tagMode, final String... tags) throws DecodingException {
+		return awaitObservations(searchForObservationsByTagsAsync(tagMode, tags));
+	}
+
+	/**
+	 * Tag search restricted to the bounding box around the given location and
+	 * to the time span, which may be open at either end.
+	 */
+	public Collection<HumanVisualPerceptionObservation> searchForObservationsByTags(double latitude, double longitude, DateTime start, DateTime end, TagMode tagMode, final String... tags) throws DecodingException {
+		return awaitObservations(searchForObservationsByTagsAsync(latitude, longitude, start, end, tagMode, tags));
+	}
+
+	/**
+	 * Executes a query prepared by the caller, e.g. with additional filters
+	 * like {@link FlickrQuery#setMinimumAccuracy(int)} or
+	 * {@link FlickrQuery#setLicenses(String...)}, which are evaluated by
+	 * Flickr before any photo is enriched.
+	 */
+	public Collection<HumanVisualPerceptionObservation> searchForObservations(FlickrQuery query) throws DecodingException {
+		try {
+			return new ArrayList<HumanVisualPerceptionObservation>(dao.executeQuery(query));
+		} catch (FlickrException e) {
+			throw new DecodingException(new IOException(e));
+		}
+	}
+
+	/**
+	 * Searches until the deadline and returns the observations found by then.
+	 * An error stops the search as well but keeps the observations found so
+	 * far, see {@link PartialResult#getFailure()}.
+	 */
+	public PartialResult<HumanVisualPerceptionObservation> searchForObservationsAt(double latitude, double longitude, DateTime start, DateTime end, DateTime deadline) {
+		return searchForObservations(createQueryAt(latitude, longitude, start, end), deadline);
+	}
+
+	public PartialResult<HumanVisualPerceptionObservation> searchForObservationsByTags(DateTime deadline, TagMode tagMode, final String... tags) {
+		requireTags(tags);
+		FlickrQuery query = new FlickrQuery(
+				Double.MIN_VALUE,
+				Double.MIN_VALUE,
+				Double.MIN_VALUE,
+				Double.MIN_VALUE,
+				null,
+				null,
+				tags);
+		query.setTagMode(tagMode);
+		return searchForObservations(query, deadline);
+	}
+
+	public PartialResult<HumanVisualPerceptionObservation> searchForObservations(FlickrQuery query, DateTime deadline) {
+		PartialResult<FlickrMessage> flickrPhotos = dao.executeQuery(query, deadline);
+		return new PartialResult<HumanVisualPerceptionObservation>(new ArrayList<HumanVisualPerceptionObservation>(flickrPhotos.getItems()),
+				flickrPhotos.isComplete(),
+				flickrPhotos.getPagesCovered(),
+				flickrPhotos.getPages(),
+				flickrPhotos.getEstimatedTotal(),
+				flickrPhotos.hasFailure() ? new DecodingException(new IOException(flickrPhotos.getFailure())) : null);
+	}
+	
+	/**
+	 * Counts the observations around the position per grid cell without
+	 * creating them, see {@link #aggregateObservations(FlickrQuery, ObservationGrid)}.
+	 */
+	public ObservationGrid aggregateObservationsAt(double latitude, double longitude, DateTime start, DateTime end, int rows, int columns) throws DecodingException {
+		FlickrQuery query = createQueryAt(latitude, longitude, start, end);
+		ObservationGrid grid = new ObservationGrid(query.getBoundingBox(), rows, columns);
+		aggregateObservations(query, grid);
+		return grid;
+	}
+
+	/**
+	 * Counts the observations around the position per grid cell and time
+	 * bucket of the given length between start and end, the last bucket
+	 * might reach beyond the end.
+	 */
+	public ObservationGrid aggregateObservationsAt(double latitude, double longitude, DateTime start, DateTime end, int rows, int columns, long bucketLength, TimeUnit unit) throws DecodingException {
+		if (start == null || end == null || !start.isBefore(end)) {
+			throw new IllegalArgumentException("Time buckets require a start before the end");
+		}
+		long bucketMillis = unit.toMillis(bucketLength);
+		if (bucketMillis < 1) {
+			throw new IllegalArgumentException("Time buckets have to be at least one millisecond long");
+		}
+		long span = end.getMillis() - start.getMillis();
+		int buckets = (int) Math.min(Integer.MAX_VALUE, (span + bucketMillis - 1) / bucketMillis);
+		FlickrQuery query = createQueryAt(latitude, longitude, start, end);
+		ObservationGrid grid = new ObservationGrid(query.getBoundingBox(), rows, columns, start.getMillis(), bucketMillis, buckets);
+		aggregateObservations(query, grid);
+		return grid;
+	}
+
+	/**
+	 * Folds the observations of the query into the grid as the search result
+	 * pages arrive, without keeping or even enriching the individual photos.
+	 * To update a grid of an earlier run, {@link ObservationGrid#load(Path) load}
+	 * it and pass a query restricted to the photos uploaded since then with
+	 * {@link FlickrQuery#setMinUploadDate(DateTime)}. Grids of separate runs
+	 * with the same geometry can be combined with
+	 * {@link ObservationGrid#merge(ObservationGrid)}.
+	 * <p>
+	 * Long lists of tags in {@link TagMode#ANY} keep the ids of the photos
+	 * counted, see {@link FlickrDAO#aggregate(FlickrQuery, ObservationGrid)}.
+	 * 
+	 * @return the number of observations folded into the grid
+	 */
+	public int aggregateObservations(FlickrQuery query, ObservationGrid grid) throws DecodingException {
+		try {
+			return dao.aggregate(query, grid);
+		} catch (FlickrException e) {
+			throw new DecodingException(new IOException(e));
+		}
+	}
+	
+	/**
+	 * @return the usage of the API budget per tenant, empty unless
+	 *         <code>TENANT_WEIGHTS</code> are configured
+	 */
+	public List<TenantUsage> getTenantUsage() {
+		return fairScheduler != null ? fairScheduler.getUsage() : Collections.<TenantUsage>emptyList();
+	}
+
+	/**
+	 * @return the cache of recent query results, <code>null</code> unless
+	 *         <code>RESULT_CACHE_MINUTES</code> is configured
+	 */
+	public QueryResultCache getQueryResultCache() {
+		return queryResultCache;
+	}
+
+	/**
+	 * @return the prefetcher, <code>null</code> unless
+	 *         <code>PREFETCH_QUERIES</code> is configured
+	 */
+	public QueryPrefetcher getPrefetcher() {
+		return prefetcher;
+	}
+
 	public boolean isSetSearchTerms() {
 		return searchTerms != null && searchTerms.size() > 0;
 	}
@@ -194,12 +648,7 @@ public class FlickrHarvester implements Harvester {
 		
 		try {
 			if (ids != null && ids.length > 0) {
-//				long[] longIds = getLongIdsFrom(ids);
-				
-				FlickrDAO dao = new FlickrDAO(accessToken, oauthConsumerKey, oauthConsumerSecret);
-
-				// TODO implement
-				result.addAll(dao.executeQuery(null/*longIds*/));
+				result.addAll(dao.getByIds(ids));
 			}
 			else {
 				throw new IllegalArgumentException("At least one id is required");
@@ -211,13 +660,252 @@ public class FlickrHarvester implements Harvester {
 		return result;	
 	}
 
-//	private long[] getLongIdsFrom(String[] ids) {
-//		long[] result = new long[ids.length];
-//		int index = 0;
-//		for (String id : ids) {
-//			result[index++] = Long.parseLong(id);
-//		}
-//		return result;
-//	}
+	public CompletableFuture<Collection<HumanVisualPerceptionObservation>> searchForObservationsAtAsync(double latitude, double longitude, DateTime start, DateTime end) {
+		FlickrQuery query = createQueryAt(latitude, longitude, start, end);
+		return toObservations(prefetchAfter(query, dao.executeQueryAsync(query, executor)));
+	}
+
+	public CompletableFuture<Collection<HumanVisualPerceptionObservation>> searchForObservationsAtAsync(double latitude, double longitude, DateTime start, DateTime end, int maxResults, SortOrder sortOrder) {
+		FlickrQuery query = createQueryAt(latitude, longitude, start, end);
+		query.setMaxResults(maxResults);
+		query.setSortOrder(sortOrder);
+		return toObservations(prefetchAfter(query, dao.executeQueryAsync(query, executor)));
+	}
+
+	public CompletableFuture<Collection<HumanVisualPerceptionObservation>> searchForObservationsAtAsync(double latitude, double longitude, DateTime start, DateTime end, long timeout, TimeUnit unit) {
+		return within(searchForObservationsAtAsync(latitude, longitude, start, end), timeout, unit);
+	}
+
+	public CompletableFuture<Collection<HumanVisualPerceptionObservation>> searchForObservationsAtAsync(double latitude, double longitude) {
+		return searchForObservationsAtAsync(latitude, longitude, null, null);
+	}
+
+	public CompletableFuture<Collection<HumanVisualPerceptionObservation>> searchForObservationsAtAsync(double latitude, double longitude, long timeout, TimeUnit unit) {
+		return within(searchForObservationsAtAsync(latitude, longitude), timeout, unit);
+	}
+
+	public CompletableFuture<Collection<HumanVisualPerceptionObservation>> searchForObservationsByTagsAsync(final String... tags) {
+		return searchForObservationsByTagsAsync(TagMode.ALL, tags);
+	}
+
+	public CompletableFuture<Collection<HumanVisualPerceptionObservation>> searchForObservationsByTagsAsync(TagMode tagMode, final String... tags) {
+		requireTags(tags);
+		FlickrQuery query = new FlickrQuery(
+				Double.MIN_VALUE,
+				Double.MIN_VALUE,
+				Double.MIN_VALUE,
+				Double.MIN_VALUE,
+				null,
+				null,
+				tags);
+		query.setTagMode(tagMode);
+
+		return toObservations(dao.executeQueryAsync(query, executor));
+	}
+
+	public CompletableFuture<Collection<HumanVisualPerceptionObservation>> searchForObservationsByTagsAsync(double latitude, double longitude, DateTime start, DateTime end, TagMode tagMode, final String... tags) {
+		requireTags(tags);
+		FlickrQuery query = createQueryAt(latitude, longitude, start, end);
+		query.setKeywords(tags);
+		query.setTagMode(tagMode);
+
+		return toObservations(dao.executeQueryAsync(query, executor));
+	}
+
+	public CompletableFuture<Collection<HumanVisualPerceptionObservation>> searchForObservationsByTagsAsync(long timeout, TimeUnit unit, final String... tags) {
+		return within(searchForObservationsByTagsAsync(tags), timeout, unit);
+	}
+
+	public CompletableFuture<Collection<HumanVisualPerceptionObservation>> getByIdsAsync(String... ids) {
+		if (ids == null || ids.length == 0) {
+			throw new IllegalArgumentException("At least one id is required");
+		}
+		return toObservations(dao.getByIdsAsync(executor, ids));
+	}
+
+	public CompletableFuture<Collection<HumanVisualPerceptionObservation>> getByIdsAsync(long timeout, TimeUnit unit, String... ids) {
+		return within(getByIdsAsync(ids), timeout, unit);
+	}
+
+	/**
+	 * Creates a harvester for the configured <code>SEARCH_TERMS</code> and
+	 * <code>HARVEST_REGIONS</code>, which has to be started by the caller.
+	 * 
+	 * @param sink
+	 *            receives the new observations, a bounded queue holds back the
+	 *            harvest while it is full
+	 */
+	public ContinuousHarvester createContinuousHarvester(BlockingQueue<FlickrMessage> sink) {
+		List<String> terms = isSetSearchTerms() ? searchTerms : Collections.<String>emptyList();
+		return new ContinuousHarvester(dao, terms, harvestRegions, sink, harvestPeriodMinutes, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Creates a harvest which records its progress in the configured
+	 * <code>JOURNAL_FILE</code> and resumes from it after a restart. All
+	 * resumable harvests of this harvester share the journal.
+	 * 
+	 * @throws IllegalStateException
+	 *             if no journal file is configured
+	 */
+	public synchronized ResumableHarvest createResumableHarvest() throws IOException {
+		if (journalFile == null) {
+			throw new IllegalStateException("JOURNAL_FILE not configured");
+		}
+		if (journal == null) {
+			if (journalFile.getParent() != null) {
+				Files.createDirectories(journalFile.getParent());
+			}
+			journal = new HarvestJournal(journalFile);
+		}
+		return new ResumableHarvest(dao, journal);
+	}
+
+	/**
+	 * Opens the tile queue in the configured <code>TILE_QUEUE_DIRECTORY</code>,
+	 * which is shared by all harvester nodes. The coordinating node offers
+	 * the tiles of a query through a {@link TileCoordinator}, the workers on
+	 * all nodes take them.
+	 * 
+	 * @throws IllegalStateException
+	 *             if no tile queue directory is configured
+	 */
+	public TileQueue createTileQueue() throws IOException {
+		if (tileQueueDirectory == null) {
+			throw new IllegalStateException("TILE_QUEUE_DIRECTORY not configured");
+		}
+		return new FileSystemTileQueue(tileQueueDirectory);
+	}
+
+	/**
+	 * Creates a worker leasing tiles for <code>TILE_LEASE_MINUTES</code>,
+	 * which has to be started by the caller.
+	 * 
+	 * @param template
+	 *            provides all constraints of the tile queries but the bounding
+	 *            box and time span, e.g. keywords
+	 * @param sink
+	 *            receives the new observations, a bounded queue holds back the
+	 *            harvest while it is full
+	 */
+	public TileWorker createTileWorker(TileQueue queue, FlickrQuery template, BlockingQueue<FlickrMessage> sink) {
+		String workerId = ManagementFactory.getRuntimeMXBean().getName() + "-" + tileWorkers.incrementAndGet();
+		return new TileWorker(dao, queue, template, sink, workerId, tileLeaseMinutes, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Creates a downloader of the images of harvested observations. It pools
+	 * <code>maxConcurrency</code> connections of its own, so downloads do not
+	 * hold back the API calls of the harvest. It has to be closed by the
+	 * caller.
+	 */
+	public ImageDownloader createImageDownloader(Path directory, ImageSize size, int maxConcurrency) throws IOException {
+		return new ImageDownloader(directory, size, maxConcurrency);
+	}
+
+	/**
+	 * Streams the observations at the given location to a Reactive Streams
+	 * subscriber. Pages are fetched and photos enriched only as far as the
+	 * subscriber requests them.
+	 */
+	public Publisher<FlickrMessage> publishObservationsAt(double latitude, double longitude, DateTime start, DateTime end) {
+		return dao.publish(createQueryAt(latitude, longitude, start, end), executor);
+	}
+
+	private static void requireTags(String... tags) {
+		if (tags == null || tags.length == 0) {
+			throw new IllegalArgumentException("At least one tag is required");
+		}
+	}
+
+	private static Collection<HumanVisualPerceptionObservation> awaitObservations(CompletableFuture<Collection<HumanVisualPerceptionObservation>> observations) throws DecodingException {
+		try {
+			return observations.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof DecodingException) {
+				throw (DecodingException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Lets the prefetcher, if configured, learn from the query answered and
+	 * fetch the ones likely asked for next.
+	 */
+	private void prefetchAfter(FlickrQuery query) {
+		if (prefetcher != null) {
+			prefetcher.observe(query);
+		}
+	}
+
+	private <T> CompletableFuture<T> prefetchAfter(final FlickrQuery query, CompletableFuture<T> result) {
+		if (prefetcher != null) {
+			result.thenRun(() -> prefetcher.observe(query));
+		}
+		return result;
+	}
+
+	/**
+	 * Builds the query of the box around the given point. With a prefetcher
+	 * the box is the cell of the point in a grid of
+	 * <code>QUADRATICAL_BBOX_WIDTH</code> wide cells instead of a box centered
+	 * on the point, as the neighbours prefetched are cells of that grid and
+	 * clients pan by arbitrary distances.
+	 */
+	private FlickrQuery createQueryAt(double latitude, double longitude, DateTime start, DateTime end) {
+		double[] bbox = prefetcher != null
+				? QueryPrefetcher.getGridCell(latitude, longitude, quadraticalBboxWidth / METERS_PER_DEGREE)
+				: CoordinateUtil.createBBoxCordinates(latitude, longitude, quadraticalBboxWidth / 2.0d);
+
+		return new FlickrQuery(
+				bbox[0],
+				bbox[1],
+				bbox[2],
+				bbox[3],
+				start,
+				end,
+				null);
+	}
+
+	/**
+	 * Maps the DAO result and failures to the {@link org.n52.socialmedia.Harvester}
+	 * types. Cancelling or timing out the returned future is propagated to the
+	 * DAO, which stops requesting further pages and photos.
+	 */
+	private CompletableFuture<Collection<HumanVisualPerceptionObservation>> toObservations(final CompletableFuture<Collection<FlickrMessage>> flickrPhotos) {
+		final CompletableFuture<Collection<HumanVisualPerceptionObservation>> result = new CompletableFuture<>();
+		flickrPhotos.whenComplete((messages, error) -> {
+			if (error != null) {
+				result.completeExceptionally(toDecodingException(error));
+			} else {
+				result.complete(new ArrayList<HumanVisualPerceptionObservation>(messages));
+			}
+		});
+		result.whenComplete((observations, error) -> {
+			if (error != null) {
+				flickrPhotos.cancel(true);
+			}
+		});
+		return result;
+	}
+
+	private <T> CompletableFuture<T> within(final CompletableFuture<T> future, final long timeout, final TimeUnit unit) {
+		final ScheduledFuture<?> timeoutTask = timeoutScheduler.schedule(() -> future.completeExceptionally(
+				new TimeoutException(String.format("No result within %d %s", timeout, unit))),
+				timeout, unit);
+		future.whenComplete((result, error) -> timeoutTask.cancel(false));
+		return future;
+	}
+
+	private static Throwable toDecodingException(Throwable error) {
+		if (error instanceof CompletionException && error.getCause() != null) {
+			error = error.getCause();
+		}
+		if (error instanceof FlickrException) {
+			return new DecodingException(new IOException(error));
+		}
+		return error;
+	}
 	
 }
@@ -0,0 +1,284 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.n52.flickr.model.FlickrLocation;
+import org.n52.flickr.model.FlickrMessage;
+
+import com.flickr4java.flickr.tags.Tag;
+
+/**
+ * Keeps the encoded form of observations, e.g. their O&amp;M XML fragment,
+ * so an observation returned again is served by copying bytes instead of
+ * escaping and encoding it again.
+ * <p>
+ * The cache is bounded by the bytes of the fragments plus an estimated
+ * overhead per entry and evicts the least recently used fragments first. A
+ * fragment is encoded again when the message has another time of its last
+ * update than the one it was encoded from, so a hit costs a comparison of two
+ * longs. Messages without the time of their last update are compared by a
+ * SHA-256 digest of the raw fields instead. Other changes, e.g. of the owner's
+ * name, do not touch the time of the last update. Photos known to have
+ * changed, e.g. by a {@link org.n52.flickr.harvest.PhotoRefresher}, have to
+ * be dropped with {@link #invalidate(String)}.
+ */
+public class EncodedObservationCache {
+
+	/**
+	 * Rough size of an entry besides its fragment: map entry, key and
+	 * array header.
+	 */
+	private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+	/**
+	 * Version of messages without the time of their last update.
+	 */
+	private static final long UNVERSIONED = Long.MIN_VALUE;
+
+	private final long maxBytes;
+
+	private final Function<? super FlickrMessage, String> encoder;
+
+	private final Map<String, Fragment> fragments = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long bytes;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	/**
+	 * @param encoder
+	 *            renders the fragment of an observation with all values
+	 *            escaped already
+	 */
+	public EncodedObservationCache(long maxBytes, Function<? super FlickrMessage, String> encoder) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+		}
+		this.maxBytes = maxBytes;
+		this.encoder = encoder;
+	}
+
+	/**
+	 * @return a read-only view of the UTF-8 encoded fragment, encoded now if
+	 *         it is not cached or was encoded from a message with another
+	 *         time of its last update
+	 */
+	public ByteBuffer get(FlickrMessage flickrMessage) {
+		return ByteBuffer.wrap(getFragment(flickrMessage)).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Writes the UTF-8 encoded fragment of the observation.
+	 */
+	public void writeTo(FlickrMessage flickrMessage, OutputStream out) throws IOException {
+		out.write(getFragment(flickrMessage));
+	}
+
+	private byte[] getFragment(FlickrMessage flickrMessage) {
+		String photoId = flickrMessage.getIdentifier();
+		long version = flickrMessage.getLastUpdate() != null ? flickrMessage.getLastUpdate().getMillis() : UNVERSIONED;
+		byte[] fingerprint = version == UNVERSIONED ? fingerprint(flickrMessage) : null;
+		synchronized (this) {
+			Fragment fragment = fragments.get(photoId);
+			if (fragment != null && fragment.isEncodedFrom(version, fingerprint)) {
+				hits++;
+				return fragment.encoded;
+			}
+			misses++;
+		}
+		// encode outside of the lock, a concurrent miss encodes twice at worst
+		byte[] encoded = encoder.apply(flickrMessage).getBytes(StandardCharsets.UTF_8);
+		put(photoId, new Fragment(version, fingerprint, encoded));
+		return encoded;
+	}
+
+	private synchronized void put(String photoId, Fragment fragment) {
+		Fragment replaced = fragments.remove(photoId);
+		if (replaced != null) {
+			bytes -= replaced.getSize(photoId);
+		}
+		long size = fragment.getSize(photoId);
+		if (size > maxBytes) {
+			return;
+		}
+		Iterator<Map.Entry<String, Fragment>> eldest = fragments.entrySet().iterator();
+		while (bytes + size > maxBytes && eldest.hasNext()) {
+			Map.Entry<String, Fragment> entry = eldest.next();
+			bytes -= entry.getValue().getSize(entry.getKey());
+			eldest.remove();
+			evictions++;
+		}
+		fragments.put(photoId, fragment);
+		bytes += size;
+	}
+
+	public synchronized void invalidate(String photoId) {
+		Fragment removed = fragments.remove(photoId);
+		if (removed != null) {
+			bytes -= removed.getSize(photoId);
+		}
+	}
+
+	public synchronized void clear() {
+		fragments.clear();
+		bytes = 0;
+	}
+
+	public synchronized int size() {
+		return fragments.size();
+	}
+
+	/**
+	 * @return the bytes taken by the cached fragments including the
+	 *         estimated overhead
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Digests the fields which go into an encoding, without escaping or
+	 * formatting them. Each value is prefixed by its length, so moving
+	 * characters between fields changes the digest as well.
+	 */
+	static byte[] fingerprint(FlickrMessage flickrMessage) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform supports SHA-256
+			throw new IllegalStateException(e);
+		}
+		update(digest, flickrMessage.getIdentifier());
+		update(digest, flickrMessage.getTitle());
+		update(digest, flickrMessage.getCaption());
+		if (flickrMessage.getTags() != null) {
+			update(digest, flickrMessage.getTags().size());
+			for (Tag tag : flickrMessage.getTags()) {
+				update(digest, tag.getValue());
+			}
+		} else {
+			update(digest, null);
+		}
+		FlickrLocation location = flickrMessage.getLocation();
+		if (location != null) {
+			update(digest, location.getLatitude());
+			update(digest, location.getLongitude());
+			update(digest, location.getAccuracy());
+			update(digest, location.getId());
+			update(digest, location.getName());
+		} else {
+			update(digest, null);
+		}
+		update(digest, flickrMessage.getPhenomenonTime());
+		update(digest, flickrMessage.getResultTime());
+		update(digest, flickrMessage.getResultHref());
+		if (flickrMessage.getProcedure() != null) {
+			update(digest, flickrMessage.getProcedure().getId());
+			update(digest, flickrMessage.getProcedure().getName());
+		} else {
+			update(digest, null);
+		}
+		return digest.digest();
+	}
+
+	private static void update(MessageDigest digest, Object value) {
+		if (value == null) {
+			digest.update((byte) 0);
+			return;
+		}
+		byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+		digest.update((byte) 1);
+		digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+		digest.update(bytes);
+	}
+
+	private static class Fragment {
+
+		private final long version;
+
+		/**
+		 * Only set for {@link #UNVERSIONED} messages.
+		 */
+		private final byte[] fingerprint;
+
+		private final byte[] encoded;
+
+		Fragment(long version, byte[] fingerprint, byte[] encoded) {
+			this.version = version;
+			this.fingerprint = fingerprint;
+			this.encoded = encoded;
+		}
+
+		boolean isEncodedFrom(long version, byte[] fingerprint) {
+			if (version != UNVERSIONED) {
+				return this.version == version;
+			}
+			return this.fingerprint != null && MessageDigest.isEqual(this.fingerprint, fingerprint);
+		}
+
+		long getSize(String photoId) {
+			return encoded.length + (fingerprint != null ? fingerprint.length : 0) + 2L * photoId.length()
+					+ ENTRY_OVERHEAD_BYTES;
+		}
+
+	}
+
+}
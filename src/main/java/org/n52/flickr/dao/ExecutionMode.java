@@ -0,0 +1,107 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Defines on which threads {@link FlickrDAO} fetches pages and enriches
+ * photos.
+ */
+public enum ExecutionMode {
+
+	/**
+	 * Everything runs one call after the other on the calling thread.
+	 */
+	SEQUENTIAL,
+
+	/**
+	 * Calls fan out to a fixed pool of platform threads, hence concurrency is
+	 * bounded by the pool size.
+	 */
+	PLATFORM_THREADS,
+
+	/**
+	 * Calls fan out to one virtual thread each, hence concurrency is bounded
+	 * by the {@link RateLimiter} only. Requires a Java 21 runtime; the
+	 * executor is looked up reflectively as the project still targets
+	 * Java 8.
+	 */
+	VIRTUAL_THREADS;
+
+	private static final String VIRTUAL_THREAD_FACTORY_METHOD = "newVirtualThreadPerTaskExecutor";
+
+	/**
+	 * @param parallelism
+	 *            the pool size for {@link #PLATFORM_THREADS}, ignored
+	 *            otherwise
+	 * @return a new executor or <code>null</code> for {@link #SEQUENTIAL}
+	 * @throws IllegalStateException
+	 *             if {@link #VIRTUAL_THREADS} are requested on a runtime
+	 *             without virtual threads
+	 */
+	public ExecutorService createExecutor(int parallelism) {
+		switch (this) {
+		case PLATFORM_THREADS:
+			return Executors.newFixedThreadPool(parallelism, createDaemonThreadFactory("flickr-dao"));
+		case VIRTUAL_THREADS:
+			try {
+				return (ExecutorService) Executors.class.getMethod(VIRTUAL_THREAD_FACTORY_METHOD).invoke(null);
+			} catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+				throw new IllegalStateException("Virtual threads require a Java 21 runtime, running on "
+						+ System.getProperty("java.version"), e);
+			}
+		default:
+			return null;
+		}
+	}
+
+	public static boolean isVirtualThreadsSupported() {
+		try {
+			Executors.class.getMethod(VIRTUAL_THREAD_FACTORY_METHOD);
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	public static ThreadFactory createDaemonThreadFactory(final String namePrefix) {
+		final AtomicInteger threadCount = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, namePrefix + "-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+}
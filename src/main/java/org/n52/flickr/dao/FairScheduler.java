@@ -0,0 +1,321 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shares the API budget between tenants, in place of a plain
+ * {@link RateLimiter}. Slots are issued at the same even pace, e.g. one per
+ * second for 3600 calls per hour, and each slot goes to a waiting call:
+ * <ol>
+ * <li>{@link CallPriority#INTERACTIVE interactive} calls are served before
+ * {@link CallPriority#BULK bulk} calls,</li>
+ * <li>within a priority class the tenants are served in proportion to their
+ * weights (start-time fair queueing), so a tenant with weight 3 gets three
+ * slots for each slot of a waiting tenant with weight 1. A tenant with
+ * nothing to do leaves its share to the others and earns no credit
+ * meanwhile,</li>
+ * <li>calls of one tenant and class are served in arrival order.</li>
+ * </ol>
+ * Each tenant may have a limited number of calls waiting, further calls
+ * are rejected at once instead of building up latency. Waiting happens on a
+ * {@link Condition}, which keeps it cheap on virtual threads.
+ */
+public class FairScheduler {
+
+	private static final double DEFAULT_WEIGHT = 1.0;
+
+	private final long intervalNanos;
+
+	private final int maxQueuedPerTenant;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition slotsChanged = lock.newCondition();
+
+	private final Map<String, Tenant> tenants = new TreeMap<>();
+
+	private long nextFreeSlot;
+
+	private double virtualTime;
+
+	/**
+	 * @param maxQueuedPerTenant
+	 *            the maximum number of waiting calls per tenant
+	 */
+	public FairScheduler(int calls, TimeUnit per, int maxQueuedPerTenant) {
+		if (calls <= 0) {
+			throw new IllegalArgumentException("calls must be positive: " + calls);
+		}
+		if (maxQueuedPerTenant <= 0) {
+			throw new IllegalArgumentException("maxQueuedPerTenant must be positive: " + maxQueuedPerTenant);
+		}
+		this.intervalNanos = per.toNanos(1) / calls;
+		this.maxQueuedPerTenant = maxQueuedPerTenant;
+		this.nextFreeSlot = System.nanoTime();
+	}
+
+	/**
+	 * Tenants not configured have a weight of 1.
+	 */
+	public void setWeight(String tenant, double weight) {
+		if (weight <= 0) {
+			throw new IllegalArgumentException("weight must be positive: " + weight);
+		}
+		lock.lock();
+		try {
+			getTenant(tenant).weight = weight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param weights
+	 *            semicolon separated list of <code>tenant:weight</code>
+	 */
+	public void setWeights(String weights) {
+		if (weights == null || weights.trim().isEmpty()) {
+			return;
+		}
+		for (String tenantWeight : weights.split(";")) {
+			if (tenantWeight.trim().isEmpty()) {
+				continue;
+			}
+			String[] tenantAndWeight = tenantWeight.split(":");
+			if (tenantAndWeight.length != 2 || tenantAndWeight[0].trim().isEmpty()) {
+				throw new IllegalArgumentException(String.format(
+						"Tenant weight '%s' malformed, expected 'tenant:weight'", tenantWeight));
+			}
+			setWeight(tenantAndWeight[0].trim(), Double.parseDouble(tenantAndWeight[1].trim()));
+		}
+	}
+
+	/**
+	 * Blocks until the next slot is granted to the call.
+	 * 
+	 * @throws RejectedExecutionException
+	 *             if the tenant has the maximum number of calls waiting
+	 *             already
+	 */
+	public void acquire(TenantContext context) throws InterruptedException {
+		Ticket ticket = new Ticket(System.nanoTime());
+		lock.lock();
+		try {
+			Tenant tenant = getTenant(context.getTenant());
+			if (tenant.getQueued() >= maxQueuedPerTenant) {
+				tenant.rejected++;
+				throw new RejectedExecutionException(String.format(
+						"Tenant '%s' has %d calls waiting already", tenant.name, tenant.getQueued()));
+			}
+			if (tenant.getQueued() == 0) {
+				tenant.virtualStart = Math.max(tenant.virtualStart, virtualTime);
+			}
+			ArrayDeque<Ticket> queue = tenant.queues.get(context.getPriority());
+			queue.add(ticket);
+			try {
+				while (!ticket.granted) {
+					long now = System.nanoTime();
+					long waitNanos = nextFreeSlot - now;
+					if (waitNanos <= 0) {
+						grantNext(now);
+						nextFreeSlot = now + intervalNanos;
+						slotsChanged.signalAll();
+					} else {
+						slotsChanged.awaitNanos(waitNanos);
+					}
+				}
+			} catch (InterruptedException e) {
+				if (ticket.granted) {
+					// the slot is used anyway, keep the interruption for later
+					Thread.currentThread().interrupt();
+				} else {
+					queue.remove(ticket);
+					throw e;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes the next slot for the tenant only if it is due already and no
+	 * other call is waiting, which leaves speculative calls the budget
+	 * nobody else needs.
+	 * 
+	 * @return <code>false</code> if the caller would have to wait
+	 */
+	public boolean tryAcquire(TenantContext context) {
+		lock.lock();
+		try {
+			long now = System.nanoTime();
+			if (nextFreeSlot - now > 0) {
+				return false;
+			}
+			for (Tenant tenant : tenants.values()) {
+				if (tenant.getQueued() > 0) {
+					return false;
+				}
+			}
+			getTenant(context.getTenant()).granted++;
+			nextFreeSlot = now + intervalNanos;
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Grants the slot to the head of the tenant queue with the earliest
+	 * virtual start among the highest priority class with waiting calls.
+	 */
+	private void grantNext(long now) {
+		for (CallPriority priority : CallPriority.values()) {
+			Tenant next = null;
+			for (Tenant tenant : tenants.values()) {
+				if (!tenant.queues.get(priority).isEmpty()
+						&& (next == null || tenant.virtualStart < next.virtualStart)) {
+					next = tenant;
+				}
+			}
+			if (next != null) {
+				Ticket ticket = next.queues.get(priority).poll();
+				ticket.granted = true;
+				long waitNanos = now - ticket.enqueued;
+				next.granted++;
+				next.totalWaitNanos += waitNanos;
+				next.maxWaitNanos = Math.max(next.maxWaitNanos, waitNanos);
+				virtualTime = next.virtualStart;
+				next.virtualStart += 1.0 / next.weight;
+				return;
+			}
+		}
+	}
+
+	private Tenant getTenant(String name) {
+		Tenant tenant = tenants.get(name);
+		if (tenant == null) {
+			tenant = new Tenant(name);
+			tenants.put(name, tenant);
+		}
+		return tenant;
+	}
+
+	/**
+	 * @return the usage of each tenant seen so far, ordered by name
+	 */
+	public List<TenantUsage> getUsage() {
+		lock.lock();
+		try {
+			List<TenantUsage> usage = new ArrayList<>(tenants.size());
+			for (Tenant tenant : tenants.values()) {
+				usage.add(new TenantUsage(tenant.name,
+						tenant.weight,
+						tenant.granted,
+						tenant.rejected,
+						tenant.getQueued(),
+						tenant.totalWaitNanos,
+						tenant.maxWaitNanos));
+			}
+			return usage;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getIntervalNanos() {
+		return intervalNanos;
+	}
+
+	public int getMaxQueuedPerTenant() {
+		return maxQueuedPerTenant;
+	}
+
+	private static class Ticket {
+
+		private final long enqueued;
+
+		private boolean granted;
+
+		Ticket(long enqueued) {
+			this.enqueued = enqueued;
+		}
+
+	}
+
+	private static class Tenant {
+
+		private final String name;
+
+		private final Map<CallPriority, ArrayDeque<Ticket>> queues = new EnumMap<>(CallPriority.class);
+
+		private double weight = DEFAULT_WEIGHT;
+
+		/**
+		 * Virtual time at which the next call of this tenant starts.
+		 */
+		private double virtualStart;
+
+		private long granted;
+
+		private long rejected;
+
+		private long totalWaitNanos;
+
+		private long maxWaitNanos;
+
+		Tenant(String name) {
+			this.name = name;
+			for (CallPriority priority : CallPriority.values()) {
+				queues.put(priority, new ArrayDeque<Ticket>());
+			}
+		}
+
+		int getQueued() {
+			int queued = 0;
+			for (ArrayDeque<Ticket> queue : queues.values()) {
+				queued += queue.size();
+			}
+			return queued;
+		}
+
+	}
+
+}
@@ -28,15 +28,48 @@
  */
 package org.n52.flickr.dao;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Predicate;
 
+import org.joda.time.DateTime;
 import org.n52.flickr.model.AccessToken;
 import org.n52.flickr.model.FlickrLocation;
 import org.n52.flickr.model.FlickrMessage;
 import org.n52.flickr.model.FlickrQuery;
+import org.n52.flickr.model.ObservationGrid;
+import org.n52.flickr.model.PartialResult;
+import org.n52.flickr.model.TagMode;
 import org.n52.socialmedia.DecodingException;
-import org.n52.socialmedia.model.Procedure;
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,6 +80,7 @@ import com.flickr4java.flickr.RequestContext;
 import com.flickr4java.flickr.auth.Auth;
 import com.flickr4java.flickr.auth.Permission;
 import com.flickr4java.flickr.people.User;
+import com.flickr4java.flickr.photos.Extras;
 import com.flickr4java.flickr.photos.GeoData;
 import com.flickr4java.flickr.photos.Photo;
 import com.flickr4java.flickr.photos.PhotoList;
@@ -58,47 +92,986 @@ import com.flickr4java.flickr.photos.geo.GeoInterface;
  * @author <a href="mailto:e.h.juerrens@52north.org">Eike Hinderk J&uuml;rrens</a>
  *
  */
-public class FlickrDAO {
+public class FlickrDAO implements Closeable {
 	
-	private static final String FLICKR_USR_URL = "https://www.flickr.com/photos/%s";
+	private static final int PHOTOS_PER_PAGE = 500;
+
+	private static final int DEFAULT_CACHE_CAPACITY = 10000;
+
+	/**
+	 * Flickr evaluates at most 20 tags per search.
+	 */
+	static final int MAX_TAGS_PER_QUERY = 20;
+
+	/**
+	 * Error code of speculative calls finding no budget left.
+	 */
+	public static final String NO_BUDGET = "no_budget";
+
+	private static final Set<String> SEARCH_EXTRAS = new HashSet<>(Arrays.asList(Extras.GEO, Extras.DATE_UPLOAD, Extras.DATE_TAKEN, Extras.LAST_UPDATE));
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(FlickrDAO.class);
 
 	private Flickr flickr;
 
 	private String sharedSecret;
+
+	private Auth auth;
+
+	private ExecutionMode executionMode = ExecutionMode.SEQUENTIAL;
+
+	private Executor executor;
+
+	private RateLimiter rateLimiter;
+
+	private FairScheduler fairScheduler;
+
+	private PlaceCache placeCache = new PlaceCache(DEFAULT_CACHE_CAPACITY);
+
+	private ProcedureCache procedureCache = new ProcedureCache(DEFAULT_CACHE_CAPACITY);
+
+	private QueryResultCache queryResultCache;
+
+	private ResponseDecoding responseDecoding = ResponseDecoding.FLICKR4JAVA;
+
+	private final String apiKey;
+
+	private FlickrRestClient restClient;
+
+	private HedgingPolicy hedgingPolicy;
+
+	private ExecutorService hedgingExecutor;
+
+	private ExecutorService deadlineExecutor;
+
+	private final SingleFlight<FlickrQuery, Collection<FlickrMessage>> queryFlights = new SingleFlight<>();
+
+	private final SingleFlight<String, FlickrMessage> photoFlights = new SingleFlight<>();
 	
 	public FlickrDAO(AccessToken accessToken, String token, String tokenSecret) {
+		apiKey = accessToken.getApiKey();
 		flickr = new Flickr(accessToken.getApiKey(), accessToken.getSharedSecret(), new REST(/*FlickrHarvester.API_HOST, FlickrHarvester.API_PORT*/));
 		sharedSecret = accessToken.getSharedSecret();
 		Flickr.debugStream = false;
 		Flickr.debugRequest = false;
 		
-		Auth auth = new Auth();
+		auth = new Auth();
 		auth.setPermission(Permission.READ);
 		auth.setToken(token);
 		auth.setTokenSecret(tokenSecret);
 		
-		RequestContext requestContext = RequestContext.getRequestContext();
-	    requestContext.setAuth(auth);
+		applyAuth();
 	}
 	
 	/**
+	 * @param executor
+	 *            runs page fetches and enrichments unless the mode is
+	 *            {@link ExecutionMode#SEQUENTIAL}
+	 */
+	public void setExecutionMode(ExecutionMode executionMode, Executor executor) {
+		if (executionMode != ExecutionMode.SEQUENTIAL && executor == null) {
+			throw new IllegalArgumentException("An executor is required for " + executionMode);
+		}
+		this.executionMode = executionMode;
+		this.executor = executor != null ? TenantContext.propagating(executor) : null;
+	}
+
+	public ExecutionMode getExecutionMode() {
+		return executionMode;
+	}
+
+	/**
+	 * @param rateLimiter
+	 *            bounds the calls of this DAO, <code>null</code> for no bounds
+	 */
+	public void setRateLimiter(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Shares the API budget between the tenants of the
+	 * {@link TenantContext} the calls are issued in. The scheduler replaces
+	 * the {@link #setRateLimiter(RateLimiter) rate limiter}, if both are set.
+	 * Calls of a tenant with a full queue fail with the error code
+	 * <code>rejected</code>.
+	 * 
+	 * @param fairScheduler
+	 *            <code>null</code> to disable fair scheduling
+	 */
+	public void setFairScheduler(FairScheduler fairScheduler) {
+		this.fairScheduler = fairScheduler;
+	}
+
+	public FairScheduler getFairScheduler() {
+		return fairScheduler;
+	}
+
+	/**
+	 * Enables hedged requests: a call which has not returned within the
+	 * policy's latency percentile is issued a second time, the first
+	 * response wins and the other call is cancelled. All calls of this DAO
+	 * are read-only, hence duplicates are harmless. The attempts run on a
+	 * dedicated pool, as the callers might be threads of a bounded pool
+	 * themselves.
+	 * 
+	 * @param hedgingPolicy
+	 *            <code>null</code> to disable hedging
+	 */
+	public synchronized void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+		if (hedgingPolicy != null && hedgingExecutor == null) {
+			hedgingExecutor = Executors.newCachedThreadPool(ExecutionMode.createDaemonThreadFactory("flickr-hedging"));
+		}
+		this.hedgingPolicy = hedgingPolicy;
+	}
+
+	public HedgingPolicy getHedgingPolicy() {
+		return hedgingPolicy;
+	}
+
+	/**
+	 * @param placeCache
+	 *            may be shared between DAOs
+	 */
+	public void setPlaceCache(PlaceCache placeCache) {
+		this.placeCache = placeCache;
+	}
+
+	public PlaceCache getPlaceCache() {
+		return placeCache;
+	}
+
+	/**
+	 * @param procedureCache
+	 *            may be shared between DAOs
+	 */
+	public void setProcedureCache(ProcedureCache procedureCache) {
+		this.procedureCache = procedureCache;
+	}
+
+	public ProcedureCache getProcedureCache() {
+		return procedureCache;
+	}
+
+	/**
+	 * Serves {@link #executeQuery(FlickrQuery) queries} asked for again from
+	 * the cache until their results expire. The streaming and deadline
+	 * bound queries always call the API.
+	 * 
+	 * @param queryResultCache
+	 *            <code>null</code> to disable the cache, may be shared
+	 *            between DAOs
+	 */
+	public void setQueryResultCache(QueryResultCache queryResultCache) {
+		this.queryResultCache = queryResultCache;
+	}
+
+	public QueryResultCache getQueryResultCache() {
+		return queryResultCache;
+	}
+
+	/**
+	 * Concurrent {@link #executeQuery(FlickrQuery) queries} which are
+	 * {@link FlickrQuery#equals(Object) equal} share one execution and its
+	 * result, so the number of API calls does not grow with the number of
+	 * clients asking for the same site at the same time.
+	 */
+	public SingleFlight<FlickrQuery, Collection<FlickrMessage>> getQueryFlights() {
+		return queryFlights;
+	}
+
+	/**
+	 * Concurrent enrichments of the same photo, e.g. by overlapping queries,
+	 * share one <code>getInfo</code> and <code>getLocation</code> call.
+	 */
+	public SingleFlight<String, FlickrMessage> getPhotoFlights() {
+		return photoFlights;
+	}
+
+	/**
+	 * @param maxConnections
+	 *            the size of the connection pool used by
+	 *            {@link ResponseDecoding#STREAMING}, should match the number
+	 *            of threads calling this DAO
+	 */
+	public synchronized void setResponseDecoding(ResponseDecoding responseDecoding, int maxConnections) {
+		this.responseDecoding = responseDecoding;
+		if (responseDecoding == ResponseDecoding.STREAMING) {
+			getOrCreateRestClient(maxConnections);
+		}
+	}
+
+	public ResponseDecoding getResponseDecoding() {
+		return responseDecoding;
+	}
+
+	/**
+	 * @return the client of {@link ResponseDecoding#STREAMING} or
+	 *         <code>null</code> if it was never selected
+	 */
+	public FlickrRestClient getRestClient() {
+		return restClient;
+	}
+
+	/**
+	 * @return the pooled client of {@link ResponseDecoding#STREAMING}, created
+	 *         with the given pool size if it was never selected
+	 */
+	public synchronized FlickrRestClient getOrCreateRestClient(int maxConnections) {
+		if (restClient == null) {
+			restClient = new FlickrRestClient(apiKey, maxConnections);
+		}
+		return restClient;
+	}
+
+	/**
+	 * Closes the pooled connections and stops the threads of hedged and
+	 * deadline bound calls. The executor of the
+	 * {@link #setExecutionMode(ExecutionMode, Executor) execution mode}
+	 * belongs to the caller and is left running.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (hedgingExecutor != null) {
+			hedgingExecutor.shutdownNow();
+		}
+		if (deadlineExecutor != null) {
+			deadlineExecutor.shutdownNow();
+		}
+		if (restClient != null) {
+			restClient.close();
+		}
+	}
+
+	/**
+	 * @return
+	 *         the photos found, shared with concurrent callers of an equal
+	 *         query (see {@link #getQueryFlights()}), hence unmodifiable
 	 * @throws DecodingException 
 	 * @throws FlickrException 
 	 */
-	public Collection<FlickrMessage> executeQuery(FlickrQuery query) throws DecodingException, FlickrException {
-		LinkedList<FlickrMessage> flickrPhotos = new LinkedList<>(); 
-        
-        PhotosInterface photoInterface = flickr.getPhotosInterface();
+	public Collection<FlickrMessage> executeQuery(final FlickrQuery query) throws DecodingException, FlickrException {
+		if (executionMode != ExecutionMode.SEQUENTIAL) {
+			return await(executeQueryAsync(query, executor));
+		}
+		QueryResultCache queryResultCache = this.queryResultCache;
+		Collection<FlickrMessage> cached = queryResultCache != null ? queryResultCache.get(query) : null;
+		if (cached != null) {
+			return cached;
+		}
+		Collection<FlickrMessage> flickrPhotos = queryFlights.execute(new FlickrQuery(query), () -> {
+			LinkedList<FlickrMessage> photos = new LinkedList<>(); 
+			executeQuery(query, photoId -> true, photos::add);
+			return Collections.unmodifiableCollection(photos);
+		});
+		if (queryResultCache != null) {
+			queryResultCache.put(query, flickrPhotos);
+		}
+		return flickrPhotos;
+	}
+
+	/**
+	 * Streams the results of the query page by page to the given consumer.
+	 * 
+	 * @param photoFilter
+	 *            photos whose id is rejected are skipped before any
+	 *            enrichment call, e.g. because they are already known
+	 * @param consumer
+	 *            receives each geo located photo; a blocking consumer holds
+	 *            back the next enrichment and page
+	 * @return the number of photos passed to the consumer, at most
+	 *         {@link FlickrQuery#getMaxResults()}
+	 */
+	public int executeQuery(FlickrQuery query, Predicate<String> photoFilter, Consumer<FlickrMessage> consumer) throws FlickrException {
+		return executeQuery(query, photoFilter, consumer, new QueryProgress());
+	}
+
+	/**
+	 * Runs the query until it is complete or the deadline has passed. No
+	 * call is issued after the deadline, calls which have not returned by
+	 * then are interrupted and their photos dropped. An error stops the query as well, but keeps the
+	 * photos found so far.
+	 */
+	public PartialResult<FlickrMessage> executeQuery(FlickrQuery query, DateTime deadline) {
+		QueryProgress progress = new QueryProgress(deadline);
+		List<FlickrMessage> flickrPhotos = new ArrayList<>();
+		FlickrException failure = null;
+		try {
+			executeQuery(query, photoId -> true, flickrPhotos::add, progress);
+		} catch (FlickrException e) {
+			LOGGER.warn("Query stopped after {} of {} pages", progress.getPagesCovered(), progress.getPages(), e);
+			failure = e;
+		}
+		if (progress.isTruncated()) {
+			LOGGER.info("Deadline reached after {} of {} pages with {} photos",
+					progress.getPagesCovered(), progress.getPages(), flickrPhotos.size());
+		}
+		return new PartialResult<>(flickrPhotos,
+				failure == null && !progress.isTruncated(),
+				progress.getPagesCovered(),
+				progress.getPages(),
+				progress.getTotal(),
+				failure);
+	}
+
+	/**
+	 * Streaming query which reports each covered page to the
+	 * {@link QueryProgress#setPageListener(IntConsumer) listener} of the
+	 * progress and starts at its {@link QueryProgress#resumeAt(int) resume
+	 * page}. Queries split by tags ignore both and start each chunk at its
+	 * first page, as the page numbers of the chunks are unrelated.
+	 */
+	public int executeQuery(FlickrQuery query, Predicate<String> photoFilter, Consumer<FlickrMessage> consumer, QueryProgress progress) throws FlickrException {
+		if (requiresTagFanOut(query)) {
+			final Set<String> seenPhotoIds = new HashSet<>();
+			int consumed = 0;
+			for (FlickrQuery subQuery : splitByTags(query)) {
+				if (query.hasMaxResults()) {
+					if (consumed >= query.getMaxResults()) {
+						break;
+					}
+					subQuery.setMaxResults(query.getMaxResults() - consumed);
+				}
+				consumed += executePages(subQuery,
+						photoId -> photoFilter.test(photoId) && seenPhotoIds.add(photoId),
+						consumer,
+						progress,
+						1,
+						null);
+				if (progress.isTruncated()) {
+					break;
+				}
+			}
+			return consumed;
+		}
+		return executePages(query, photoFilter, consumer, progress, progress.getFirstPage(), progress.getPageListener());
+	}
+
+	private int executePages(FlickrQuery query,
+			Predicate<String> photoFilter,
+			Consumer<FlickrMessage> consumer,
+			QueryProgress progress,
+			int firstPage,
+			IntConsumer pageListener) throws FlickrException {
+        final SearchParameters params = createSearchParameters(query);
+        final int perPage = getPhotosPerPage(query);
+        int limit = query.hasMaxResults() ? query.getMaxResults() : Integer.MAX_VALUE;
+
+        int pageIndex = firstPage;
+        int pages = firstPage;
+        int photoIndex = 1;
+        int consumed = 0;
+        do {
+            if (progress.isExpired()) {
+            	progress.truncate();
+            	break;
+            }
+            final int page = pageIndex;
+            SearchPage searchPage;
+            try {
+            	searchPage = callWithin(progress, () -> fetchPage(params, perPage, page));
+            } catch (TimeoutException e) {
+            	progress.truncate();
+            	break;
+            }
+            pages = searchPage.getPages();
+            progress.pageFetched(pageIndex == firstPage, firstPage - 1, searchPage);
+
+            List<String> photoIds = new ArrayList<>(searchPage.getPhotoIds().size());
+            for (String photoId : searchPage.getPhotoIds()) {
+            	if (photoFilter.test(photoId)) {
+            		photoIds.add(photoId);
+            	}
+            }
+            LOGGER.debug("{} of {} photos on page {} left after filtering", photoIds.size(), searchPage.size(), pageIndex);
+
+            // enrich only as many photos as are missing for the budget
+            int next = 0;
+            while (next < photoIds.size() && consumed < limit) {
+            	List<String> batch = photoIds.subList(next, next + Math.min(photoIds.size() - next, limit - consumed));
+            	next += batch.size();
+            	List<FlickrMessage> enriched = enrich(batch, progress);
+            	if (enriched.size() < batch.size()) {
+            		progress.truncate();
+            	}
+            	for (FlickrMessage flickrMessage : enriched) {
+            		if (flickrMessage != null) {
+            			LOGGER.info("Downloaded photo No. {}.: {}", photoIndex, flickrMessage);
+
+            			consumer.accept(flickrMessage);
+            			consumed++;
+            		} else {
+            			LOGGER.info("Downloaded photo No. {}, but not geo located, hence skipped",
+            					photoIndex);
+            		}
+            		photoIndex++;
+            	}
+            	if (progress.isTruncated()) {
+            		return consumed;
+            	}
+            }
+            progress.pageCovered();
+            if (pageListener != null) {
+            	pageListener.accept(pageIndex);
+            }
+
+            pageIndex++;
+
+        } while (pageIndex <= pages && consumed < limit);
+
+        if (consumed >= limit) {
+        	LOGGER.debug("Result budget of {} photos met on page {} of {}", limit, pageIndex - 1, pages);
+        }
+        return consumed;
+	}
+
+	/**
+	 * Folds the photos of the query into the grid while paging through the
+	 * search results. The location and time are taken from the search extras,
+	 * so there is one call per page and no enrichment. The date taken is used
+	 * as time, the date of the upload if it is unknown.
+	 * <p>
+	 * The memory needed depends on the grid only, unless the query has more
+	 * than {@value #MAX_TAGS_PER_QUERY} tags in {@link TagMode#ANY}. Such a
+	 * query is split into one search per chunk of tags, and the ids of all
+	 * photos counted are kept to count a photo found by several chunks once.
+	 * Then the memory grows with the number of photos as well.
+	 * 
+	 * @return the number of photos folded into the grid, including the ones
+	 *         counted as outside
+	 */
+	public int aggregate(FlickrQuery query, final ObservationGrid grid) throws FlickrException {
+		int counted = scan(query, (searchPage, i) -> grid.add(searchPage.getLatitude(i),
+				searchPage.getLongitude(i),
+				searchPage.getTime(i)), null);
+		LOGGER.debug("{} photos folded into {}", counted, grid);
+		return counted;
+	}
+
+	/**
+	 * Reports the time of the last update of each photo of the query, taken
+	 * from the search extras with one call per page and no enrichment. Photos
+	 * not worth an enrichment, e.g. without upload date, are reported as
+	 * well, but not counted against the result budget of the query.
+	 * 
+	 * @param consumer
+	 *            receives the photo id and the last update in milliseconds
+	 *            since the epoch, 0 if unknown
+	 * @return the number of photos reported
+	 */
+	public int scanLastUpdates(FlickrQuery query, final ObjLongConsumer<String> consumer) throws FlickrException {
+		return scan(query,
+				(searchPage, i) -> consumer.accept(searchPage.getPhotoIds().get(i), searchPage.getLastUpdate(i)),
+				(searchPage, i) -> consumer.accept(searchPage.getSkippedPhotoIds().get(i), searchPage.getSkippedLastUpdate(i)));
+	}
+
+	/**
+	 * Reports the photos of the authenticated account which were created or
+	 * updated since the given time, using
+	 * <code>flickr.photos.recentlyUpdated</code>. The method requires a token
+	 * with read permission and does not cover photos of other accounts.
+	 * 
+	 * @param consumer
+	 *            receives the photo id and the last update in milliseconds
+	 *            since the epoch, 0 if unknown
+	 * @return the number of photos reported
+	 */
+	public int recentlyUpdated(final Date since, ObjLongConsumer<String> consumer) throws FlickrException {
+		final Set<String> extras = Collections.singleton(Extras.LAST_UPDATE);
+		int pageIndex = 1;
+		int pages = 1;
+		int reported = 0;
+		do {
+			final int page = pageIndex;
+			PhotoList<Photo> photoList = call(() -> flickr.getPhotosInterface().recentlyUpdated(since, extras, PHOTOS_PER_PAGE, page));
+			pages = photoList.getPages();
+			for (Photo photo : photoList) {
+				consumer.accept(photo.getId(), photo.getLastUpdate() != null ? photo.getLastUpdate().getTime() : 0L);
+				reported++;
+			}
+			pageIndex++;
+		} while (pageIndex <= pages);
+		LOGGER.debug("{} photos updated since {}", reported, since);
+		return reported;
+	}
+
+	/**
+	 * @return the observation or <code>null</code> if the photo has no
+	 *         location or no upload date
+	 */
+	public FlickrMessage getById(String id) throws FlickrException {
+		return createFlickrMessage(id);
+	}
+
+	/**
+	 * Pages through the search results of the query and hands each photo
+	 * worth an enrichment to the visitor, without enriching it.
+	 * 
+	 * @param skippedVisitor
+	 *            receives the photos not worth an enrichment, may be
+	 *            <code>null</code>
+	 */
+	private int scan(FlickrQuery query, ObjIntConsumer<SearchPage> visitor, ObjIntConsumer<SearchPage> skippedVisitor) throws FlickrException {
+		if (requiresTagFanOut(query)) {
+			final Set<String> seenPhotoIds = new HashSet<>();
+			int visited = 0;
+			for (FlickrQuery subQuery : splitByTags(query)) {
+				if (query.hasMaxResults()) {
+					if (visited >= query.getMaxResults()) {
+						break;
+					}
+					subQuery.setMaxResults(query.getMaxResults() - visited);
+				}
+				visited += scanPages(subQuery, seenPhotoIds::add, visitor, skippedVisitor);
+			}
+			return visited;
+		}
+		return scanPages(query, photoId -> true, visitor, skippedVisitor);
+	}
+
+	private int scanPages(FlickrQuery query,
+			Predicate<String> photoFilter,
+			ObjIntConsumer<SearchPage> visitor,
+			ObjIntConsumer<SearchPage> skippedVisitor) throws FlickrException {
+		SearchParameters params = createSearchParameters(query);
+		int perPage = getPhotosPerPage(query);
+		int limit = query.hasMaxResults() ? query.getMaxResults() : Integer.MAX_VALUE;
+
+		int pageIndex = 1;
+		int pages = 1;
+		int visited = 0;
+		do {
+			SearchPage searchPage = fetchPage(params, perPage, pageIndex);
+			pages = searchPage.getPages();
+			List<String> photoIds = searchPage.getPhotoIds();
+			for (int i = 0; i < photoIds.size() && visited < limit; i++) {
+				if (photoFilter.test(photoIds.get(i))) {
+					visitor.accept(searchPage, i);
+					visited++;
+				}
+			}
+			if (skippedVisitor != null) {
+				List<String> skippedPhotoIds = searchPage.getSkippedPhotoIds();
+				for (int i = 0; i < skippedPhotoIds.size(); i++) {
+					if (photoFilter.test(skippedPhotoIds.get(i))) {
+						skippedVisitor.accept(searchPage, i);
+					}
+				}
+			}
+			pageIndex++;
+		} while (pageIndex <= pages && visited < limit);
+		return visited;
+	}
+
+	/**
+	 * Non-blocking counterpart of {@link #executeQuery(FlickrQuery)}. Each page
+	 * is requested on the given executor and its photos are enriched in
+	 * parallel before the next page is requested. Completing the returned
+	 * future from outside (e.g. by {@link CompletableFuture#cancel(boolean)}
+	 * or a timeout) stops the pagination before the next API call, unless
+	 * other callers of an equal query still wait for it.
+	 */
+	public CompletableFuture<Collection<FlickrMessage>> executeQueryAsync(final FlickrQuery query, Executor executor) {
+		final QueryResultCache queryResultCache = this.queryResultCache;
+		Collection<FlickrMessage> cached = queryResultCache != null ? queryResultCache.get(query) : null;
+		if (cached != null) {
+			return CompletableFuture.completedFuture(cached);
+		}
+		final Executor propagating = TenantContext.propagating(executor);
+		final FlickrQuery key = new FlickrQuery(query);
+		CompletableFuture<Collection<FlickrMessage>> result = queryFlights.submit(key, () -> startQuery(query, propagating));
+		if (queryResultCache != null) {
+			result.thenAccept(flickrPhotos -> queryResultCache.put(key, flickrPhotos));
+		}
+		return result;
+	}
+
+	private CompletableFuture<Collection<FlickrMessage>> startQuery(FlickrQuery query, Executor executor) {
+		if (requiresTagFanOut(query)) {
+			return executeTagFanOutAsync(query, executor);
+		}
+		CompletableFuture<Collection<FlickrMessage>> result = new CompletableFuture<>();
+		int limit = query.hasMaxResults() ? query.getMaxResults() : Integer.MAX_VALUE;
+		harvestPageAsync(createSearchParameters(query), getPhotosPerPage(query), limit, 1, photoId -> true,
+				new LinkedList<FlickrMessage>(), result, executor);
+		return result;
+	}
+
+	/**
+	 * Runs one query per chunk of tags and unions the results in the order of
+	 * the chunks, photos found by several chunks are kept once. Without a
+	 * maximum number of results the chunks run in parallel. With one they run
+	 * one after another like in {@link #executeQuery(FlickrQuery)}, each
+	 * limited to the results still missing, so no more photos are enriched
+	 * than for a single query. Cancelling the returned future cancels all
+	 * chunk queries.
+	 */
+	private CompletableFuture<Collection<FlickrMessage>> executeTagFanOutAsync(FlickrQuery query, Executor executor) {
+		if (query.hasMaxResults()) {
+			CompletableFuture<Collection<FlickrMessage>> result = new CompletableFuture<>();
+			harvestChunkAsync(splitByTags(query), 0, query.getMaxResults(), new HashSet<String>(),
+					new LinkedList<FlickrMessage>(), result, executor);
+			return result;
+		}
+		final List<CompletableFuture<Collection<FlickrMessage>>> subResults = new ArrayList<>();
+		for (FlickrQuery subQuery : splitByTags(query)) {
+			subResults.add(executeQueryAsync(subQuery, executor));
+		}
+		final CompletableFuture<Collection<FlickrMessage>> result = new CompletableFuture<>();
+		CompletableFuture.allOf(subResults.toArray(new CompletableFuture<?>[subResults.size()])).whenComplete((v, error) -> {
+			if (error != null) {
+				result.completeExceptionally(unwrap(error));
+				return;
+			}
+			Map<String, FlickrMessage> union = new LinkedHashMap<>();
+			for (CompletableFuture<Collection<FlickrMessage>> subResult : subResults) {
+				for (FlickrMessage flickrMessage : subResult.join()) {
+					if (!union.containsKey(flickrMessage.getIdentifier())) {
+						union.put(flickrMessage.getIdentifier(), flickrMessage);
+					}
+				}
+			}
+			LOGGER.debug("{} tag queries returned {} distinct photos", subResults.size(), union.size());
+			result.complete(Collections.unmodifiableCollection(new LinkedList<>(union.values())));
+		});
+		result.whenComplete((flickrPhotos, error) -> {
+			if (error != null) {
+				for (CompletableFuture<Collection<FlickrMessage>> subResult : subResults) {
+					subResult.cancel(true);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Harvests the chunk of tags at the given index into the shared list,
+	 * skipping photos of earlier chunks, and continues with the next chunk
+	 * while photos are missing.
+	 */
+	private void harvestChunkAsync(final List<FlickrQuery> subQueries,
+			final int chunkIndex,
+			final int limit,
+			final Set<String> seenPhotoIds,
+			final LinkedList<FlickrMessage> flickrPhotos,
+			final CompletableFuture<Collection<FlickrMessage>> result,
+			final Executor executor) {
+		final FlickrQuery subQuery = subQueries.get(chunkIndex);
+		final CompletableFuture<Collection<FlickrMessage>> chunkResult = new CompletableFuture<>();
+		result.whenComplete((flickrPhotosOfAllChunks, error) -> chunkResult.cancel(true));
+		chunkResult.whenComplete((flickrPhotosSoFar, error) -> {
+			if (error != null) {
+				result.completeExceptionally(unwrap(error));
+			} else if (chunkIndex + 1 < subQueries.size() && flickrPhotos.size() < limit) {
+				harvestChunkAsync(subQueries, chunkIndex + 1, limit, seenPhotoIds, flickrPhotos, result, executor);
+			} else {
+				LOGGER.debug("{} tag queries returned {} distinct photos", chunkIndex + 1, flickrPhotos.size());
+				result.complete(Collections.unmodifiableCollection(flickrPhotos));
+			}
+		});
+		harvestPageAsync(createSearchParameters(subQuery), getPhotosPerPage(subQuery), limit, 1, seenPhotoIds::add,
+				flickrPhotos, chunkResult, executor);
+	}
+
+	/**
+	 * With {@link TagMode#ANY} a single search covers up to
+	 * {@value #MAX_TAGS_PER_QUERY} tags. Longer tag lists are split into
+	 * chunks which are queried one by one.
+	 */
+	static boolean requiresTagFanOut(FlickrQuery query) {
+		return query.hasKeywords()
+				&& query.getTagMode() == TagMode.ANY
+				&& query.getKeywords().length > MAX_TAGS_PER_QUERY;
+	}
+
+	static List<FlickrQuery> splitByTags(FlickrQuery query) {
+		String[] tags = query.getKeywords();
+		List<FlickrQuery> subQueries = new ArrayList<>();
+		for (int from = 0; from < tags.length; from += MAX_TAGS_PER_QUERY) {
+			FlickrQuery subQuery = new FlickrQuery(query);
+			subQuery.setKeywords(Arrays.copyOfRange(tags, from, Math.min(tags.length, from + MAX_TAGS_PER_QUERY)));
+			subQueries.add(subQuery);
+		}
+		return subQueries;
+	}
+
+	/**
+	 * Demand driven counterpart of {@link #executeQuery(FlickrQuery)}, see
+	 * {@link FlickrPublisher}.
+	 */
+	public Publisher<FlickrMessage> publish(FlickrQuery query, Executor executor) {
+		return new FlickrPublisher(this, query, TenantContext.propagating(executor));
+	}
+
+	public Collection<FlickrMessage> getByIds(String... ids) throws FlickrException {
+		if (executionMode != ExecutionMode.SEQUENTIAL) {
+			return await(getByIdsAsync(executor, ids));
+		}
+		LinkedList<FlickrMessage> flickrPhotos = new LinkedList<>();
+		for (String id : ids) {
+			FlickrMessage flickrMessage = createFlickrMessage(id);
+			if (flickrMessage != null) {
+				flickrPhotos.add(flickrMessage);
+			} else {
+				LOGGER.info("Downloaded photo '{}', but not geo located, hence skipped", id);
+			}
+		}
+		return flickrPhotos;
+	}
+
+	public CompletableFuture<Collection<FlickrMessage>> getByIdsAsync(Executor executor, String... ids) {
+		List<String> photoIds = new ArrayList<>(ids.length);
+		for (String id : ids) {
+			photoIds.add(id);
+		}
+		CompletableFuture<Collection<FlickrMessage>> result = new CompletableFuture<>();
+		enrichAsync(photoIds, result, TenantContext.propagating(executor)).whenComplete((flickrPhotos, error) -> {
+			if (error != null) {
+				result.completeExceptionally(unwrap(error));
+			} else {
+				result.complete(flickrPhotos);
+			}
+		});
+		return result;
+	}
+
+	private void harvestPageAsync(final SearchParameters params,
+			final int perPage,
+			final int limit,
+			final int pageIndex,
+			final Predicate<String> photoFilter,
+			final LinkedList<FlickrMessage> flickrPhotos,
+			final CompletableFuture<Collection<FlickrMessage>> result,
+			final Executor executor) {
+		if (result.isDone()) {
+			LOGGER.debug("Query completed from outside, skipping page {}", pageIndex);
+			return;
+		}
+		CompletableFuture.supplyAsync(() -> {
+			try {
+				return fetchPage(params, perPage, pageIndex);
+			} catch (FlickrException e) {
+				throw new CompletionException(e);
+			}
+		}, executor).thenCompose(searchPage -> {
+			List<String> photoIds = new ArrayList<>();
+			for (String photoId : searchPage.getPhotoIds()) {
+				if (photoFilter.test(photoId)) {
+					photoIds.add(photoId);
+				}
+			}
+			return enrichAsync(photoIds, limit - flickrPhotos.size(), result, executor).thenApply(pagePhotos -> {
+				flickrPhotos.addAll(pagePhotos);
+				return searchPage.getPages();
+			});
+		}).whenComplete((pages, error) -> {
+			if (error != null) {
+				result.completeExceptionally(unwrap(error));
+			} else if (pageIndex < pages && flickrPhotos.size() < limit) {
+				harvestPageAsync(params, perPage, limit, pageIndex + 1, photoFilter, flickrPhotos, result, executor);
+			} else {
+				result.complete(Collections.unmodifiableCollection(flickrPhotos));
+			}
+		});
+	}
+
+	/**
+	 * Enriches the photos in batches of the still missing number of photos
+	 * until <code>limit</code> geo located photos are found or all ids are
+	 * used up.
+	 */
+	private CompletableFuture<List<FlickrMessage>> enrichAsync(final List<String> photoIds,
+			final int limit,
+			final CompletableFuture<?> result,
+			final Executor executor) {
+		if (limit <= 0 || photoIds.isEmpty()) {
+			return CompletableFuture.completedFuture(Collections.<FlickrMessage>emptyList());
+		}
+		final int batchSize = Math.min(limit, photoIds.size());
+		return enrichAsync(photoIds.subList(0, batchSize), result, executor).thenCompose(flickrPhotos -> {
+			if (flickrPhotos.size() == limit || batchSize == photoIds.size()) {
+				return CompletableFuture.completedFuture(flickrPhotos);
+			}
+			return enrichAsync(photoIds.subList(batchSize, photoIds.size()), limit - flickrPhotos.size(), result, executor)
+					.thenApply(morePhotos -> {
+						flickrPhotos.addAll(morePhotos);
+						return flickrPhotos;
+					});
+		});
+	}
+
+	/**
+	 * Enriches all photos in parallel and collects the geo located ones in the
+	 * order of the given ids. Photos are skipped once {@code result} is done.
+	 */
+	private CompletableFuture<List<FlickrMessage>> enrichAsync(List<String> photoIds,
+			final CompletableFuture<?> result,
+			Executor executor) {
+		final List<CompletableFuture<FlickrMessage>> enrichments = new ArrayList<>(photoIds.size());
+		for (final String photoId : photoIds) {
+			enrichments.add(CompletableFuture.supplyAsync(() -> {
+				if (result.isDone()) {
+					return null;
+				}
+				try {
+					return createFlickrMessage(photoId);
+				} catch (FlickrException e) {
+					throw new CompletionException(e);
+				}
+			}, executor));
+		}
+		return CompletableFuture.allOf(enrichments.toArray(new CompletableFuture<?>[enrichments.size()]))
+				.thenApply(v -> {
+					List<FlickrMessage> flickrPhotos = new ArrayList<>(enrichments.size());
+					for (CompletableFuture<FlickrMessage> enrichment : enrichments) {
+						FlickrMessage flickrMessage = enrichment.join();
+						if (flickrMessage != null) {
+							flickrPhotos.add(flickrMessage);
+						}
+					}
+					return flickrPhotos;
+				});
+	}
+
+	/**
+	 * @return the enriched photos in the order of the given ids,
+	 *         <code>null</code> for photos which are not geo located; fewer
+	 *         than the ids if the deadline has passed meanwhile
+	 */
+	private List<FlickrMessage> enrich(List<String> photoIds, final QueryProgress progress) throws FlickrException {
+		List<FlickrMessage> flickrPhotos = new ArrayList<>(photoIds.size());
+		if (executionMode == ExecutionMode.SEQUENTIAL) {
+			for (final String photoId : photoIds) {
+				if (progress.isExpired()) {
+					break;
+				}
+				try {
+					// careful, this call takes long:
+					flickrPhotos.add(callWithin(progress, () -> createFlickrMessage(photoId)));
+				} catch (TimeoutException e) {
+					break;
+				}
+			}
+		} else {
+			// futures of tasks run by the executor, as only these are
+			// interrupted by cancel(true)
+			List<FutureTask<FlickrMessage>> enrichments = new ArrayList<>(photoIds.size());
+			for (final String photoId : photoIds) {
+				FutureTask<FlickrMessage> enrichment = new FutureTask<>(() -> {
+					if (progress.isExpired()) {
+						throw new TimeoutException("Deadline reached");
+					}
+					return createFlickrMessage(photoId);
+				});
+				enrichments.add(enrichment);
+				executor.execute(enrichment);
+			}
+			try {
+				for (FutureTask<FlickrMessage> enrichment : enrichments) {
+					flickrPhotos.add(await(enrichment, progress));
+				}
+			} catch (TimeoutException e) {
+				// the photos enriched so far are kept, the others are dropped
+				for (FutureTask<FlickrMessage> enrichment : enrichments) {
+					enrichment.cancel(true);
+				}
+			}
+		}
+		return flickrPhotos;
+	}
+
+	/**
+	 * Runs the call on a thread of its own if the query has a deadline and
+	 * interrupts it once the deadline has passed, so a hanging call does not
+	 * hold up the query. Calls of queries without deadline run on the calling
+	 * thread.
+	 * 
+	 * @throws TimeoutException
+	 *             if the call did not return before the deadline
+	 */
+	private <T> T callWithin(QueryProgress progress, final FlickrCall<T> call) throws FlickrException, TimeoutException {
+		if (!progress.hasDeadline()) {
+			return call.call();
+		}
+		FutureTask<T> task = new FutureTask<>(call::call);
+		getDeadlineExecutor().execute(task);
+		try {
+			return await(task, progress);
+		} catch (TimeoutException e) {
+			task.cancel(true);
+			throw e;
+		}
+	}
+
+	private synchronized Executor getDeadlineExecutor() {
+		if (deadlineExecutor == null) {
+			deadlineExecutor = Executors.newCachedThreadPool(ExecutionMode.createDaemonThreadFactory("flickr-deadline"));
+		}
+		return TenantContext.propagating(deadlineExecutor);
+	}
+
+	/**
+	 * Waits for the task until the deadline of the query, the task is
+	 * cancelled if the waiting thread is interrupted.
+	 */
+	private static <T> T await(Future<T> task, QueryProgress progress) throws FlickrException, TimeoutException {
+		try {
+			return task.get(progress.getRemainingMillis(), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			task.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new FlickrException("interrupted", "Interrupted while waiting for a call");
+		} catch (ExecutionException e) {
+			Throwable cause = unwrap(e.getCause());
+			if (cause instanceof FlickrException) {
+				throw (FlickrException) cause;
+			}
+			if (cause instanceof TimeoutException) {
+				throw (TimeoutException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
 
+	private static <T> T await(CompletableFuture<T> future) throws FlickrException {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			Throwable cause = unwrap(e);
+			if (cause instanceof FlickrException) {
+				throw (FlickrException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw e;
+		}
+	}
+
+	private static Throwable unwrap(Throwable error) {
+		if (error instanceof CompletionException && error.getCause() != null) {
+			return error.getCause();
+		}
+		return error;
+	}
+
+	/**
+	 * Pushes all filters of the query down to Flickr. Photos without geo
+	 * location are always excluded as they would be skipped after the
+	 * enrichment anyway. The extras allow {@link #isEnrichable(Photo)} to
+	 * decide on the page data alone.
+	 */
+	SearchParameters createSearchParameters(FlickrQuery query) {
         SearchParameters params = new SearchParameters();
+        params.setHasGeo(true);
+        params.setExtras(SEARCH_EXTRAS);
         if (query.hasKeywords()){
         	params.setTags(query.getKeywords());
-        	params.setTagMode("all");
+        	params.setTagMode(query.getTagMode().getFlickrTagMode());
         }
         if (query.isGeolocated()){
-        	params.setHasGeo(true);
         	params.setBBox(query.getMinLon(), query.getMinLat(), query.getMaxLon(), query.getMaxLat());
         }
         if (query.hasMinDate()){
@@ -107,91 +1080,280 @@ public class FlickrDAO {
         if (query.hasMaxDate()) {
         	params.setMaxTakenDate(query.getMaxDate());
         }
+        if (query.hasMinUploadDate()) {
+        	params.setMinUploadDate(query.getMinUploadDate());
+        }
+        if (query.hasMaxUploadDate()) {
+        	params.setMaxUploadDate(query.getMaxUploadDate());
+        }
+        if (query.hasMinimumAccuracy()) {
+        	params.setAccuracy(query.getMinimumAccuracy());
+        }
+        if (query.hasContentType()) {
+        	params.setContentType(query.getContentType());
+        }
+        if (query.hasMedia()) {
+        	try {
+        		params.setMedia(query.getMedia());
+        	} catch (FlickrException e) {
+        		throw new IllegalArgumentException(e);
+        	}
+        }
+        if (query.hasLicenses()) {
+        	params.setLicense(String.join(",", query.getLicenses()));
+        }
+        if (query.hasSafeSearch()) {
+        	params.setSafeSearch(query.getSafeSearch());
+        }
+        if (query.hasSortOrder()) {
+        	params.setSort(query.getSortOrder().getFlickrSort());
+        }
+        return params;
+	}
 
-        int pageIndex = 1;
-        int pages = 1;
-        int photoIndex = 1;
-        do {
-            PhotoList<Photo> photoList = photoInterface.search(params, 500, pageIndex);
-            pages = photoList.getPages();
-
-            LOGGER.info("number of photos on page {}: {} of {} photos for this result set.",
-                    pageIndex,
-                    photoList.size(),
-                    photoList.getTotal());
-
-            for (int i = 0; i < photoList.size(); i++) {
-                Photo photo = (Photo) photoList.get(i);
-
-                // careful, this call takes long:
-                FlickrMessage flickrMessage = createFlickrMessage(photo);
-                if (flickrMessage != null) {
-                	LOGGER.info("Downloaded photo No. {}.: {}", photoIndex, flickrMessage);
-
-                	flickrPhotos.add(flickrMessage);
-                } else {
-                	LOGGER.info("Downloaded photo No. {}, but not geo located, hence skipped",
-                			photoIndex);
-                }
-                photoIndex++;
-            }
+	/**
+	 * @return <code>false</code> if the search result already shows that
+	 *         {@link #createFlickrMessage(String)} would skip the photo
+	 */
+	boolean isEnrichable(Photo photo) {
+		return photo.hasGeoData() && photo.getDatePosted() != null;
+	}
 
-            pageIndex++;
+	/**
+	 * Without a result budget pages hold the maximum of
+	 * {@value #PHOTOS_PER_PAGE} photos. With a budget the page size is chosen
+	 * such that the budget is covered by the fewest pages of equal size, e.g.
+	 * 50 for a budget of 50 and 400 for 1200 instead of 500, 500 and 200
+	 * wasted ones. The page size has to stay fixed during the pagination to
+	 * keep the page offsets consistent.
+	 */
+	static int getPhotosPerPage(FlickrQuery query) {
+		if (!query.hasMaxResults()) {
+			return PHOTOS_PER_PAGE;
+		}
+		int pages = (query.getMaxResults() + PHOTOS_PER_PAGE - 1) / PHOTOS_PER_PAGE;
+		return (query.getMaxResults() + pages - 1) / pages;
+	}
 
-        } while (pageIndex < pages);
+	SearchPage fetchPage(final SearchParameters params, final int perPage, final int pageIndex) throws FlickrException {
+		SearchPage searchPage;
+		if (responseDecoding == ResponseDecoding.STREAMING) {
+			final Map<String, String> parameters = new LinkedHashMap<>();
+			for (Map.Entry<String, Object> parameter : params.getAsParameters().entrySet()) {
+				parameters.put(parameter.getKey(), String.valueOf(parameter.getValue()));
+			}
+			parameters.put("per_page", Integer.toString(perPage));
+			parameters.put("page", Integer.toString(pageIndex));
+			searchPage = call(() -> restClient.get("flickr.photos.search", parameters, createDecoder()::decodeSearchPage));
+		} else {
+			PhotoList<Photo> photoList = call(() -> flickr.getPhotosInterface().search(params, perPage, pageIndex));
+			searchPage = new SearchPage(photoList.getPage(), photoList.getPages(), photoList.getTotal());
+			for (Photo photo : photoList) {
+				if (isEnrichable(photo)) {
+					Date time = photo.getDateTaken() != null ? photo.getDateTaken() : photo.getDatePosted();
+					searchPage.addPhoto(photo.getId(),
+							photo.getGeoData().getLatitude(),
+							photo.getGeoData().getLongitude(),
+							time.getTime(),
+							photo.getLastUpdate() != null ? photo.getLastUpdate().getTime() : 0L);
+				} else {
+					searchPage.skipPhoto(photo.getId(), photo.getLastUpdate() != null ? photo.getLastUpdate().getTime() : 0L);
+				}
+			}
+		}
+		LOGGER.info("number of photos on page {}: {} of {} photos for this result set.",
+				pageIndex,
+				searchPage.size(),
+				searchPage.getTotal());
+		return searchPage;
+	}
 
-        return flickrPhotos;
+	FlickrMessage createFlickrMessage(final String photoID) throws FlickrException {
+		return photoFlights.execute(photoID, () -> loadFlickrMessage(photoID));
 	}
 
-	private FlickrMessage createFlickrMessage(Photo photo) throws FlickrException {
-		
-		FlickrMessage flickrMessage = new FlickrMessage();
-        PhotosInterface photoInterface = flickr.getPhotosInterface();
-        GeoInterface geoInterface = flickr.getGeoInterface();
-        String photoID = photo.getId();
-        flickrMessage.setIdentifier(photoID);
+	private FlickrMessage loadFlickrMessage(final String photoID) throws FlickrException {
+		if (responseDecoding == ResponseDecoding.STREAMING) {
+			final Map<String, String> parameters = new HashMap<>();
+			parameters.put("photo_id", photoID);
+			return call(() -> restClient.get("flickr.photos.getInfo", parameters, createDecoder()::decodePhotoInfo));
+		}
+
+        final PhotosInterface photoInterface = flickr.getPhotosInterface();
+        final GeoInterface geoInterface = flickr.getGeoInterface();
         
         // geo:
-        GeoData photoGeo = geoInterface.getLocation(photoID);
+        GeoData photoGeo = call(() -> geoInterface.getLocation(photoID));
         if (photoGeo != null) {
 
         	// photo info:
-        	Photo photoInfo = photoInterface.getInfo(photoID, sharedSecret);
-        	if (photoInfo.getDatePosted() == null) {
-        		return null;
-        	}
-        	flickrMessage.setDatePosted(photoInfo.getDatePosted());
-        	if (photoInfo.getDateTaken() == null) {
-        		flickrMessage.setDateTaken(photoInfo.getDatePosted());
-        	} else {
-        		flickrMessage.setDateTaken(photoInfo.getDateTaken());
-        	}
-        	flickrMessage.setLocation(new FlickrLocation(photoGeo.getLongitude(),
-        			photoGeo.getLatitude(),
-        			photoGeo.getAccuracy(),
-        			photoInfo.getLocality()));
-        	flickrMessage.setTitle(photoInfo.getTitle());
-        	flickrMessage.setUrl(photoInfo.getUrl());
-        	flickrMessage.setCaption(photoInfo.getDescription());
-        	flickrMessage.setTags(photoInfo.getTags());
-
-        	// user:
-        	User user = photoInfo.getOwner();
-        	flickrMessage.setProcedure(createProcedureFrom(user));
-
-        	return flickrMessage;
+        	Photo photoInfo = call(() -> photoInterface.getInfo(photoID, sharedSecret));
+        	return createFlickrMessage(photoInfo, photoGeo);
 
         } else {
         	return null;
         }
 	}
 
-	private Procedure createProcedureFrom(User user) {
-		String identifier = user.getProfileurl();
-		if (identifier==null || identifier.isEmpty()) {
-			identifier = String.format(FLICKR_USR_URL, user.getId());
+	/**
+	 * Maps the flickr4java representation of a photo, the reference for
+	 * {@link StreamingResponseDecoder#decodePhotoInfo(java.io.InputStream)}.
+	 * 
+	 * @return <code>null</code> if the photo has no upload date
+	 */
+	FlickrMessage createFlickrMessage(Photo photoInfo, GeoData photoGeo) {
+        if (photoInfo.getDatePosted() == null) {
+        	return null;
+        }
+        FlickrMessage flickrMessage = new FlickrMessage();
+        flickrMessage.setIdentifier(photoInfo.getId());
+        flickrMessage.setDatePosted(photoInfo.getDatePosted());
+        if (photoInfo.getDateTaken() == null) {
+        	flickrMessage.setDateTaken(photoInfo.getDatePosted());
+        } else {
+        	flickrMessage.setDateTaken(photoInfo.getDateTaken());
+        }
+        flickrMessage.setLocation(new FlickrLocation(photoGeo.getLongitude(),
+        		photoGeo.getLatitude(),
+        		photoGeo.getAccuracy(),
+        		placeCache.intern(photoInfo.getLocality())));
+        flickrMessage.setTitle(photoInfo.getTitle());
+        flickrMessage.setUrl(photoInfo.getUrl());
+        flickrMessage.setCaption(photoInfo.getDescription());
+        flickrMessage.setTags(photoInfo.getTags());
+
+        // user:
+        User user = photoInfo.getOwner();
+        flickrMessage.setProcedure(procedureCache.get(user));
+        flickrMessage.setLastUpdate(photoInfo.getLastUpdate());
+        flickrMessage.setImageSource(photoInfo.getServer(), photoInfo.getSecret());
+
+        return flickrMessage;
+	}
+
+	private StreamingResponseDecoder createDecoder() {
+		return new StreamingResponseDecoder(placeCache, procedureCache);
+	}
+
+	/**
+	 * Single entry point for all requests against the Flickr API.
+	 * flickr4java keeps the authentication in a thread local
+	 * {@link RequestContext}, hence it is applied to the calling thread
+	 * which might be a pool thread of an asynchronous query.
+	 */
+	<T> T call(FlickrCall<T> flickrCall) throws FlickrException {
+		acquirePermit(TenantContext.current());
+		HedgingPolicy hedgingPolicy = this.hedgingPolicy;
+		if (hedgingPolicy != null) {
+			return callHedged(flickrCall, hedgingPolicy);
+		}
+		applyAuth();
+		return flickrCall.call();
+	}
+
+	/**
+	 * Runs the call on the hedging pool and waits for it up to the hedge
+	 * delay. A hedge has to pass the rate limiter like any other call.
+	 * <p>
+	 * The latency recorded is the one of the original attempt, up to the
+	 * response of the hedge if that wins. Recording the winner only would let
+	 * the slow calls which are hedged drop out of the window and lower the
+	 * hedge delay further with every hedge.
+	 */
+	private <T> T callHedged(final FlickrCall<T> flickrCall, final HedgingPolicy hedgingPolicy) throws FlickrException {
+		hedgingPolicy.recordCall();
+		final TenantContext tenantContext = TenantContext.current();
+		ExecutorCompletionService<T> attempts = new ExecutorCompletionService<>(hedgingExecutor);
+		List<Future<T>> started = new ArrayList<>(2);
+		long start = System.nanoTime();
+		started.add(attempts.submit(() -> attempt(flickrCall)));
+		try {
+			Future<T> done = null;
+			long hedgeDelayNanos = hedgingPolicy.getHedgeDelayNanos();
+			if (hedgeDelayNanos >= 0) {
+				done = attempts.poll(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+				if (done == null && hedgingPolicy.tryAcquireHedge()) {
+					LOGGER.debug("No response after {} ms, hedging call", TimeUnit.NANOSECONDS.toMillis(hedgeDelayNanos));
+					started.add(attempts.submit(() -> {
+						acquirePermit(tenantContext);
+						return attempt(flickrCall);
+					}));
+				}
+			}
+			ExecutionException failure = null;
+			for (int completed = 0; completed < started.size(); completed++) {
+				if (done == null) {
+					done = attempts.take();
+				}
+				try {
+					T response = done.get();
+					hedgingPolicy.recordLatency(System.nanoTime() - start);
+					if (done != started.get(0)) {
+						hedgingPolicy.recordHedgeWin();
+					}
+					return response;
+				} catch (ExecutionException e) {
+					// the other attempt might still succeed
+					failure = e;
+					done = null;
+				}
+			}
+			if (failure.getCause() instanceof FlickrException) {
+				throw (FlickrException) failure.getCause();
+			}
+			if (failure.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) failure.getCause();
+			}
+			throw new IllegalStateException(failure.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FlickrException("interrupted", "Interrupted while waiting for a hedged call");
+		} finally {
+			for (Future<T> attempt : started) {
+				attempt.cancel(true);
+			}
 		}
-		return new Procedure(user.getUsername(), identifier);
+	}
+
+	private <T> T attempt(FlickrCall<T> flickrCall) throws FlickrException {
+		applyAuth();
+		return flickrCall.call();
+	}
+
+	private void acquirePermit(TenantContext tenantContext) throws FlickrException {
+		FairScheduler fairScheduler = this.fairScheduler;
+		if (tenantContext.getPriority() == CallPriority.SPECULATIVE) {
+			if (Thread.interrupted()) {
+				// cancelled, e.g. by the next prefetch
+				throw new FlickrException("interrupted", "Speculative call cancelled");
+			}
+			boolean acquired = fairScheduler != null
+					? fairScheduler.tryAcquire(tenantContext)
+					: rateLimiter == null || rateLimiter.tryAcquire();
+			if (!acquired) {
+				throw new FlickrException(NO_BUDGET, "No API budget left for speculative calls");
+			}
+		} else if (fairScheduler != null) {
+			try {
+				fairScheduler.acquire(tenantContext);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new FlickrException("interrupted", "Interrupted while waiting for the API budget");
+			} catch (RejectedExecutionException e) {
+				throw new FlickrException("rejected", e.getMessage());
+			}
+		} else if (rateLimiter != null) {
+			try {
+				rateLimiter.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new FlickrException("interrupted", "Interrupted while waiting for the API rate limit");
+			}
+		}
+	}
+
+	private void applyAuth() {
+		RequestContext.getRequestContext().setAuth(auth);
 	}
 
 }
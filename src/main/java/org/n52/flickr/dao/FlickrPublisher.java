@@ -0,0 +1,287 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.n52.flickr.model.FlickrMessage;
+import org.n52.flickr.model.FlickrQuery;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.flickr4java.flickr.FlickrException;
+import com.flickr4java.flickr.photos.SearchParameters;
+
+/**
+ * Reactive Streams {@link Publisher} of the results of a {@link FlickrQuery}.
+ * Every subscription runs the query on its own and is driven by the demand
+ * of its subscriber: the next page is requested only when the photos of the
+ * already fetched pages do not satisfy the outstanding demand, and at most
+ * as many photos are enriched in parallel as have been requested. After
+ * {@link Subscription#cancel()} no further API calls are issued.
+ * 
+ * @see FlickrDAO#publish(FlickrQuery, Executor)
+ */
+public class FlickrPublisher implements Publisher<FlickrMessage> {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FlickrPublisher.class);
+
+	private final FlickrDAO dao;
+
+	private final FlickrQuery query;
+
+	private final Executor executor;
+
+	public FlickrPublisher(FlickrDAO dao, FlickrQuery query, Executor executor) {
+		this.dao = dao;
+		this.query = query;
+		this.executor = executor;
+	}
+
+	@Override
+	public void subscribe(Subscriber<? super FlickrMessage> subscriber) {
+		if (subscriber == null) {
+			throw new NullPointerException("subscriber must not be null");
+		}
+		Queue<SearchParameters> params = new LinkedList<>();
+		if (FlickrDAO.requiresTagFanOut(query)) {
+			for (FlickrQuery subQuery : FlickrDAO.splitByTags(query)) {
+				params.add(dao.createSearchParameters(subQuery));
+			}
+		} else {
+			params.add(dao.createSearchParameters(query));
+		}
+		QuerySubscription subscription = new QuerySubscription(subscriber,
+				params,
+				FlickrDAO.getPhotosPerPage(query),
+				query.hasMaxResults() ? query.getMaxResults() : Long.MAX_VALUE);
+		subscriber.onSubscribe(subscription);
+		subscription.drain();
+	}
+
+	/**
+	 * All signals to the subscriber are emitted from {@link #drain()}, which
+	 * is entered by one thread at a time; asynchronous page and enrichment
+	 * callbacks only update the state and re-enter it.
+	 */
+	private class QuerySubscription implements Subscription {
+
+		private final Subscriber<? super FlickrMessage> subscriber;
+
+		/**
+		 * More than one for tag queries split into chunks, which are paged
+		 * one after the other.
+		 */
+		private final Queue<SearchParameters> remainingParams;
+
+		private final Set<String> seenPhotoIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+		private volatile SearchParameters params;
+
+		private final int perPage;
+
+		private final long limit;
+
+		private final AtomicInteger wip = new AtomicInteger();
+
+		private final AtomicLong requested = new AtomicLong();
+
+		private final AtomicInteger enrichmentsInFlight = new AtomicInteger();
+
+		private final Queue<String> pendingPhotoIds = new ConcurrentLinkedQueue<>();
+
+		private final Queue<FlickrMessage> ready = new ConcurrentLinkedQueue<>();
+
+		private volatile boolean cancelled;
+
+		private volatile boolean fetching;
+
+		private volatile int nextPage = 1;
+
+		private volatile int pages = 1;
+
+		private volatile Throwable error;
+
+		private long emitted;
+
+		QuerySubscription(Subscriber<? super FlickrMessage> subscriber, Queue<SearchParameters> params, int perPage, long limit) {
+			this.subscriber = subscriber;
+			this.remainingParams = params;
+			this.params = params.poll();
+			this.perPage = perPage;
+			this.limit = limit;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				error = new IllegalArgumentException("non-positive subscription request: " + n);
+			} else {
+				long current;
+				do {
+					current = requested.get();
+				} while (!requested.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+			}
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			drain();
+		}
+
+		void drain() {
+			if (wip.getAndIncrement() != 0) {
+				return;
+			}
+			do {
+				if (cancelled) {
+					pendingPhotoIds.clear();
+					ready.clear();
+					return;
+				}
+				if (error != null) {
+					cancelled = true;
+					subscriber.onError(error);
+					continue;
+				}
+
+				FlickrMessage flickrMessage;
+				while (!cancelled && emitted < requested.get() && (flickrMessage = ready.poll()) != null) {
+					subscriber.onNext(flickrMessage);
+					emitted++;
+				}
+
+				if (cancelled) {
+					// by the subscriber while emitting
+					continue;
+				}
+				if (emitted >= limit) {
+					cancelled = true;
+					subscriber.onComplete();
+					continue;
+				}
+
+				if (!fetching && nextPage > pages && !remainingParams.isEmpty()) {
+					params = remainingParams.poll();
+					nextPage = 1;
+					pages = 1;
+				}
+
+				long outstanding = Math.min(requested.get(), limit) - emitted - ready.size() - enrichmentsInFlight.get();
+				String photoId;
+				while (outstanding > 0 && (photoId = pendingPhotoIds.poll()) != null) {
+					enrich(photoId);
+					outstanding--;
+				}
+
+				if (outstanding > 0 && !fetching && nextPage <= pages) {
+					fetch(nextPage);
+				} else if (!fetching && nextPage > pages && pendingPhotoIds.isEmpty()
+						&& enrichmentsInFlight.get() == 0 && ready.isEmpty()) {
+					cancelled = true;
+					subscriber.onComplete();
+				}
+			} while (wip.decrementAndGet() != 0);
+		}
+
+		private void fetch(final int pageIndex) {
+			final SearchParameters params = this.params;
+			fetching = true;
+			CompletableFuture.supplyAsync(() -> {
+				if (cancelled) {
+					return null;
+				}
+				try {
+					return dao.fetchPage(params, perPage, pageIndex);
+				} catch (FlickrException e) {
+					throw new CompletionException(e);
+				}
+			}, executor).whenComplete((searchPage, failure) -> {
+				if (failure != null) {
+					error = failure instanceof CompletionException ? failure.getCause() : failure;
+				} else if (searchPage != null) {
+					addPage(pageIndex, searchPage);
+				}
+				fetching = false;
+				drain();
+			});
+		}
+
+		private void addPage(int pageIndex, SearchPage searchPage) {
+			for (String photoId : searchPage.getPhotoIds()) {
+				if (seenPhotoIds.add(photoId)) {
+					pendingPhotoIds.add(photoId);
+				}
+			}
+			pages = searchPage.getPages();
+			nextPage = pageIndex + 1;
+		}
+
+		private void enrich(final String photoId) {
+			enrichmentsInFlight.incrementAndGet();
+			CompletableFuture.supplyAsync(() -> {
+				if (cancelled) {
+					return null;
+				}
+				try {
+					return dao.createFlickrMessage(photoId);
+				} catch (FlickrException e) {
+					throw new CompletionException(e);
+				}
+			}, executor).whenComplete((flickrMessage, failure) -> {
+				if (failure != null) {
+					error = failure instanceof CompletionException ? failure.getCause() : failure;
+				} else if (flickrMessage != null) {
+					ready.add(flickrMessage);
+				} else {
+					LOGGER.debug("Photo '{}' not geo located, hence skipped", photoId);
+				}
+				enrichmentsInFlight.decrementAndGet();
+				drain();
+			});
+		}
+
+	}
+
+}
@@ -0,0 +1,122 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.util.Map;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import com.flickr4java.flickr.FlickrException;
+
+/**
+ * Minimal client of the Flickr REST endpoint, which hands the response body
+ * to a {@link StreamHandler} without buffering it. Connections are pooled and
+ * kept alive between calls.
+ */
+public class FlickrRestClient implements Closeable {
+
+	public static final String REST_ENDPOINT = "https://api.flickr.com/services/rest/";
+
+	private final String apiKey;
+
+	private final PoolingHttpClientConnectionManager connectionManager;
+
+	private final CloseableHttpClient httpClient;
+
+	/**
+	 * Decodes a response body while it is received.
+	 *
+	 * @param <T> the type of the decoded response
+	 */
+	public interface StreamHandler<T> {
+
+		T handle(InputStream body) throws FlickrException;
+
+	}
+
+	public FlickrRestClient(String apiKey, int maxConnections) {
+		this.apiKey = apiKey;
+		connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnections);
+		httpClient = HttpClients.custom().setConnectionManager(connectionManager).build();
+	}
+
+	/**
+	 * Calls the given API method with <code>format=rest</code>.
+	 */
+	public <T> T get(String method, Map<String, String> parameters, StreamHandler<T> handler) throws FlickrException {
+		try {
+			URIBuilder uri = new URIBuilder(REST_ENDPOINT)
+					.addParameter("method", method)
+					.addParameter("api_key", apiKey)
+					.addParameter("format", "rest");
+			for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+				uri.addParameter(parameter.getKey(), parameter.getValue());
+			}
+			try (CloseableHttpResponse response = httpClient.execute(new HttpGet(uri.build()))) {
+				if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+					throw new FlickrException(Integer.toString(response.getStatusLine().getStatusCode()),
+							String.format("%s failed: %s", method, response.getStatusLine().getReasonPhrase()));
+				}
+				try (InputStream body = response.getEntity().getContent()) {
+					return handler.handle(body);
+				}
+			}
+		} catch (IOException | URISyntaxException e) {
+			FlickrException flickrException = new FlickrException("io", String.format("%s failed: %s", method, e.getMessage()));
+			flickrException.initCause(e);
+			throw flickrException;
+		}
+	}
+
+	/**
+	 * @return the pooled client, to be shared by other components talking to
+	 *         Flickr
+	 */
+	public CloseableHttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	@Override
+	public void close() throws IOException {
+		httpClient.close();
+	}
+
+}
@@ -0,0 +1,163 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import java.util.Arrays;
+
+/**
+ * Decides when {@link FlickrDAO} issues a duplicate of a slow call. A call is
+ * hedged once it takes longer than the given percentile of the recently
+ * observed latencies, e.g. the 95th, and only while hedges stay below the
+ * given fraction of all calls, so hedging cannot eat up the API quota.
+ */
+public class HedgingPolicy {
+
+	private static final int DEFAULT_WINDOW_SIZE = 256;
+
+	private static final int DEFAULT_MIN_SAMPLES = 20;
+
+	/**
+	 * The threshold is recomputed after this many new samples only, sorting
+	 * the window for each call would be a waste.
+	 */
+	private static final int RECOMPUTE_INTERVAL = 16;
+
+	private final double percentile;
+
+	private final double maxHedgeRatio;
+
+	private final int minSamples;
+
+	private final long[] latencies;
+
+	private int samples;
+
+	private int next;
+
+	private long hedgeDelayNanos = -1;
+
+	private long calls;
+
+	private long hedges;
+
+	private long hedgeWins;
+
+	public HedgingPolicy(double percentile, double maxHedgeRatio) {
+		this(percentile, maxHedgeRatio, DEFAULT_WINDOW_SIZE, DEFAULT_MIN_SAMPLES);
+	}
+
+	/**
+	 * @param percentile
+	 *            of the recent latencies after which a call is hedged,
+	 *            between 0 and 1, e.g. 0.95
+	 * @param maxHedgeRatio
+	 *            the maximum fraction of calls which may be hedged, e.g. 0.05
+	 * @param windowSize
+	 *            the number of recent latencies the percentile is taken from
+	 * @param minSamples
+	 *            no call is hedged before this many latencies are known
+	 */
+	public HedgingPolicy(double percentile, double maxHedgeRatio, int windowSize, int minSamples) {
+		if (percentile <= 0 || percentile >= 1) {
+			throw new IllegalArgumentException("percentile must be between 0 and 1: " + percentile);
+		}
+		if (maxHedgeRatio < 0 || maxHedgeRatio > 1) {
+			throw new IllegalArgumentException("maxHedgeRatio must be between 0 and 1: " + maxHedgeRatio);
+		}
+		if (windowSize <= 0 || minSamples <= 0 || minSamples > windowSize) {
+			throw new IllegalArgumentException(String.format("Invalid window of %d with %d minimum samples", windowSize, minSamples));
+		}
+		this.percentile = percentile;
+		this.maxHedgeRatio = maxHedgeRatio;
+		this.minSamples = minSamples;
+		this.latencies = new long[windowSize];
+	}
+
+	synchronized void recordCall() {
+		calls++;
+	}
+
+	synchronized void recordLatency(long nanos) {
+		latencies[next] = nanos;
+		next = (next + 1) % latencies.length;
+		samples++;
+		if (samples >= minSamples && (hedgeDelayNanos < 0 || samples % RECOMPUTE_INTERVAL == 0)) {
+			long[] window = Arrays.copyOf(latencies, Math.min(samples, latencies.length));
+			Arrays.sort(window);
+			hedgeDelayNanos = window[(int) Math.min(window.length - 1, Math.floor(percentile * window.length))];
+		}
+	}
+
+	/**
+	 * @return the number of latencies recorded so far
+	 */
+	synchronized int getSamples() {
+		return samples;
+	}
+
+	/**
+	 * @return the time after which a call is hedged, negative as long as too
+	 *         few latencies are known
+	 */
+	synchronized long getHedgeDelayNanos() {
+		return hedgeDelayNanos;
+	}
+
+	/**
+	 * @return <code>true</code> if the budget allows one more hedge, which is
+	 *         then counted
+	 */
+	synchronized boolean tryAcquireHedge() {
+		if (hedges + 1 > maxHedgeRatio * calls) {
+			return false;
+		}
+		hedges++;
+		return true;
+	}
+
+	synchronized void recordHedgeWin() {
+		hedgeWins++;
+	}
+
+	public synchronized long getCalls() {
+		return calls;
+	}
+
+	public synchronized long getHedges() {
+		return hedges;
+	}
+
+	/**
+	 * @return the number of hedges which returned before the original call
+	 */
+	public synchronized long getHedgeWins() {
+		return hedgeWins;
+	}
+
+}
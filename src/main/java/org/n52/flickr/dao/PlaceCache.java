@@ -0,0 +1,124 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.n52.flickr.model.FlickrPlace;
+
+import com.flickr4java.flickr.places.Place;
+
+/**
+ * Resolves each Flickr place once and shares the resulting
+ * {@link FlickrPlace} between all photos taken there. A place seen without
+ * a name, e.g. in a sparse response, gets the name known from earlier
+ * photos.
+ */
+public class PlaceCache {
+
+	private static final String SEPARATOR = "\t";
+
+	private final LruCache<String, FlickrPlace> places;
+
+	public PlaceCache(int capacity) {
+		places = new LruCache<>(capacity);
+	}
+
+	/**
+	 * @return the shared instance for the place, <code>null</code> if the
+	 *         place is <code>null</code>
+	 */
+	public FlickrPlace intern(Place place) {
+		if (place == null) {
+			return null;
+		}
+		return intern(place.getPlaceId(), place.getName());
+	}
+
+	public FlickrPlace intern(String placeId, String name) {
+		if (placeId == null || placeId.isEmpty()) {
+			return new FlickrPlace(placeId, name);
+		}
+		synchronized (places) {
+			FlickrPlace cached = places.get(placeId);
+			if (cached != null && (cached.hasName() || name == null || name.isEmpty())) {
+				return cached;
+			}
+			FlickrPlace place = new FlickrPlace(placeId, name);
+			places.put(placeId, place);
+			return place;
+		}
+	}
+
+	public int size() {
+		return places.size();
+	}
+
+	/**
+	 * Warms the cache up with the places stored by {@link #store(Path)}.
+	 * 
+	 * @return the number of places read
+	 */
+	public int load(Path file) throws IOException {
+		int count = 0;
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(SEPARATOR, -1);
+				if (fields.length == 2) {
+					intern(fields[0], fields[1]);
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	public void store(Path file) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			for (Map.Entry<String, FlickrPlace> entry : places.snapshot().entrySet()) {
+				writer.write(entry.getKey());
+				writer.write(SEPARATOR);
+				writer.write(entry.getValue().hasName() ? clean(entry.getValue().getName()) : "");
+				writer.newLine();
+			}
+		}
+	}
+
+	static String clean(String value) {
+		return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+
+}
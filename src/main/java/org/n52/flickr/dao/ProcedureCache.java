@@ -0,0 +1,131 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.n52.socialmedia.model.Procedure;
+
+import com.flickr4java.flickr.people.User;
+
+/**
+ * Shares one {@link Procedure} per Flickr user between all photos of this
+ * user. A few prolific users own most photos of a region, hence this saves
+ * most of the per photo allocations.
+ */
+public class ProcedureCache {
+
+	private static final String FLICKR_USR_URL = "https://www.flickr.com/photos/%s";
+
+	private static final String SEPARATOR = "\t";
+
+	private final LruCache<String, Owner> owners;
+
+	public ProcedureCache(int capacity) {
+		owners = new LruCache<>(capacity);
+	}
+
+	public Procedure get(final User user) {
+		return get(user.getId(), user.getUsername(), user.getProfileurl());
+	}
+
+	/**
+	 * @param profileUrl
+	 *            the profile of the user, might be <code>null</code>
+	 */
+	public Procedure get(String userId, final String username, final String profileUrl) {
+		return owners.computeIfAbsent(userId, id -> {
+			String identifier = profileUrl;
+			if (identifier==null || identifier.isEmpty()) {
+				identifier = String.format(FLICKR_USR_URL, id);
+			}
+			return new Owner(username, identifier);
+		}).procedure;
+	}
+
+	public int size() {
+		return owners.size();
+	}
+
+	/**
+	 * Warms the cache up with the owners stored by {@link #store(Path)}.
+	 * 
+	 * @return the number of owners read
+	 */
+	public int load(Path file) throws IOException {
+		int count = 0;
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(SEPARATOR, -1);
+				if (fields.length == 3) {
+					owners.put(fields[0], new Owner(fields[1].isEmpty() ? null : fields[1], fields[2]));
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	public void store(Path file) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			for (Map.Entry<String, Owner> entry : owners.snapshot().entrySet()) {
+				writer.write(entry.getKey());
+				writer.write(SEPARATOR);
+				writer.write(entry.getValue().username != null ? PlaceCache.clean(entry.getValue().username) : "");
+				writer.write(SEPARATOR);
+				writer.write(PlaceCache.clean(entry.getValue().identifier));
+				writer.newLine();
+			}
+		}
+	}
+
+	private static class Owner {
+
+		private final String username;
+
+		private final String identifier;
+
+		private final Procedure procedure;
+
+		Owner(String username, String identifier) {
+			this.username = username;
+			this.identifier = identifier;
+			this.procedure = new Procedure(username, identifier);
+		}
+
+	}
+
+}
@@ -0,0 +1,156 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import java.util.function.IntConsumer;
+
+import org.joda.time.DateTime;
+
+/**
+ * Tracks the pagination of a running query and the time left for it. The
+ * DAO stops issuing calls once the deadline has passed.
+ */
+public class QueryProgress {
+
+	private final long deadlineMillis;
+
+	private volatile int pages;
+
+	private volatile int pagesCovered;
+
+	private volatile int total;
+
+	private volatile boolean truncated;
+
+	private int firstPage = 1;
+
+	private IntConsumer pageListener;
+
+	/**
+	 * Progress of a query without deadline.
+	 */
+	public QueryProgress() {
+		this.deadlineMillis = Long.MAX_VALUE;
+	}
+
+	public QueryProgress(DateTime deadline) {
+		this.deadlineMillis = deadline.getMillis();
+	}
+
+	public boolean hasDeadline() {
+		return deadlineMillis != Long.MAX_VALUE;
+	}
+
+	public boolean isExpired() {
+		return System.currentTimeMillis() >= deadlineMillis;
+	}
+
+	public long getRemainingMillis() {
+		return Math.max(0, deadlineMillis - System.currentTimeMillis());
+	}
+
+	/**
+	 * Lets the query skip the pages covered by an earlier run. The page
+	 * offsets only stay valid if the result set has not changed meanwhile,
+	 * e.g. because of a fixed maximum upload date.
+	 */
+	public void resumeAt(int firstPage) {
+		if (firstPage < 1) {
+			throw new IllegalArgumentException("Pages start at 1: " + firstPage);
+		}
+		this.firstPage = firstPage;
+	}
+
+	public int getFirstPage() {
+		return firstPage;
+	}
+
+	/**
+	 * @param pageListener
+	 *            is called with the index of each page once all its photos
+	 *            are passed on
+	 */
+	public void setPageListener(IntConsumer pageListener) {
+		this.pageListener = pageListener;
+	}
+
+	public IntConsumer getPageListener() {
+		return pageListener;
+	}
+
+	/**
+	 * Counts the pages and photos of a result set on its first fetched page.
+	 * Queries split by tags add up the result sets of their chunks.
+	 * 
+	 * @param skippedPages
+	 *            the pages covered by an earlier run
+	 */
+	synchronized void pageFetched(boolean first, int skippedPages, SearchPage searchPage) {
+		if (first) {
+			pages += Math.max(1, searchPage.getPages());
+			pagesCovered += skippedPages;
+			total += searchPage.getTotal();
+		}
+	}
+
+	synchronized void pageCovered() {
+		pagesCovered++;
+	}
+
+	/**
+	 * Marks the results as incomplete, as the deadline stopped the query.
+	 */
+	void truncate() {
+		truncated = true;
+	}
+
+	/**
+	 * @return the number of pages of the result sets seen so far
+	 */
+	public int getPages() {
+		return pages;
+	}
+
+	public int getPagesCovered() {
+		return pagesCovered;
+	}
+
+	/**
+	 * @return Flickr's estimate of the number of photos of the result sets
+	 *         seen so far
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+}
@@ -0,0 +1,180 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.n52.flickr.model.FlickrMessage;
+import org.n52.flickr.model.FlickrQuery;
+
+/**
+ * Keeps the results of recent queries for a limited time, e.g. for clients
+ * panning back and forth over a map or for prefetched neighbouring sites.
+ * Queries are compared by {@link FlickrQuery#equals(Object)} with the
+ * coordinates of the bounding box rounded to {@value #COORDINATE_DIGITS}
+ * digits, so boxes computed differently for the same site match.
+ */
+public class QueryResultCache {
+
+	static final int COORDINATE_DIGITS = 6;
+
+	private static final double COORDINATE_SCALE = Math.pow(10, COORDINATE_DIGITS);
+
+	private final LruCache<FlickrQuery, Entry> results;
+
+	private final long ttlMillis;
+
+	private long hits;
+
+	private long misses;
+
+	/**
+	 * @param capacity
+	 *            the maximum number of queries kept
+	 * @param ttl
+	 *            the time a result is served for after it was fetched
+	 */
+	public QueryResultCache(int capacity, long ttl, TimeUnit unit) {
+		if (ttl <= 0) {
+			throw new IllegalArgumentException("ttl must be positive: " + ttl);
+		}
+		this.results = new LruCache<>(capacity);
+		this.ttlMillis = unit.toMillis(ttl);
+	}
+
+	/**
+	 * @return the photos found by the query, shared with all callers and
+	 *         hence unmodifiable, <code>null</code> if the query is not cached
+	 *         or its result expired
+	 */
+	public Collection<FlickrMessage> get(FlickrQuery query) {
+		Collection<FlickrMessage> messages = lookup(query);
+		synchronized (this) {
+			if (messages != null) {
+				hits++;
+			} else {
+				misses++;
+			}
+		}
+		return messages;
+	}
+
+	/**
+	 * @return <code>true</code> if the query has a result which did not
+	 *         expire yet, not counted as hit or miss
+	 */
+	public boolean contains(FlickrQuery query) {
+		return lookup(query) != null;
+	}
+
+	private Collection<FlickrMessage> lookup(FlickrQuery query) {
+		FlickrQuery key = normalize(query);
+		Entry entry = results.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.expires < System.currentTimeMillis()) {
+			results.remove(key);
+			return null;
+		}
+		return entry.messages;
+	}
+
+	/**
+	 * @param messages
+	 *            the complete result of the query, served as an
+	 *            unmodifiable view, hence not to be modified by the caller
+	 *            any more
+	 */
+	public void put(FlickrQuery query, Collection<FlickrMessage> messages) {
+		results.put(normalize(query), new Entry(Collections.unmodifiableCollection(messages),
+				System.currentTimeMillis() + ttlMillis));
+	}
+
+	public void invalidate(FlickrQuery query) {
+		results.remove(normalize(query));
+	}
+
+	public void clear() {
+		results.clear();
+	}
+
+	/**
+	 * @return the number of queries kept, including expired ones not
+	 *         asked for since
+	 */
+	public int size() {
+		return results.size();
+	}
+
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return a copy of the query to be used as key, which is not changed by
+	 *         later changes of the query
+	 */
+	static FlickrQuery normalize(FlickrQuery query) {
+		FlickrQuery key = new FlickrQuery(query);
+		if (query.isGeolocated()) {
+			double[] bbox = query.getBoundingBox();
+			key.setBoundingBox(round(bbox[0]), round(bbox[1]), round(bbox[2]), round(bbox[3]));
+		}
+		return key;
+	}
+
+	private static double round(double coordinate) {
+		return Math.round(coordinate * COORDINATE_SCALE) / COORDINATE_SCALE;
+	}
+
+	private static class Entry {
+
+		private final Collection<FlickrMessage> messages;
+
+		private final long expires;
+
+		Entry(Collection<FlickrMessage> messages, long expires) {
+			this.messages = messages;
+			this.expires = expires;
+		}
+
+	}
+
+}
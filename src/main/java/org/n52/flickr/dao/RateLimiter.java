@@ -0,0 +1,88 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads the calls against the Flickr API evenly over time, e.g. 3600 calls
+ * per hour result in one call per second. Each caller reserves the next free
+ * slot and sleeps outside of any lock until it is due, which keeps waiting
+ * cheap on virtual threads.
+ */
+public class RateLimiter {
+
+	private final long intervalNanos;
+
+	private long nextFreeSlot;
+
+	public RateLimiter(int calls, TimeUnit per) {
+		if (calls <= 0) {
+			throw new IllegalArgumentException("calls must be positive: " + calls);
+		}
+		this.intervalNanos = per.toNanos(1) / calls;
+		this.nextFreeSlot = System.nanoTime();
+	}
+
+	/**
+	 * Blocks until the calling thread may issue the next call.
+	 */
+	public void acquire() throws InterruptedException {
+		long waitNanos;
+		synchronized (this) {
+			long now = System.nanoTime();
+			long slot = Math.max(nextFreeSlot, now);
+			nextFreeSlot = slot + intervalNanos;
+			waitNanos = slot - now;
+		}
+		if (waitNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+
+	/**
+	 * Takes the next slot only if it is due already, e.g. for calls which
+	 * should use budget left over by the other calls only.
+	 * 
+	 * @return <code>false</code> if the caller would have to wait
+	 */
+	public synchronized boolean tryAcquire() {
+		long now = System.nanoTime();
+		if (nextFreeSlot - now > 0) {
+			return false;
+		}
+		nextFreeSlot = now + intervalNanos;
+		return true;
+	}
+
+	public long getIntervalNanos() {
+		return intervalNanos;
+	}
+
+}
@@ -0,0 +1,52 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+/**
+ * Defines how {@link FlickrDAO} requests and decodes API responses.
+ */
+public enum ResponseDecoding {
+
+	/**
+	 * flickr4java parses each response into a DOM and its own object model,
+	 * from which the DAO copies the values. The photo location is requested
+	 * separately with <code>flickr.photos.geo.getLocation</code>.
+	 */
+	FLICKR4JAVA,
+
+	/**
+	 * The REST responses are streamed through {@link StreamingResponseDecoder}
+	 * right into {@link org.n52.flickr.model.FlickrMessage}s. The location is
+	 * taken from the <code>flickr.photos.getInfo</code> response, which saves
+	 * one call per photo. Requests are signed with the API key only, hence
+	 * only public photos are found.
+	 */
+	STREAMING;
+
+}
@@ -0,0 +1,171 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The part of a search result page the DAO needs for paging and enrichment.
+ * Besides the ids of the photos worth an enrichment it keeps their
+ * location, time and last update from the search extras in primitive
+ * columns, which is enough for aggregations without any enrichment.
+ */
+class SearchPage {
+
+	private final int page;
+
+	private final int pages;
+
+	private final int total;
+
+	private int size;
+
+	private final List<String> photoIds;
+
+	private float[] latitudes;
+
+	private float[] longitudes;
+
+	private long[] times;
+
+	private long[] lastUpdates;
+
+	private final List<String> skippedPhotoIds = new ArrayList<>();
+
+	private long[] skippedLastUpdates = new long[16];
+
+	SearchPage(int page, int pages, int total) {
+		this.page = page;
+		this.pages = pages;
+		this.total = total;
+		this.photoIds = new ArrayList<>();
+		this.latitudes = new float[16];
+		this.longitudes = new float[16];
+		this.times = new long[16];
+		this.lastUpdates = new long[16];
+	}
+
+	/**
+	 * Adds a photo which is worth an enrichment.
+	 * 
+	 * @param time
+	 *            when the photo was taken, or uploaded if unknown, in
+	 *            milliseconds since the epoch
+	 * @param lastUpdate
+	 *            when the photo was updated last in milliseconds since the
+	 *            epoch, 0 if unknown
+	 */
+	void addPhoto(String photoId, float latitude, float longitude, long time, long lastUpdate) {
+		int index = photoIds.size();
+		if (index == latitudes.length) {
+			int capacity = index * 2;
+			latitudes = Arrays.copyOf(latitudes, capacity);
+			longitudes = Arrays.copyOf(longitudes, capacity);
+			times = Arrays.copyOf(times, capacity);
+			lastUpdates = Arrays.copyOf(lastUpdates, capacity);
+		}
+		photoIds.add(photoId);
+		latitudes[index] = latitude;
+		longitudes[index] = longitude;
+		times[index] = time;
+		lastUpdates[index] = lastUpdate;
+		size++;
+	}
+
+	/**
+	 * Counts a photo which is not worth an enrichment, e.g. as it has no
+	 * upload date.
+	 * 
+	 * @param lastUpdate
+	 *            when the photo was updated last in milliseconds since the
+	 *            epoch, 0 if unknown
+	 */
+	void skipPhoto(String photoId, long lastUpdate) {
+		int index = skippedPhotoIds.size();
+		if (index == skippedLastUpdates.length) {
+			skippedLastUpdates = Arrays.copyOf(skippedLastUpdates, index * 2);
+		}
+		skippedPhotoIds.add(photoId);
+		skippedLastUpdates[index] = lastUpdate;
+		size++;
+	}
+
+	int getPage() {
+		return page;
+	}
+
+	int getPages() {
+		return pages;
+	}
+
+	int getTotal() {
+		return total;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the ids of the photos which are worth an enrichment
+	 */
+	List<String> getPhotoIds() {
+		return photoIds;
+	}
+
+	/**
+	 * @return the ids of the photos which are not worth an enrichment
+	 */
+	List<String> getSkippedPhotoIds() {
+		return skippedPhotoIds;
+	}
+
+	long getSkippedLastUpdate(int index) {
+		return skippedLastUpdates[index];
+	}
+
+	float getLatitude(int index) {
+		return latitudes[index];
+	}
+
+	float getLongitude(int index) {
+		return longitudes[index];
+	}
+
+	long getTime(int index) {
+		return times[index];
+	}
+
+	long getLastUpdate(int index) {
+		return lastUpdates[index];
+	}
+
+}
@@ -0,0 +1,211 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.flickr4java.flickr.FlickrException;
+
+/**
+ * Coalesces concurrent executions with equal keys: the first caller runs the
+ * execution, all callers arriving before it completes wait for and share its
+ * result. Nothing is cached, a caller arriving after the completion starts a
+ * new execution.
+ * 
+ * @param <K>
+ *            the key type, needs proper {@link Object#equals(Object)} and
+ *            {@link Object#hashCode()} and must not change while in flight
+ * @param <V>
+ *            the result type, shared between the callers hence it should not
+ *            be modified
+ */
+public class SingleFlight<K, V> {
+
+	private final ConcurrentMap<K, Flight> flights = new ConcurrentHashMap<>();
+
+	private final AtomicLong executions = new AtomicLong();
+
+	private final AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * Runs the call on the calling thread unless an equal one is in flight.
+	 */
+	public V execute(K key, FlickrCall<V> call) throws FlickrException {
+		Flight created = new Flight(key);
+		Flight flight = flights.putIfAbsent(key, created);
+		if (flight == null) {
+			executions.incrementAndGet();
+			try {
+				V value = call.call();
+				flights.remove(key, created);
+				created.result.complete(value);
+				return value;
+			} catch (FlickrException | RuntimeException e) {
+				flights.remove(key, created);
+				created.result.completeExceptionally(e);
+				throw e;
+			}
+		}
+		coalesced.incrementAndGet();
+		CompletableFuture<V> waiter = flight.attach();
+		try {
+			return waiter.get();
+		} catch (InterruptedException e) {
+			waiter.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new FlickrException("interrupted", "Interrupted while waiting for a coalesced call");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof FlickrException) {
+				throw (FlickrException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Starts the asynchronous execution unless an equal one is in flight.
+	 * Each caller gets its own future: completing or cancelling it detaches
+	 * only this caller, the execution is cancelled once all callers are
+	 * detached.
+	 */
+	public CompletableFuture<V> submit(final K key, Supplier<CompletableFuture<V>> execution) {
+		final Flight created = new Flight(key);
+		Flight flight = flights.putIfAbsent(key, created);
+		if (flight != null) {
+			coalesced.incrementAndGet();
+			return flight.attach();
+		}
+		executions.incrementAndGet();
+		CompletableFuture<V> waiter = created.attach();
+		CompletableFuture<V> source;
+		try {
+			source = execution.get();
+		} catch (RuntimeException e) {
+			source = new CompletableFuture<>();
+			source.completeExceptionally(e);
+		}
+		source.whenComplete((value, error) -> {
+			flights.remove(key, created);
+			if (error != null) {
+				created.result.completeExceptionally(error);
+			} else {
+				created.result.complete(value);
+			}
+		});
+		created.setSource(source);
+		return waiter;
+	}
+
+	/**
+	 * @return the number of executions actually run
+	 */
+	public long getExecutions() {
+		return executions.get();
+	}
+
+	/**
+	 * @return the number of callers which joined an execution in flight
+	 *         instead of running their own
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	public int getInFlight() {
+		return flights.size();
+	}
+
+	private class Flight {
+
+		private final K key;
+
+		private final CompletableFuture<V> result = new CompletableFuture<>();
+
+		private CompletableFuture<V> source;
+
+		private int waiters;
+
+		private boolean abandoned;
+
+		Flight(K key) {
+			this.key = key;
+		}
+
+		synchronized CompletableFuture<V> attach() {
+			waiters++;
+			final CompletableFuture<V> waiter = new CompletableFuture<>();
+			result.whenComplete((value, error) -> {
+				if (error != null) {
+					waiter.completeExceptionally(error);
+				} else {
+					waiter.complete(value);
+				}
+			});
+			waiter.whenComplete((value, error) -> {
+				if (!result.isDone()) {
+					// completed from outside, e.g. cancelled or timed out
+					detach();
+				}
+			});
+			return waiter;
+		}
+
+		synchronized void setSource(CompletableFuture<V> source) {
+			this.source = source;
+			if (abandoned) {
+				abandon();
+			}
+		}
+
+		private synchronized void detach() {
+			waiters--;
+			if (waiters == 0 && !abandoned) {
+				abandoned = true;
+				if (source != null) {
+					abandon();
+				}
+			}
+		}
+
+		private void abandon() {
+			flights.remove(key, this);
+			source.cancel(true);
+		}
+
+	}
+
+}
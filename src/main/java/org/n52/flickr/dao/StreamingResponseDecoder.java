@@ -0,0 +1,300 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.n52.flickr.model.FlickrLocation;
+import org.n52.flickr.model.FlickrMessage;
+
+import com.flickr4java.flickr.FlickrException;
+import com.flickr4java.flickr.tags.Tag;
+
+/**
+ * Decodes the XML responses of the Flickr REST API with a StAX pull parser
+ * while they are received. No DOM and no intermediate flickr4java objects
+ * are built, only the values the DAO needs are kept. The decoding of a photo
+ * matches {@link FlickrDAO#createFlickrMessage(com.flickr4java.flickr.photos.Photo, com.flickr4java.flickr.photos.GeoData)}.
+ */
+public class StreamingResponseDecoder {
+
+	private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+	private static final String DATE_TAKEN_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+	private static final String FLICKR_PHOTO_URL = "https://flickr.com/photos/%s/%s";
+
+	private final PlaceCache placeCache;
+
+	private final ProcedureCache procedureCache;
+
+	public StreamingResponseDecoder(PlaceCache placeCache, ProcedureCache procedureCache) {
+		this.placeCache = placeCache;
+		this.procedureCache = procedureCache;
+	}
+
+	/**
+	 * Decodes the response of <code>flickr.photos.getInfo</code>.
+	 *
+	 * @return the observation or <code>null</code> if the photo has no
+	 *         location or no upload date
+	 * @throws FlickrException
+	 *             if the response is an error or not well-formed
+	 */
+	public FlickrMessage decodePhotoInfo(InputStream response) throws FlickrException {
+		String photoId = null;
+		String server = null;
+		String secret = null;
+		String ownerId = null;
+		String username = null;
+		String title = null;
+		String description = null;
+		String posted = null;
+		String taken = null;
+		String lastUpdate = null;
+		String latitude = null;
+		String longitude = null;
+		String accuracy = null;
+		String placeId = null;
+		String placeName = null;
+		String url = null;
+		Collection<Tag> tags = new ArrayList<>();
+		XMLStreamReader reader = null;
+		try {
+			reader = XML_INPUT_FACTORY.createXMLStreamReader(response);
+			while (reader.hasNext()) {
+				if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+					continue;
+				}
+				switch (reader.getLocalName()) {
+				case "err":
+					throw toFlickrException(reader);
+				case "photo":
+					photoId = reader.getAttributeValue(null, "id");
+					server = reader.getAttributeValue(null, "server");
+					secret = reader.getAttributeValue(null, "secret");
+					break;
+				case "owner":
+					ownerId = reader.getAttributeValue(null, "nsid");
+					username = reader.getAttributeValue(null, "username");
+					break;
+				case "title":
+					title = reader.getElementText();
+					break;
+				case "description":
+					description = reader.getElementText();
+					break;
+				case "dates":
+					posted = reader.getAttributeValue(null, "posted");
+					taken = reader.getAttributeValue(null, "taken");
+					lastUpdate = reader.getAttributeValue(null, "lastupdate");
+					break;
+				case "tag":
+					Tag tag = new Tag();
+					tag.setId(reader.getAttributeValue(null, "id"));
+					tag.setAuthor(reader.getAttributeValue(null, "author"));
+					tag.setRaw(reader.getAttributeValue(null, "raw"));
+					tag.setValue(reader.getElementText());
+					tags.add(tag);
+					break;
+				case "location":
+					latitude = reader.getAttributeValue(null, "latitude");
+					longitude = reader.getAttributeValue(null, "longitude");
+					accuracy = reader.getAttributeValue(null, "accuracy");
+					break;
+				case "locality":
+					placeId = reader.getAttributeValue(null, "place_id");
+					placeName = reader.getElementText();
+					break;
+				case "url":
+					if ("photopage".equals(reader.getAttributeValue(null, "type"))) {
+						url = reader.getElementText();
+					}
+					break;
+				default:
+					break;
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw toFlickrException(e);
+		} finally {
+			close(reader);
+		}
+
+		if (isEmpty(latitude) || isEmpty(longitude) || isEmpty(posted)) {
+			return null;
+		}
+		Date datePosted = new Date(Long.parseLong(posted) * 1000L);
+		Date dateTaken = parseDateTaken(taken);
+
+		FlickrMessage flickrMessage = new FlickrMessage();
+		flickrMessage.setIdentifier(photoId);
+		flickrMessage.setDatePosted(datePosted);
+		flickrMessage.setDateTaken(dateTaken != null ? dateTaken : datePosted);
+		flickrMessage.setLocation(new FlickrLocation(Float.parseFloat(longitude),
+				Float.parseFloat(latitude),
+				isEmpty(accuracy) ? 0 : Integer.parseInt(accuracy),
+				placeId != null || placeName != null ? placeCache.intern(placeId, placeName) : null));
+		flickrMessage.setTitle(title);
+		flickrMessage.setUrl(url != null ? url : String.format(FLICKR_PHOTO_URL, ownerId, photoId));
+		flickrMessage.setCaption(description);
+		flickrMessage.setTags(tags);
+		flickrMessage.setProcedure(procedureCache.get(ownerId, username, null));
+		flickrMessage.setImageSource(server, secret);
+		flickrMessage.setLastUpdate(isEmpty(lastUpdate) ? null : new Date(Long.parseLong(lastUpdate) * 1000L));
+		return flickrMessage;
+	}
+
+	/**
+	 * Decodes the response of <code>flickr.photos.search</code> requested
+	 * with the extras <code>geo</code>, <code>date_upload</code>,
+	 * <code>date_taken</code> and <code>last_update</code>.
+	 *
+	 * @throws FlickrException
+	 *             if the response is an error or not well-formed
+	 */
+	SearchPage decodeSearchPage(InputStream response) throws FlickrException {
+		SearchPage searchPage = new SearchPage(0, 0, 0);
+		XMLStreamReader reader = null;
+		try {
+			reader = XML_INPUT_FACTORY.createXMLStreamReader(response);
+			while (reader.hasNext()) {
+				if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+					continue;
+				}
+				switch (reader.getLocalName()) {
+				case "err":
+					throw toFlickrException(reader);
+				case "photos":
+					searchPage = new SearchPage(parseInt(reader.getAttributeValue(null, "page")),
+							parseInt(reader.getAttributeValue(null, "pages")),
+							parseInt(reader.getAttributeValue(null, "total")));
+					break;
+				case "photo":
+					String latitude = reader.getAttributeValue(null, "latitude");
+					String longitude = reader.getAttributeValue(null, "longitude");
+					String dateUpload = reader.getAttributeValue(null, "dateupload");
+					if (isEnrichable(latitude, longitude, dateUpload)) {
+						Date dateTaken = parseDateTaken(reader.getAttributeValue(null, "datetaken"));
+						searchPage.addPhoto(reader.getAttributeValue(null, "id"),
+								Float.parseFloat(latitude),
+								Float.parseFloat(longitude),
+								dateTaken != null ? dateTaken.getTime() : Long.parseLong(dateUpload) * 1000L,
+								parseSeconds(reader.getAttributeValue(null, "lastupdate")) * 1000L);
+					} else {
+						searchPage.skipPhoto(reader.getAttributeValue(null, "id"),
+								parseSeconds(reader.getAttributeValue(null, "lastupdate")) * 1000L);
+					}
+					break;
+				default:
+					break;
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw toFlickrException(e);
+		} finally {
+			close(reader);
+		}
+		return searchPage;
+	}
+
+	/**
+	 * Same rule as {@link FlickrDAO#isEnrichable(com.flickr4java.flickr.photos.Photo)}:
+	 * flickr4java reports no geo data for a location of 0,0.
+	 */
+	private static boolean isEnrichable(String latitude, String longitude, String dateUpload) {
+		if (isEmpty(latitude) || isEmpty(longitude) || isEmpty(dateUpload)) {
+			return false;
+		}
+		return Float.parseFloat(latitude) != 0 || Float.parseFloat(longitude) != 0;
+	}
+
+	private static Date parseDateTaken(String taken) {
+		if (isEmpty(taken)) {
+			return null;
+		}
+		try {
+			// SimpleDateFormat is not thread safe and cheap compared to a call
+			return new SimpleDateFormat(DATE_TAKEN_FORMAT).parse(taken);
+		} catch (ParseException e) {
+			return null;
+		}
+	}
+
+	private static long parseSeconds(String value) {
+		return isEmpty(value) ? 0 : Long.parseLong(value);
+	}
+
+	private static int parseInt(String value) {
+		return isEmpty(value) ? 0 : Integer.parseInt(value);
+	}
+
+	private static boolean isEmpty(String value) {
+		return value == null || value.isEmpty();
+	}
+
+	private static FlickrException toFlickrException(XMLStreamReader reader) {
+		return new FlickrException(reader.getAttributeValue(null, "code"), reader.getAttributeValue(null, "msg"));
+	}
+
+	private static FlickrException toFlickrException(XMLStreamException e) {
+		FlickrException flickrException = new FlickrException("decoding", "Could not decode response: " + e.getMessage());
+		flickrException.initCause(e);
+		return flickrException;
+	}
+
+	private static void close(XMLStreamReader reader) {
+		if (reader != null) {
+			try {
+				reader.close();
+			} catch (XMLStreamException e) {
+				// the stream itself is closed by the client
+			}
+		}
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		return factory;
+	}
+
+}
@@ -0,0 +1,158 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The tenant and priority the API calls of the current thread are
+ * accounted to by the {@link FairScheduler}. Calls outside of any context
+ * belong to the {@link #DEFAULT_TENANT} with {@link CallPriority#INTERACTIVE}
+ * priority.
+ * 
+ * <pre>
+ * try (TenantContext.Scope scope = new TenantContext("mapping", CallPriority.INTERACTIVE).enter()) {
+ *     harvester.searchForObservationsAt(latitude, longitude);
+ * }
+ * </pre>
+ * 
+ * The DAO passes the context on to the threads of asynchronous queries.
+ */
+public class TenantContext {
+
+	public static final String DEFAULT_TENANT = "default";
+
+	private static final TenantContext DEFAULT = new TenantContext(DEFAULT_TENANT, CallPriority.INTERACTIVE);
+
+	private static final ThreadLocal<TenantContext> CURRENT = new ThreadLocal<>();
+
+	private final String tenant;
+
+	private final CallPriority priority;
+
+	/**
+	 * Restores the context which was current before {@link TenantContext#enter()}.
+	 */
+	public static class Scope implements AutoCloseable {
+
+		private final TenantContext previous;
+
+		private Scope(TenantContext previous) {
+			this.previous = previous;
+		}
+
+		@Override
+		public void close() {
+			if (previous == null) {
+				CURRENT.remove();
+			} else {
+				CURRENT.set(previous);
+			}
+		}
+
+	}
+
+	private static class PropagatingExecutor implements Executor {
+
+		private final Executor executor;
+
+		PropagatingExecutor(Executor executor) {
+			this.executor = executor;
+		}
+
+		@Override
+		public void execute(final Runnable task) {
+			final TenantContext context = current();
+			executor.execute(() -> {
+				try (Scope scope = context.enter()) {
+					task.run();
+				}
+			});
+		}
+
+	}
+
+	public TenantContext(String tenant, CallPriority priority) {
+		if (tenant == null || tenant.trim().isEmpty()) {
+			throw new IllegalArgumentException("tenant must not be empty");
+		}
+		this.tenant = tenant.trim();
+		this.priority = priority;
+	}
+
+	/**
+	 * @return the context of the calling thread, never <code>null</code>
+	 */
+	public static TenantContext current() {
+		TenantContext current = CURRENT.get();
+		return current != null ? current : DEFAULT;
+	}
+
+	/**
+	 * Makes this the context of the calling thread until the scope is
+	 * closed.
+	 */
+	public Scope enter() {
+		Scope scope = new Scope(CURRENT.get());
+		CURRENT.set(this);
+		return scope;
+	}
+
+	/**
+	 * @return the context of the same tenant with another priority
+	 */
+	public TenantContext withPriority(CallPriority priority) {
+		return priority == this.priority ? this : new TenantContext(tenant, priority);
+	}
+
+	public String getTenant() {
+		return tenant;
+	}
+
+	public CallPriority getPriority() {
+		return priority;
+	}
+
+	/**
+	 * @return an executor running each task in the context which was current
+	 *         when the task was submitted
+	 */
+	public static Executor propagating(Executor executor) {
+		if (executor instanceof PropagatingExecutor) {
+			return executor;
+		}
+		return new PropagatingExecutor(executor);
+	}
+
+	@Override
+	public String toString() {
+		return tenant + "/" + priority;
+	}
+
+}
@@ -0,0 +1,110 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of the calls of one tenant passed by the {@link FairScheduler}.
+ */
+public class TenantUsage {
+
+	private final String tenant;
+
+	private final double weight;
+
+	private final long granted;
+
+	private final long rejected;
+
+	private final int queued;
+
+	private final long totalWaitNanos;
+
+	private final long maxWaitNanos;
+
+	public TenantUsage(String tenant, double weight, long granted, long rejected, int queued, long totalWaitNanos, long maxWaitNanos) {
+		this.tenant = tenant;
+		this.weight = weight;
+		this.granted = granted;
+		this.rejected = rejected;
+		this.queued = queued;
+		this.totalWaitNanos = totalWaitNanos;
+		this.maxWaitNanos = maxWaitNanos;
+	}
+
+	public String getTenant() {
+		return tenant;
+	}
+
+	public double getWeight() {
+		return weight;
+	}
+
+	/**
+	 * @return the number of calls which passed the scheduler
+	 */
+	public long getGranted() {
+		return granted;
+	}
+
+	/**
+	 * @return the number of calls refused as the queue of the tenant was
+	 *         full
+	 */
+	public long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * @return the number of calls waiting at the time of the snapshot
+	 */
+	public int getQueued() {
+		return queued;
+	}
+
+	public double getAverageWaitMillis() {
+		return granted == 0 ? 0 : (double) totalWaitNanos / granted / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	public long getMaxWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder(100).append("TenantUsage [tenant=").append(tenant)
+				.append(", weight=").append(weight)
+				.append(", granted=").append(granted)
+				.append(", rejected=").append(rejected)
+				.append(", queued=").append(queued)
+				.append(", averageWaitMillis=").append(getAverageWaitMillis()).append("]").toString();
+	}
+
+}
@@ -0,0 +1,292 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+import org.n52.flickr.dao.CallPriority;
+import org.n52.flickr.dao.ExecutionMode;
+import org.n52.flickr.dao.FlickrDAO;
+import org.n52.flickr.dao.TenantContext;
+import org.n52.flickr.model.FlickrMessage;
+import org.n52.flickr.model.FlickrQuery;
+import org.n52.flickr.model.HarvestRegion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.flickr4java.flickr.FlickrException;
+
+/**
+ * Long running harvest of the configured search terms and regions.
+ * <p>
+ * Each search term is harvested in each region. One harvest task is started
+ * per tick and the ticks are spread evenly over the harvest period, so the
+ * API calls do not come in bursts. The task due first runs next: a task which
+ * yielded new photos during its last run is due again after one period, the
+ * interval of a task without new photos grows with the time since its last
+ * yield up to {@link #MAX_PERIOD_FACTOR} periods.
+ * <p>
+ * New photos are put into the sink queue. If the queue is bounded and full,
+ * the harvest blocks until the consumers catch up and no further API calls
+ * are issued meanwhile. Photos already delivered are recognized by id and
+ * skipped before any enrichment call.
+ */
+public class ContinuousHarvester {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ContinuousHarvester.class);
+
+	private static final int MAX_PERIOD_FACTOR = 4;
+
+	private static final int SEEN_PHOTOS_CAPACITY = 100000;
+
+	private final FlickrDAO dao;
+
+	private final BlockingQueue<FlickrMessage> sink;
+
+	private final long periodMillis;
+
+	private final PriorityQueue<HarvestTask> tasks;
+
+	private final Set<String> seenPhotoIds;
+
+	private final AtomicLong harvestedPhotos = new AtomicLong();
+
+	/**
+	 * The tenant of the creating thread, with bulk priority.
+	 */
+	private final TenantContext tenantContext = TenantContext.current().withPriority(CallPriority.BULK);
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * @param searchTerms
+	 *            may be empty to harvest everything within the regions
+	 * @param regions
+	 *            may be empty to harvest the search terms world wide
+	 */
+	public ContinuousHarvester(FlickrDAO dao,
+			List<String> searchTerms,
+			List<HarvestRegion> regions,
+			BlockingQueue<FlickrMessage> sink,
+			long period,
+			TimeUnit unit) {
+		if (searchTerms.isEmpty() && regions.isEmpty()) {
+			throw new IllegalArgumentException("At least one search term or region is required");
+		}
+		this.dao = dao;
+		this.sink = sink;
+		this.periodMillis = unit.toMillis(period);
+		this.tasks = new PriorityQueue<>(11, (a, b) -> Long.compare(a.nextDue, b.nextDue));
+		this.seenPhotoIds = Collections.newSetFromMap(Collections.synchronizedMap(
+				new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+						return size() > SEEN_PHOTOS_CAPACITY;
+					}
+				}));
+		createTasks(searchTerms, regions);
+	}
+
+	private void createTasks(List<String> searchTerms, List<HarvestRegion> regions) {
+		if (regions.isEmpty()) {
+			for (String searchTerm : searchTerms) {
+				tasks.add(new HarvestTask(searchTerm.trim(), null));
+			}
+		} else if (searchTerms.isEmpty()) {
+			for (HarvestRegion region : regions) {
+				tasks.add(new HarvestTask(null, region));
+			}
+		} else {
+			for (HarvestRegion region : regions) {
+				for (String searchTerm : searchTerms) {
+					tasks.add(new HarvestTask(searchTerm.trim(), region));
+				}
+			}
+		}
+	}
+
+	public synchronized void start() {
+		if (isRunning()) {
+			return;
+		}
+		long tickMillis = Math.max(1, periodMillis / tasks.size());
+		LOGGER.info("Starting harvest of {} tasks, one every {} ms", tasks.size(), tickMillis);
+		scheduler = Executors.newSingleThreadScheduledExecutor(ExecutionMode.createDaemonThreadFactory("flickr-continuous-harvester"));
+		scheduler.scheduleWithFixedDelay(() -> {
+			try (TenantContext.Scope scope = tenantContext.enter()) {
+				tick();
+			}
+		}, 0, tickMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Interrupts a running harvest, photos not yet put into the sink are
+	 * dropped.
+	 */
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	public synchronized boolean isRunning() {
+		return scheduler != null;
+	}
+
+	public long getHarvestedPhotos() {
+		return harvestedPhotos.get();
+	}
+
+	void tick() {
+		long now = System.currentTimeMillis();
+		HarvestTask task;
+		synchronized (tasks) {
+			task = tasks.peek();
+			if (task == null || task.nextDue > now) {
+				return;
+			}
+			tasks.poll();
+		}
+		int newPhotos = 0;
+		try {
+			newPhotos = dao.executeQuery(task.createQuery(),
+					photoId -> !seenPhotoIds.contains(photoId),
+					this::deliver);
+			task.lastRun = now;
+			LOGGER.info("{} yielded {} new photos", task, newPhotos);
+		} catch (FlickrException e) {
+			LOGGER.warn(String.format("%s failed, retrying in its next slot", task), e);
+		} catch (CancellationException e) {
+			LOGGER.info("{} cancelled", task);
+		} catch (RuntimeException e) {
+			LOGGER.error(String.format("%s failed unexpectedly", task), e);
+		} finally {
+			task.reschedule(newPhotos, System.currentTimeMillis());
+			synchronized (tasks) {
+				tasks.add(task);
+			}
+		}
+	}
+
+	private void deliver(FlickrMessage flickrMessage) {
+		if (!seenPhotoIds.add(flickrMessage.getIdentifier())) {
+			return;
+		}
+		try {
+			sink.put(flickrMessage);
+			harvestedPhotos.incrementAndGet();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			seenPhotoIds.remove(flickrMessage.getIdentifier());
+			throw new CancellationException("Interrupted while waiting for the sink");
+		}
+	}
+
+	private class HarvestTask {
+
+		private final String searchTerm;
+
+		private final HarvestRegion region;
+
+		private long nextDue;
+
+		private long lastYield;
+
+		private long lastRun;
+
+		HarvestTask(String searchTerm, HarvestRegion region) {
+			this.searchTerm = searchTerm;
+			this.region = region;
+		}
+
+		/**
+		 * After the first run only photos uploaded since the previous run
+		 * are requested, with an overlap of one period for photos which
+		 * became visible late.
+		 */
+		FlickrQuery createQuery() {
+			String[] tags = searchTerm != null ? new String[] { searchTerm } : null;
+			FlickrQuery query;
+			if (region == null) {
+				query = new FlickrQuery(
+						Double.MIN_VALUE,
+						Double.MIN_VALUE,
+						Double.MIN_VALUE,
+						Double.MIN_VALUE,
+						null,
+						null,
+						tags);
+			} else {
+				query = new FlickrQuery(
+						region.getMinimumLongitude(),
+						region.getMinimumLatitude(),
+						region.getMaximumLongitude(),
+						region.getMaximumLatitude(),
+						null,
+						null,
+						tags);
+			}
+			if (lastRun > 0) {
+				query.setMinUploadDate(new DateTime(lastRun - periodMillis));
+			}
+			return query;
+		}
+
+		void reschedule(int newPhotos, long now) {
+			if (newPhotos > 0) {
+				lastYield = now;
+			}
+			long sinceLastYield = lastYield == 0 ? Long.MAX_VALUE : now - lastYield;
+			nextDue = now + periodMillis + Math.min(sinceLastYield, (MAX_PERIOD_FACTOR - 1) * periodMillis);
+		}
+
+		@Override
+		public String toString() {
+			return new StringBuilder(150).append("HarvestTask [searchTerm=").append(searchTerm)
+					.append(", region=").append(region != null ? region.getName() : null).append("]").toString();
+		}
+
+	}
+
+}
@@ -0,0 +1,276 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link TileQueue} in a directory, which might be shared between nodes,
+ * e.g. via NFS. Each tile is a file which is moved between the
+ * <code>pending</code> and <code>leased</code> sub directories. A move is an
+ * atomic rename, hence of several workers moving the same file exactly one
+ * succeeds, which makes the claim. The lease is encoded in the file name:
+ * 
+ * <pre>
+ * pending/&lt;tile&gt;.tile
+ * leased/&lt;tile&gt;~&lt;token&gt;~&lt;expiry&gt;.tile
+ * </pre>
+ * 
+ * Lease expiry is compared against the local clock, so the clocks of the
+ * nodes have to be synchronized well within the lease time. The file system
+ * has to support hard links, which offers rely on.
+ */
+public class FileSystemTileQueue implements TileQueue {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FileSystemTileQueue.class);
+
+	private static final String SUFFIX = ".tile";
+
+	private static final String LEASE_SEPARATOR = "~";
+
+	private final Path pending;
+
+	private final Path leased;
+
+	private final Path incoming;
+
+	public FileSystemTileQueue(Path directory) throws IOException {
+		pending = Files.createDirectories(directory.resolve("pending"));
+		leased = Files.createDirectories(directory.resolve("leased"));
+		incoming = Files.createDirectories(directory.resolve("incoming"));
+	}
+
+	/**
+	 * Writes the tile aside and links it into <code>pending</code>, so no
+	 * worker reads a partial tile. Unlike a rename, creating the link fails
+	 * if the tile is pending already, hence of concurrent offers of a tile
+	 * exactly one succeeds.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the tile id contains the lease separator <code>~</code>
+	 */
+	@Override
+	public boolean offer(HarvestTile tile) throws IOException {
+		if (tile.getId().contains(LEASE_SEPARATOR)) {
+			throw new IllegalArgumentException("Tile id must not contain '" + LEASE_SEPARATOR + "': " + tile.getId());
+		}
+		Path target = pending.resolve(tile.getId() + SUFFIX);
+		if (Files.exists(target) || findLease(tile.getId()) != null) {
+			return false;
+		}
+		Path written = incoming.resolve(UUID.randomUUID().toString());
+		Files.write(written, encode(tile));
+		try {
+			Files.createLink(target, written);
+			return true;
+		} catch (FileAlreadyExistsException e) {
+			// offered concurrently
+			return false;
+		} finally {
+			Files.delete(written);
+		}
+	}
+
+	@Override
+	public TileLease claim(String workerId, long leaseTime, TimeUnit unit) throws IOException {
+		reclaimExpiredLeases();
+		for (Path candidate : list(pending)) {
+			String tileId = getTileId(candidate);
+			String token = UUID.randomUUID().toString();
+			long expiresAt = System.currentTimeMillis() + unit.toMillis(leaseTime);
+			Path lease = leased.resolve(getLeaseFileName(tileId, token, expiresAt));
+			try {
+				Files.move(candidate, lease, StandardCopyOption.ATOMIC_MOVE);
+			} catch (NoSuchFileException e) {
+				// claimed by another worker meanwhile
+				continue;
+			}
+			LOGGER.debug("Tile {} leased to {}", tileId, workerId);
+			return new TileLease(decode(Files.readAllBytes(lease)), workerId, token, expiresAt);
+		}
+		return null;
+	}
+
+	@Override
+	public TileLease renew(TileLease lease, long leaseTime, TimeUnit unit) throws IOException {
+		long expiresAt = System.currentTimeMillis() + unit.toMillis(leaseTime);
+		try {
+			Files.move(getLeaseFile(lease),
+					leased.resolve(getLeaseFileName(lease.getTile().getId(), lease.getToken(), expiresAt)),
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		return new TileLease(lease.getTile(), lease.getWorkerId(), lease.getToken(), expiresAt);
+	}
+
+	@Override
+	public boolean acknowledge(TileLease lease) throws IOException {
+		try {
+			Files.delete(getLeaseFile(lease));
+			return true;
+		} catch (NoSuchFileException e) {
+			LOGGER.info("Lease on tile {} lost before acknowledgement", lease.getTile().getId());
+			return false;
+		}
+	}
+
+	@Override
+	public void release(TileLease lease) throws IOException {
+		try {
+			Files.move(getLeaseFile(lease), pending.resolve(lease.getTile().getId() + SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+		} catch (NoSuchFileException e) {
+			// already reclaimed
+		}
+	}
+
+	@Override
+	public int getPending() throws IOException {
+		return list(pending).size();
+	}
+
+	@Override
+	public int getLeased() throws IOException {
+		return list(leased).size();
+	}
+
+	@Override
+	public void close() {
+		// no resources held between calls
+	}
+
+	private void reclaimExpiredLeases() throws IOException {
+		long now = System.currentTimeMillis();
+		for (Path lease : list(leased)) {
+			String[] fields = getName(lease).split(LEASE_SEPARATOR);
+			if (fields.length == 3 && Long.parseLong(fields[2]) <= now) {
+				try {
+					Files.move(lease, pending.resolve(fields[0] + SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+					LOGGER.info("Lease on tile {} expired, tile is pending again", fields[0]);
+				} catch (NoSuchFileException e) {
+					// renewed, acknowledged or reclaimed meanwhile
+				}
+			}
+		}
+	}
+
+	private Path findLease(String tileId) throws IOException {
+		for (Path lease : list(leased)) {
+			if (getName(lease).startsWith(tileId + LEASE_SEPARATOR)) {
+				return lease;
+			}
+		}
+		return null;
+	}
+
+	private Path getLeaseFile(TileLease lease) {
+		return leased.resolve(getLeaseFileName(lease.getTile().getId(), lease.getToken(), lease.getExpiresAt()));
+	}
+
+	private static String getLeaseFileName(String tileId, String token, long expiresAt) {
+		return tileId + LEASE_SEPARATOR + token + LEASE_SEPARATOR + expiresAt + SUFFIX;
+	}
+
+	private static String getTileId(Path file) {
+		return getName(file).split(LEASE_SEPARATOR)[0];
+	}
+
+	private static String getName(Path file) {
+		String name = file.getFileName().toString();
+		return name.substring(0, name.length() - SUFFIX.length());
+	}
+
+	/**
+	 * @return the tile files sorted by name, i.e. in the order of the tile ids
+	 */
+	private static List<Path> list(Path directory) throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+			for (Path file : stream) {
+				files.add(file);
+			}
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	private static byte[] encode(HarvestTile tile) throws IOException {
+		double[] bbox = tile.getBoundingBox();
+		Properties properties = new Properties();
+		properties.setProperty("id", tile.getId());
+		properties.setProperty("bbox", bbox[0] + "," + bbox[1] + "," + bbox[2] + "," + bbox[3]);
+		if (tile.getStart() != null) {
+			properties.setProperty("start", Long.toString(tile.getStart().getMillis()));
+		}
+		if (tile.getEnd() != null) {
+			properties.setProperty("end", Long.toString(tile.getEnd().getMillis()));
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		properties.store(bytes, null);
+		return bytes.toByteArray();
+	}
+
+	private static HarvestTile decode(byte[] bytes) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream in = new ByteArrayInputStream(bytes)) {
+			properties.load(in);
+		}
+		String[] coordinates = properties.getProperty("bbox").split(",");
+		double[] bbox = new double[coordinates.length];
+		for (int i = 0; i < coordinates.length; i++) {
+			bbox[i] = Double.parseDouble(coordinates[i]);
+		}
+		String start = properties.getProperty("start");
+		String end = properties.getProperty("end");
+		return new HarvestTile(properties.getProperty("id"),
+				bbox,
+				start != null ? new DateTime(Long.parseLong(start)) : null,
+				end != null ? new DateTime(Long.parseLong(end)) : null);
+	}
+
+}
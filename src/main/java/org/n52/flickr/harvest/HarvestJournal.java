@@ -0,0 +1,331 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only record of the progress of long running harvests, one line per
+ * event:
+ * 
+ * <pre>
+ * START &lt;harvest&gt; &lt;query fingerprint&gt;
+ * PAGE  &lt;harvest&gt; &lt;page&gt;
+ * PHOTO &lt;harvest&gt; &lt;photo id&gt;
+ * DONE  &lt;harvest&gt;
+ * </pre>
+ * 
+ * Each line is written with a single call, so a crash can at most tear the
+ * last line, which is recognized by its missing line break and ignored on
+ * reading. Page records are forced to disk.
+ * The journal is compacted on opening and whenever it holds many more lines
+ * than its state needs: finished harvests keep their START and DONE lines
+ * only, running ones their last page and their emitted photos. Compacting
+ * on opening also drops a torn last line before anything is appended to it.
+ */
+public class HarvestJournal implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(HarvestJournal.class);
+
+	private static final String SEPARATOR = "\t";
+
+	private static final String START = "START";
+
+	private static final String PAGE = "PAGE";
+
+	private static final String PHOTO = "PHOTO";
+
+	private static final String DONE = "DONE";
+
+	/**
+	 * Journals with fewer lines are never compacted while open.
+	 */
+	private static final int MIN_COMPACTION_LINES = 10000;
+
+	private final Path file;
+
+	private final Map<String, Harvest> harvests = new LinkedHashMap<>();
+
+	private FileChannel channel;
+
+	private int lines;
+
+	public HarvestJournal(Path file) throws IOException {
+		this.file = file;
+		if (Files.exists(file)) {
+			load();
+		}
+		compact();
+	}
+
+	/**
+	 * Starts a harvest or continues the unfinished one of the same query. A
+	 * harvest of another query under the same id starts over.
+	 * 
+	 * @param fingerprint
+	 *            identifies the query, e.g. its
+	 *            {@link org.n52.flickr.model.FlickrQuery#getFingerprint()
+	 *            digest}
+	 */
+	public synchronized void begin(String harvestId, String fingerprint) throws IOException {
+		if (fingerprint.isEmpty() || fingerprint.contains(SEPARATOR) || fingerprint.contains("\n")) {
+			throw new IllegalArgumentException("Fingerprints must not be empty or contain tabs or line breaks: " + fingerprint);
+		}
+		Harvest harvest = harvests.get(harvestId);
+		if (harvest != null && harvest.fingerprint.equals(fingerprint)) {
+			return;
+		}
+		if (harvest != null) {
+			LOGGER.info("Query of harvest '{}' changed, starting over", harvestId);
+		}
+		harvests.put(harvestId, new Harvest(fingerprint));
+		append(START, harvestId, fingerprint, false);
+	}
+
+	public synchronized boolean isDone(String harvestId) {
+		Harvest harvest = harvests.get(harvestId);
+		return harvest != null && harvest.done;
+	}
+
+	/**
+	 * @return the last page covered completely, 0 if none
+	 */
+	public synchronized int getCompletedPages(String harvestId) {
+		Harvest harvest = harvests.get(harvestId);
+		return harvest != null ? harvest.completedPages : 0;
+	}
+
+	public synchronized boolean isEmitted(String harvestId, String photoId) {
+		Harvest harvest = harvests.get(harvestId);
+		return harvest != null && harvest.emittedPhotoIds.contains(photoId);
+	}
+
+	public synchronized int getEmittedCount(String harvestId) {
+		Harvest harvest = harvests.get(harvestId);
+		return harvest != null ? harvest.emittedPhotoIds.size() : 0;
+	}
+
+	public synchronized void pageCompleted(String harvestId, int page) throws IOException {
+		Harvest harvest = getRunning(harvestId);
+		harvest.completedPages = Math.max(harvest.completedPages, page);
+		append(PAGE, harvestId, Integer.toString(page), true);
+	}
+
+	public synchronized void photoEmitted(String harvestId, String photoId) throws IOException {
+		Harvest harvest = getRunning(harvestId);
+		if (harvest.emittedPhotoIds.add(photoId)) {
+			append(PHOTO, harvestId, photoId, false);
+		}
+	}
+
+	public synchronized void finish(String harvestId) throws IOException {
+		Harvest harvest = getRunning(harvestId);
+		harvest.done = true;
+		harvest.emittedPhotoIds.clear();
+		append(DONE, harvestId, null, true);
+	}
+
+	/**
+	 * Forgets the harvest, so it starts over on its next {@link #begin(String, String)}.
+	 */
+	public synchronized void reset(String harvestId) throws IOException {
+		if (harvests.remove(harvestId) != null) {
+			compact();
+		}
+	}
+
+	/**
+	 * Rewrites the journal with the lines needed to restore its state. The
+	 * new journal replaces the old one atomically.
+	 */
+	public synchronized void compact() throws IOException {
+		closeChannel();
+		Path compacted = file.resolveSibling(file.getFileName() + ".compacting");
+		int written = 0;
+		try (BufferedWriter writer = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+			for (Map.Entry<String, Harvest> entry : harvests.entrySet()) {
+				Harvest harvest = entry.getValue();
+				writer.write(format(START, entry.getKey(), harvest.fingerprint));
+				written++;
+				if (harvest.done) {
+					writer.write(format(DONE, entry.getKey(), null));
+					written++;
+					continue;
+				}
+				if (harvest.completedPages > 0) {
+					writer.write(format(PAGE, entry.getKey(), Integer.toString(harvest.completedPages)));
+					written++;
+				}
+				for (String photoId : harvest.emittedPhotoIds) {
+					writer.write(format(PHOTO, entry.getKey(), photoId));
+					written++;
+				}
+			}
+		}
+		try (FileChannel forced = FileChannel.open(compacted, StandardOpenOption.WRITE)) {
+			forced.force(true);
+		}
+		Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		LOGGER.debug("Journal {} compacted from {} to {} lines", file, lines, written);
+		lines = written;
+		channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		closeChannel();
+	}
+
+	private void load() throws IOException {
+		boolean terminated = endsWithLineBreak(file);
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line = reader.readLine();
+			for (String next; line != null; line = next) {
+				next = reader.readLine();
+				if (next == null && !terminated) {
+					LOGGER.info("Ignoring torn last line of journal {}: '{}'", file, line);
+					break;
+				}
+				lines++;
+				String[] fields = line.split(SEPARATOR, -1);
+				Harvest harvest = fields.length > 1 ? harvests.get(fields[1]) : null;
+				if (fields.length == 3 && START.equals(fields[0]) && !fields[2].isEmpty()) {
+					harvests.put(fields[1], new Harvest(fields[2]));
+				} else if (harvest == null) {
+					LOGGER.debug("Skipping line {} of journal {}: '{}'", lines, file, line);
+				} else if (fields.length == 3 && PAGE.equals(fields[0]) && !fields[2].isEmpty()) {
+					harvest.completedPages = Math.max(harvest.completedPages, Integer.parseInt(fields[2]));
+				} else if (fields.length == 3 && PHOTO.equals(fields[0])) {
+					harvest.emittedPhotoIds.add(fields[2]);
+				} else if (fields.length == 2 && DONE.equals(fields[0])) {
+					harvest.done = true;
+					harvest.emittedPhotoIds.clear();
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Journal " + file + " is corrupt", e);
+		}
+	}
+
+	private static boolean endsWithLineBreak(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() == 0) {
+				return true;
+			}
+			ByteBuffer last = ByteBuffer.allocate(1);
+			channel.read(last, channel.size() - 1);
+			return last.get(0) == '\n';
+		}
+	}
+
+	private void append(String type, String harvestId, String value, boolean force) throws IOException {
+		if (channel == null) {
+			throw new IllegalStateException("Journal " + file + " is closed");
+		}
+		ByteBuffer line = ByteBuffer.wrap(format(type, harvestId, value).getBytes(StandardCharsets.UTF_8));
+		while (line.hasRemaining()) {
+			channel.write(line);
+		}
+		if (force) {
+			channel.force(false);
+		}
+		lines++;
+		if (lines > MIN_COMPACTION_LINES && lines > 2 * getRequiredLines()) {
+			compact();
+		}
+	}
+
+	private int getRequiredLines() {
+		int required = 0;
+		for (Harvest harvest : harvests.values()) {
+			required += harvest.done ? 2 : 2 + harvest.emittedPhotoIds.size();
+		}
+		return required;
+	}
+
+	private Harvest getRunning(String harvestId) {
+		Harvest harvest = harvests.get(harvestId);
+		if (harvest == null || harvest.done) {
+			throw new IllegalStateException("Harvest '" + harvestId + "' is not running");
+		}
+		return harvest;
+	}
+
+	private void closeChannel() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	private static String format(String type, String harvestId, String value) {
+		if (harvestId.contains(SEPARATOR) || harvestId.contains("\n")) {
+			throw new IllegalArgumentException("Harvest ids must not contain tabs or line breaks: " + harvestId);
+		}
+		StringBuilder line = new StringBuilder(type).append(SEPARATOR).append(harvestId);
+		if (value != null) {
+			line.append(SEPARATOR).append(value);
+		}
+		return line.append('\n').toString();
+	}
+
+	private static class Harvest {
+
+		private final String fingerprint;
+
+		private int completedPages;
+
+		private final Set<String> emittedPhotoIds = new HashSet<>();
+
+		private boolean done;
+
+		Harvest(String fingerprint) {
+			this.fingerprint = fingerprint;
+		}
+
+	}
+
+}
@@ -0,0 +1,111 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import java.util.Arrays;
+
+import org.joda.time.DateTime;
+import org.n52.flickr.model.FlickrQuery;
+
+/**
+ * A bounding box and time span harvested as one unit of work by a
+ * {@link TileWorker}.
+ */
+public class HarvestTile {
+
+	private final String id;
+
+	private final double[] bbox;
+
+	private final DateTime start;
+
+	private final DateTime end;
+
+	/**
+	 * @param id
+	 *            unique within the queue, letters, digits, <code>-</code>
+	 *            and <code>_</code> only, as it names files and keys
+	 * @param bbox
+	 *            minimum longitude, minimum latitude, maximum longitude and
+	 *            maximum latitude
+	 * @param start
+	 *            might be <code>null</code> for an open start
+	 * @param end
+	 *            might be <code>null</code> for an open end
+	 */
+	public HarvestTile(String id, double[] bbox, DateTime start, DateTime end) {
+		if (id == null || !id.matches("[A-Za-z0-9_-]+")) {
+			throw new IllegalArgumentException("Invalid tile id: " + id);
+		}
+		if (bbox == null || bbox.length != 4) {
+			throw new IllegalArgumentException("Bounding box requires 4 coordinates: " + Arrays.toString(bbox));
+		}
+		this.id = id;
+		this.bbox = bbox.clone();
+		this.start = start;
+		this.end = end;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public double[] getBoundingBox() {
+		return bbox.clone();
+	}
+
+	public DateTime getStart() {
+		return start;
+	}
+
+	public DateTime getEnd() {
+		return end;
+	}
+
+	/**
+	 * @param template
+	 *            provides all constraints but the bounding box and time span,
+	 *            e.g. keywords or licenses
+	 */
+	public FlickrQuery toQuery(FlickrQuery template) {
+		FlickrQuery query = new FlickrQuery(template);
+		query.setBoundingBox(bbox[0], bbox[1], bbox[2], bbox[3]);
+		query.setTimeSpan(start, end);
+		return query;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder(100).append("HarvestTile [id=").append(id)
+				.append(", bbox=").append(Arrays.toString(bbox))
+				.append(", start=").append(start)
+				.append(", end=").append(end).append("]").toString();
+	}
+
+}
@@ -0,0 +1,398 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.n52.flickr.dao.ExecutionMode;
+import org.n52.flickr.model.FlickrMessage;
+import org.n52.flickr.model.ImageSize;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Downloads the images of photos in one size to a directory, at most the
+ * given number at a time. As a {@link Consumer} it can be put at the end of
+ * a harvest, e.g. of
+ * {@link org.n52.flickr.dao.FlickrDAO#executeQuery(org.n52.flickr.model.FlickrQuery, java.util.function.Predicate, Consumer)}.
+ * <p>
+ * Response bodies are transferred to the file in chunks through a
+ * {@link FileChannel}, so no image is held on the heap as a whole. An image
+ * is written to a <code>.part</code> file first and moved to its final name
+ * once complete. A <code>.part</code> file left by an interrupted download is
+ * continued with a range request. If the server finds nothing left to send,
+ * the file is taken as complete only if its size matches the image length
+ * in the <code>Content-Range</code> header, and is downloaded again
+ * otherwise. Images already in the directory or being downloaded are not
+ * downloaded again.
+ * <p>
+ * At most {@value #QUEUED_DOWNLOADS_PER_THREAD} downloads per thread wait
+ * for a free thread. Once the queue is full, the caller runs the download
+ * itself, which holds back the harvest feeding this downloader.
+ */
+public class ImageDownloader implements Consumer<FlickrMessage>, Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ImageDownloader.class);
+
+	private static final String PART_SUFFIX = ".part";
+
+	/**
+	 * Bytes transferred per call, which is also the granularity of the byte
+	 * count.
+	 */
+	private static final long TRANSFER_CHUNK_BYTES = 1024 * 1024;
+
+	private static final long CLOSE_TIMEOUT_SECONDS = 60;
+
+	static final int QUEUED_DOWNLOADS_PER_THREAD = 16;
+
+	private final CloseableHttpClient httpClient;
+
+	private final boolean ownsHttpClient;
+
+	private final Path directory;
+
+	private final ImageSize size;
+
+	private final ThreadPoolExecutor executor;
+
+	private final ConcurrentMap<String, CompletableFuture<Path>> downloads = new ConcurrentHashMap<>();
+
+	private final AtomicLong downloaded = new AtomicLong();
+
+	private final AtomicLong skipped = new AtomicLong();
+
+	private final AtomicLong resumed = new AtomicLong();
+
+	private final AtomicLong failed = new AtomicLong();
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	private final AtomicLong firstDownloadNanos = new AtomicLong();
+
+	/**
+	 * Creates a downloader with a connection pool of its own, sized to the
+	 * given concurrency, so images never take connections from API calls.
+	 * The pool is closed with the downloader.
+	 *
+	 * @param maxConcurrency
+	 *            the maximum number of parallel downloads
+	 */
+	public ImageDownloader(Path directory, ImageSize size, int maxConcurrency) throws IOException {
+		this(createHttpClient(maxConcurrency), true, directory, size, maxConcurrency);
+	}
+
+	/**
+	 * @param httpClient
+	 *            the client to download with, which is not closed by this
+	 *            downloader. Its connections per host should not be fewer
+	 *            than the concurrency, or downloads just wait for one.
+	 * @param maxConcurrency
+	 *            the maximum number of parallel downloads
+	 */
+	public ImageDownloader(CloseableHttpClient httpClient, Path directory, ImageSize size, int maxConcurrency) throws IOException {
+		this(httpClient, false, directory, size, maxConcurrency);
+	}
+
+	private ImageDownloader(CloseableHttpClient httpClient, boolean ownsHttpClient, Path directory, ImageSize size,
+			int maxConcurrency) throws IOException {
+		this.httpClient = httpClient;
+		this.ownsHttpClient = ownsHttpClient;
+		this.directory = Files.createDirectories(directory);
+		this.size = size;
+		this.executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(maxConcurrency * QUEUED_DOWNLOADS_PER_THREAD),
+				ExecutionMode.createDaemonThreadFactory("flickr-images"),
+				(download, pool) -> {
+					if (pool.isShutdown()) {
+						throw new RejectedExecutionException("Downloader closed");
+					}
+					download.run();
+				});
+	}
+
+	private static CloseableHttpClient createHttpClient(int maxConcurrency) {
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(maxConcurrency);
+		connectionManager.setDefaultMaxPerRoute(maxConcurrency);
+		return HttpClients.custom().setConnectionManager(connectionManager).build();
+	}
+
+	/**
+	 * Starts the download of the image, failures are logged.
+	 */
+	@Override
+	public void accept(FlickrMessage flickrMessage) {
+		download(flickrMessage);
+	}
+
+	/**
+	 * @return the file of the image once it is downloaded, the file at once
+	 *         if it exists already, the future of the running download if
+	 *         the image is downloaded already
+	 */
+	public CompletableFuture<Path> download(FlickrMessage flickrMessage) {
+		final String photoId = flickrMessage.getIdentifier();
+		final String url = flickrMessage.getImageUrl(size);
+		CompletableFuture<Path> download = new CompletableFuture<>();
+		if (url == null) {
+			failed.incrementAndGet();
+			LOGGER.warn("Image source of photo '{}' unknown, not downloaded", photoId);
+			download.completeExceptionally(new IllegalArgumentException(
+					String.format("Image source of photo '%s' unknown", photoId)));
+			return download;
+		}
+		final Path target = getPath(photoId);
+		if (Files.exists(target)) {
+			skipped.incrementAndGet();
+			download.complete(target);
+			return download;
+		}
+		CompletableFuture<Path> running = downloads.putIfAbsent(photoId, download);
+		if (running != null) {
+			skipped.incrementAndGet();
+			return running;
+		}
+		firstDownloadNanos.compareAndSet(0L, System.nanoTime());
+		try {
+			executor.execute(() -> {
+				try {
+					download.complete(transfer(url, target));
+				} catch (IOException | RuntimeException e) {
+					failed.incrementAndGet();
+					LOGGER.warn("Download of photo '{}' failed", photoId, e);
+					download.completeExceptionally(e);
+				} finally {
+					downloads.remove(photoId, download);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			downloads.remove(photoId, download);
+			download.completeExceptionally(e);
+		}
+		return download;
+	}
+
+	/**
+	 * @return the file the image of the photo is stored in, which exists
+	 *         only once it is downloaded completely
+	 */
+	public Path getPath(String photoId) {
+		return directory.resolve(String.format("%s_%s.jpg", photoId, size.name().toLowerCase(Locale.ROOT)));
+	}
+
+	private Path transfer(String url, Path target) throws IOException {
+		if (Files.exists(target)) {
+			// downloaded by a concurrent call in between
+			return target;
+		}
+		Path part = target.resolveSibling(target.getFileName() + PART_SUFFIX);
+		long offset = Files.exists(part) ? Files.size(part) : 0L;
+		HttpGet request = new HttpGet(url);
+		if (offset > 0) {
+			request.setHeader("Range", "bytes=" + offset + "-");
+		}
+		boolean startOver = false;
+		try (CloseableHttpResponse response = httpClient.execute(request);
+				FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			int status = response.getStatusLine().getStatusCode();
+			if (status == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE && offset > 0) {
+				long length = getCompleteLength(response);
+				startOver = length != offset;
+				if (startOver) {
+					// e.g. left by an image of another size
+					LOGGER.debug("{} has {} bytes, but the image {}, starting over", part, offset, length);
+				} else {
+					LOGGER.debug("{} was complete already", part);
+				}
+			} else {
+				if (status == HttpStatus.SC_OK) {
+					// no range support, start over
+					offset = 0;
+					channel.truncate(0);
+				} else if (status == HttpStatus.SC_PARTIAL_CONTENT && offset > 0) {
+					resumed.incrementAndGet();
+				} else {
+					throw new IOException(String.format("Download of %s failed: %d %s",
+							url, status, response.getStatusLine().getReasonPhrase()));
+				}
+				HttpEntity entity = response.getEntity();
+				long position = offset;
+				try (ReadableByteChannel body = Channels.newChannel(entity.getContent())) {
+					long transferred;
+					while ((transferred = channel.transferFrom(body, position, TRANSFER_CHUNK_BYTES)) > 0) {
+						position += transferred;
+						bytes.addAndGet(transferred);
+					}
+				}
+				if (entity.getContentLength() >= 0 && position - offset != entity.getContentLength()) {
+					throw new IOException(String.format("Download of %s incomplete: %d of %d bytes",
+							url, position - offset, entity.getContentLength()));
+				}
+			}
+		}
+		if (startOver) {
+			// after the response is closed, which frees its connection
+			Files.delete(part);
+			return transfer(url, target);
+		}
+		Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+		downloaded.incrementAndGet();
+		return target;
+	}
+
+	/**
+	 * @return the length of the image from the <code>Content-Range</code>
+	 *         header of an unsatisfiable range response, i.e.
+	 *         <code>bytes *&#47;length</code>, -1 if it is missing or invalid
+	 */
+	private static long getCompleteLength(CloseableHttpResponse response) {
+		Header contentRange = response.getFirstHeader("Content-Range");
+		if (contentRange == null || !contentRange.getValue().trim().startsWith("bytes */")) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(contentRange.getValue().trim().substring("bytes */".length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the number of images downloaded completely
+	 */
+	public long getDownloads() {
+		return downloaded.get();
+	}
+
+	/**
+	 * @return the number of images found in the directory or being
+	 *         downloaded already
+	 */
+	public long getSkipped() {
+		return skipped.get();
+	}
+
+	/**
+	 * @return the number of downloads continued from a <code>.part</code>
+	 *         file
+	 */
+	public long getResumed() {
+		return resumed.get();
+	}
+
+	public long getFailures() {
+		return failed.get();
+	}
+
+	/**
+	 * @return the number of bytes received, including the ones of failed
+	 *         downloads
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * @return the images downloaded per second since the first download
+	 *         started
+	 */
+	public double getDownloadsPerSecond() {
+		return perSecond(downloaded.get());
+	}
+
+	/**
+	 * @return the bytes received per second since the first download started
+	 */
+	public double getBytesPerSecond() {
+		return perSecond(bytes.get());
+	}
+
+	private double perSecond(long count) {
+		long start = firstDownloadNanos.get();
+		if (start == 0L) {
+			return 0;
+		}
+		long elapsed = System.nanoTime() - start;
+		return elapsed > 0 ? count * (double) TimeUnit.SECONDS.toNanos(1) / elapsed : 0;
+	}
+
+	/**
+	 * Waits for the running downloads, those still unfinished after a minute
+	 * are interrupted and continued by the next downloader of the directory.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		if (ownsHttpClient) {
+			try {
+				httpClient.close();
+			} catch (IOException e) {
+				LOGGER.warn("Closing the connections of the downloader failed", e);
+			}
+		}
+		LOGGER.info("{} images downloaded, {} skipped, {} failed, {} bytes at {} bytes/s",
+				getDownloads(), getSkipped(), getFailures(), getBytes(), (long) getBytesPerSecond());
+	}
+
+}
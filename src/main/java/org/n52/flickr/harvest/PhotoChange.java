@@ -0,0 +1,112 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.n52.flickr.model.FlickrMessage;
+
+/**
+ * A change of a photo harvested before, detected by a
+ * {@link PhotoRefresher}.
+ */
+public class PhotoChange {
+
+	public enum Type {
+		/**
+		 * At least one of the {@link Field fields} changed.
+		 */
+		UPDATED,
+		/**
+		 * The photo was deleted, made private or lost its location.
+		 */
+		REMOVED
+	}
+
+	/**
+	 * The parts of an observation which are compared.
+	 */
+	public enum Field {
+		TITLE, CAPTION, TAGS, LOCATION, TIME
+	}
+
+	private final String photoId;
+
+	private final Type type;
+
+	private final Set<Field> fields;
+
+	private final FlickrMessage flickrMessage;
+
+	/**
+	 * @param fields
+	 *            the fields which changed, all of them for a removal
+	 * @param flickrMessage
+	 *            the current version, <code>null</code> for a removal
+	 */
+	public PhotoChange(String photoId, Type type, Set<Field> fields, FlickrMessage flickrMessage) {
+		this.photoId = photoId;
+		this.type = type;
+		this.fields = Collections.unmodifiableSet(fields);
+		this.flickrMessage = flickrMessage;
+	}
+
+	public String getPhotoId() {
+		return photoId;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public Set<Field> getFields() {
+		return fields;
+	}
+
+	public boolean hasChanged(Field field) {
+		return fields.contains(field);
+	}
+
+	/**
+	 * @return the current version of the photo, <code>null</code> if it was
+	 *         removed
+	 */
+	public FlickrMessage getFlickrMessage() {
+		return flickrMessage;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder(100).append("PhotoChange [photoId=").append(photoId)
+				.append(", type=").append(type)
+				.append(", fields=").append(fields).append("]").toString();
+	}
+
+}
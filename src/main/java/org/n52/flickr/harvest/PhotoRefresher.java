@@ -0,0 +1,501 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.n52.flickr.dao.FlickrDAO;
+import org.n52.flickr.harvest.PhotoChange.Field;
+import org.n52.flickr.harvest.PhotoChange.Type;
+import org.n52.flickr.model.FlickrLocation;
+import org.n52.flickr.model.FlickrMessage;
+import org.n52.flickr.model.FlickrQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.flickr4java.flickr.FlickrException;
+import com.flickr4java.flickr.tags.Tag;
+
+/**
+ * Keeps harvested photos up to date with API calls in proportion to the
+ * number of changed photos instead of the number of harvested ones.
+ * <p>
+ * The refresher tracks the time of the last update and a SHA-256 digest of
+ * each {@link Field field} per photo. A refresh collects the last updates of the
+ * tracked photos from the search extras of the given scopes, one call per
+ * page of up to 500 photos, and optionally from
+ * <code>flickr.photos.recentlyUpdated</code> for the photos of the
+ * authenticated account. Only the photos updated since they were tracked are
+ * enriched again, and a {@link PhotoChange} is emitted if any of their fields
+ * changed. Updates of other data, e.g. comments, change the time of the
+ * last update only and are not emitted.
+ * <p>
+ * A tracked photo which a scope should have returned by its tracked location
+ * and time, but which is missing from the scan, is looked up as well, e.g.
+ * as it was deleted, made private, stripped of its location or moved away.
+ * It is emitted as removed if it is gone. Only scopes without a result budget
+ * and without filters the refresher cannot check, e.g. tags, count as
+ * evidence. Tracked photos no scan expects are never looked up, so the calls
+ * follow the photos which disappeared, not the photos tracked.
+ */
+public class PhotoRefresher {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PhotoRefresher.class);
+
+	private static final String SEPARATOR = "\t";
+
+	private static final String FINGERPRINT_SEPARATOR = ",";
+
+	private static final int FINGERPRINT_BYTES = 32;
+
+	private static final long UNKNOWN_TIME = Long.MIN_VALUE;
+
+	private static final String SYNC = "SYNC";
+
+	/**
+	 * Error code of <code>flickr.photos.getInfo</code> for deleted and
+	 * private photos.
+	 */
+	private static final String PHOTO_NOT_FOUND = "1";
+
+	/**
+	 * The feed of recently updated photos is requested from a little before
+	 * the last sync, so clock differences to Flickr do not hide updates.
+	 */
+	private static final long SYNC_OVERLAP_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	private final FlickrDAO dao;
+
+	private final boolean recentlyUpdatedFeed;
+
+	private final Map<String, PhotoVersion> versions = new HashMap<>();
+
+	private long lastSync;
+
+	/**
+	 * @param recentlyUpdatedFeed
+	 *            also query <code>flickr.photos.recentlyUpdated</code>, which
+	 *            requires a token with read permission
+	 */
+	public PhotoRefresher(FlickrDAO dao, boolean recentlyUpdatedFeed) {
+		this.dao = dao;
+		this.recentlyUpdatedFeed = recentlyUpdatedFeed;
+	}
+
+	/**
+	 * Tracks a harvested photo in the given version. A photo without the time
+	 * of its last update is enriched once on the next refresh which sees it.
+	 */
+	public synchronized void track(FlickrMessage flickrMessage) {
+		versions.put(flickrMessage.getIdentifier(), new PhotoVersion(flickrMessage, 0L));
+	}
+
+	public synchronized void untrack(String photoId) {
+		versions.remove(photoId);
+	}
+
+	public synchronized boolean isTracked(String photoId) {
+		return versions.containsKey(photoId);
+	}
+
+	public synchronized int size() {
+		return versions.size();
+	}
+
+	/**
+	 * @return the start of the last completed refresh in milliseconds since
+	 *         the epoch, 0 if there was none
+	 */
+	public synchronized long getLastSync() {
+		return lastSync;
+	}
+
+	/**
+	 * Enriches the tracked photos updated since they were tracked or
+	 * refreshed and emits their changes. A failed refresh can be repeated,
+	 * changes emitted before the failure are not emitted again.
+	 * 
+	 * @param scopes
+	 *            queries covering the tracked photos, e.g. the ones they were
+	 *            harvested with
+	 * @return the number of changes emitted
+	 */
+	public int refresh(Collection<FlickrQuery> scopes, Consumer<PhotoChange> listener) throws FlickrException {
+		long syncStart = System.currentTimeMillis();
+		final Map<String, Long> candidates = new LinkedHashMap<>();
+		if (recentlyUpdatedFeed) {
+			dao.recentlyUpdated(new Date(Math.max(0L, getLastSync() - SYNC_OVERLAP_MILLIS)),
+					(photoId, lastUpdate) -> collect(candidates, photoId, lastUpdate));
+		}
+		final Set<String> seen = new HashSet<>();
+		List<FlickrQuery> completeScopes = new ArrayList<>();
+		for (FlickrQuery scope : scopes) {
+			dao.scanLastUpdates(scope, (photoId, lastUpdate) -> {
+				collect(candidates, photoId, lastUpdate);
+				if (isTracked(photoId)) {
+					seen.add(photoId);
+				}
+			});
+			if (!scope.hasMaxResults()) {
+				completeScopes.add(scope);
+			}
+		}
+		LOGGER.info("{} of {} tracked photos updated since they were harvested", candidates.size(), size());
+		int missing = collectMissing(candidates, seen, completeScopes);
+		if (missing > 0) {
+			LOGGER.info("{} tracked photos missing from the scopes are looked up", missing);
+		}
+
+		int changes = 0;
+		for (Map.Entry<String, Long> candidate : candidates.entrySet()) {
+			PhotoChange change = refresh(candidate.getKey(), candidate.getValue());
+			if (change != null) {
+				LOGGER.debug("Photo changed: {}", change);
+				listener.accept(change);
+				changes++;
+			}
+		}
+		synchronized (this) {
+			lastSync = syncStart;
+		}
+		return changes;
+	}
+
+	private synchronized void collect(Map<String, Long> candidates, String photoId, long lastUpdate) {
+		PhotoVersion version = versions.get(photoId);
+		if (version != null && lastUpdate > version.lastUpdate) {
+			candidates.put(photoId, lastUpdate);
+		}
+	}
+
+	/**
+	 * Adds the tracked photos not seen by the scan although one of the
+	 * complete scopes should have returned them, with the time of their last
+	 * update as tracked.
+	 * 
+	 * @return the number of photos added
+	 */
+	private synchronized int collectMissing(Map<String, Long> candidates, Set<String> seen, List<FlickrQuery> completeScopes) {
+		if (completeScopes.isEmpty()) {
+			return 0;
+		}
+		int missing = 0;
+		for (Map.Entry<String, PhotoVersion> version : versions.entrySet()) {
+			if (!seen.contains(version.getKey())
+					&& !candidates.containsKey(version.getKey())
+					&& version.getValue().isExpectedByAny(completeScopes)) {
+				candidates.put(version.getKey(), version.getValue().lastUpdate);
+				missing++;
+			}
+		}
+		return missing;
+	}
+
+	private PhotoChange refresh(String photoId, long lastUpdate) throws FlickrException {
+		FlickrMessage flickrMessage;
+		try {
+			flickrMessage = dao.getById(photoId);
+		} catch (FlickrException e) {
+			if (!PHOTO_NOT_FOUND.equals(e.getErrorCode())) {
+				throw e;
+			}
+			flickrMessage = null;
+		}
+		synchronized (this) {
+			PhotoVersion previous = versions.get(photoId);
+			if (previous == null) {
+				// untracked meanwhile
+				return null;
+			}
+			if (flickrMessage == null) {
+				versions.remove(photoId);
+				return new PhotoChange(photoId, Type.REMOVED, EnumSet.allOf(Field.class), null);
+			}
+			PhotoVersion current = new PhotoVersion(flickrMessage, lastUpdate);
+			versions.put(photoId, current);
+			Set<Field> fields = previous.diff(current);
+			return fields.isEmpty() ? null : new PhotoChange(photoId, Type.UPDATED, fields, flickrMessage);
+		}
+	}
+
+	/**
+	 * Restores the state stored by {@link #store(Path)}.
+	 * 
+	 * @return the number of photos read
+	 */
+	public synchronized int load(Path file) throws IOException {
+		int count = 0;
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(SEPARATOR, -1);
+				if (fields.length == 2 && SYNC.equals(fields[0])) {
+					lastSync = Long.parseLong(fields[1]);
+				} else if (fields.length == 4) {
+					PhotoVersion version = PhotoVersion.parse(fields[1], fields[2], fields[3]);
+					if (version != null) {
+						versions.put(fields[0], version);
+						count++;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	public synchronized void store(Path file) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			writer.write(SYNC + SEPARATOR + lastSync);
+			writer.newLine();
+			for (Map.Entry<String, PhotoVersion> entry : versions.entrySet()) {
+				writer.write(entry.getKey());
+				writer.write(SEPARATOR);
+				writer.write(entry.getValue().format());
+				writer.newLine();
+			}
+		}
+	}
+
+	/**
+	 * The time of the last update and a digest per field, which is enough to
+	 * tell the changed fields apart without keeping the photo, and the
+	 * position and time needed to tell the scopes which should return the
+	 * photo.
+	 */
+	private static class PhotoVersion {
+
+		private final long lastUpdate;
+
+		private final double latitude;
+
+		private final double longitude;
+
+		private final int accuracy;
+
+		private final long time;
+
+		private final byte[][] fingerprints;
+
+		/**
+		 * @param latitude
+		 *            {@link Double#NaN} if the location is unknown
+		 * @param time
+		 *            {@link #UNKNOWN_TIME} if the time taken is unknown
+		 */
+		PhotoVersion(long lastUpdate, double latitude, double longitude, int accuracy, long time, byte[][] fingerprints) {
+			this.lastUpdate = lastUpdate;
+			this.latitude = latitude;
+			this.longitude = longitude;
+			this.accuracy = accuracy;
+			this.time = time;
+			this.fingerprints = fingerprints;
+		}
+
+		/**
+		 * @param lastUpdate
+		 *            used if the photo does not tell its last update
+		 */
+		PhotoVersion(FlickrMessage flickrMessage, long lastUpdate) {
+			this(flickrMessage.getLastUpdate() != null ? flickrMessage.getLastUpdate().getMillis() : lastUpdate,
+					flickrMessage.getLocation() != null ? flickrMessage.getLocation().getLatitude() : Double.NaN,
+					flickrMessage.getLocation() != null ? flickrMessage.getLocation().getLongitude() : Double.NaN,
+					flickrMessage.getLocation() != null ? flickrMessage.getLocation().getAccuracy() : 0,
+					flickrMessage.getPhenomenonTime() != null ? flickrMessage.getPhenomenonTime().getMillis() : UNKNOWN_TIME,
+					new byte[Field.values().length][]);
+			fingerprints[Field.TITLE.ordinal()] = fingerprint(flickrMessage.getTitle());
+			fingerprints[Field.CAPTION.ordinal()] = fingerprint(flickrMessage.getCaption());
+			fingerprints[Field.TAGS.ordinal()] = fingerprint(flickrMessage.getTags());
+			fingerprints[Field.LOCATION.ordinal()] = fingerprint(flickrMessage.getLocation());
+			fingerprints[Field.TIME.ordinal()] = fingerprint(flickrMessage.getPhenomenonTime() != null
+					? flickrMessage.getPhenomenonTime().getMillis() : null);
+		}
+
+		Set<Field> diff(PhotoVersion other) {
+			Set<Field> fields = EnumSet.noneOf(Field.class);
+			for (Field field : Field.values()) {
+				if (!MessageDigest.isEqual(fingerprints[field.ordinal()], other.fingerprints[field.ordinal()])) {
+					fields.add(field);
+				}
+			}
+			return fields;
+		}
+
+		/**
+		 * @return <code>true</code> if a scan of one of the scopes should
+		 *         have returned the photo, <code>false</code> if it cannot be
+		 *         told
+		 */
+		boolean isExpectedByAny(Collection<FlickrQuery> scopes) {
+			for (FlickrQuery scope : scopes) {
+				if (isExpectedBy(scope)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private boolean isExpectedBy(FlickrQuery scope) {
+			if (Double.isNaN(latitude) || !scope.isGeolocated()
+					|| scope.hasKeywords()
+					|| scope.hasMinUploadDate() || scope.hasMaxUploadDate()
+					|| scope.hasContentType() || scope.hasMedia()
+					|| scope.hasLicenses() || scope.hasSafeSearch()) {
+				// filters on values which are not tracked
+				return false;
+			}
+			double[] bbox = scope.getBoundingBox();
+			if (longitude < bbox[0] || latitude < bbox[1] || longitude > bbox[2] || latitude > bbox[3]) {
+				return false;
+			}
+			if (scope.hasMinimumAccuracy() && accuracy < scope.getMinimumAccuracy()) {
+				return false;
+			}
+			if (time == UNKNOWN_TIME) {
+				return !scope.hasMinDate() && !scope.hasMaxDate();
+			}
+			return (!scope.hasMinDate() || time >= scope.getMinDate().getTime())
+					&& (!scope.hasMaxDate() || time <= scope.getMaxDate().getTime());
+		}
+
+		String format() {
+			StringBuilder builder = new StringBuilder().append(lastUpdate).append(SEPARATOR)
+					.append(latitude).append(FINGERPRINT_SEPARATOR)
+					.append(longitude).append(FINGERPRINT_SEPARATOR)
+					.append(accuracy).append(FINGERPRINT_SEPARATOR)
+					.append(time).append(SEPARATOR);
+			for (int i = 0; i < fingerprints.length; i++) {
+				if (i > 0) {
+					builder.append(FINGERPRINT_SEPARATOR);
+				}
+				builder.append(Base64.getEncoder().encodeToString(fingerprints[i]));
+			}
+			return builder.toString();
+		}
+
+		/**
+		 * @return <code>null</code> if the fingerprints do not match the
+		 *         fields, e.g. of an older format
+		 */
+		static PhotoVersion parse(String lastUpdate, String position, String fingerprints) {
+			String[] coordinates = position.split(FINGERPRINT_SEPARATOR);
+			String[] values = fingerprints.split(FINGERPRINT_SEPARATOR);
+			if (coordinates.length != 4 || values.length != Field.values().length) {
+				return null;
+			}
+			byte[][] parsed = new byte[values.length][];
+			for (int i = 0; i < values.length; i++) {
+				try {
+					parsed[i] = Base64.getDecoder().decode(values[i]);
+				} catch (IllegalArgumentException e) {
+					return null;
+				}
+				if (parsed[i].length != FINGERPRINT_BYTES) {
+					return null;
+				}
+			}
+			return new PhotoVersion(Long.parseLong(lastUpdate),
+					Double.parseDouble(coordinates[0]),
+					Double.parseDouble(coordinates[1]),
+					Integer.parseInt(coordinates[2]),
+					Long.parseLong(coordinates[3]),
+					parsed);
+		}
+
+		/**
+		 * The order of the tags does not matter.
+		 */
+		private static byte[] fingerprint(Collection<Tag> tags) {
+			if (tags == null) {
+				return fingerprint((Object) null);
+			}
+			List<String> values = new ArrayList<>(tags.size());
+			for (Tag tag : tags) {
+				values.add(tag.getValue());
+			}
+			Collections.sort(values);
+			return fingerprint(values.toArray());
+		}
+
+		private static byte[] fingerprint(FlickrLocation location) {
+			if (location == null) {
+				return fingerprint((Object) null);
+			}
+			return fingerprint(location.getLatitude(), location.getLongitude(), location.getAccuracy(), location.getId());
+		}
+
+		/**
+		 * Digests the values, each prefixed by its length, so moving
+		 * characters between values changes the digest as well.
+		 */
+		private static byte[] fingerprint(Object... values) {
+			MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				// every Java platform supports SHA-256
+				throw new IllegalStateException(e);
+			}
+			for (Object value : values) {
+				if (value == null) {
+					digest.update((byte) 0);
+				} else {
+					byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+					digest.update((byte) 1);
+					digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+					digest.update(bytes);
+				}
+			}
+			return digest.digest();
+		}
+
+	}
+
+}
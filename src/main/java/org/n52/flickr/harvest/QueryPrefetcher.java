@@ -0,0 +1,362 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+import org.n52.flickr.dao.CallPriority;
+import org.n52.flickr.dao.ExecutionMode;
+import org.n52.flickr.dao.FlickrDAO;
+import org.n52.flickr.dao.QueryResultCache;
+import org.n52.flickr.dao.TenantContext;
+import org.n52.flickr.model.FlickrMessage;
+import org.n52.flickr.model.FlickrQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.flickr4java.flickr.FlickrException;
+
+/**
+ * Learns from the queries clients ask for and fetches the ones likely asked
+ * for next into the {@link QueryResultCache} of the DAO: the next time window
+ * of a client stepping through time at one site, the box next in the
+ * direction a client pans a map in and the other neighbouring boxes of the
+ * same size, those in the directions panned most often recently first.
+ * Neighbours are found in the cache only if clients ask for the boxes of a
+ * grid, e.g. the {@link #getGridCell(double, double, double) cell} a point
+ * lies in, as the cache matches boxes exactly.
+ * <p>
+ * Prefetches run one at a time with {@link CallPriority#SPECULATIVE}
+ * priority in the tenant of the observed query, i.e. only on API budget no
+ * other call is waiting for. A prefetch stops as soon as real demand needs
+ * the budget and the prefetches of a query are dropped once the next query
+ * is observed, the running one before its next call. Results of stopped
+ * prefetches are not cached. The DAO needs a rate limit or fair scheduler,
+ * as speculative calls are not limited otherwise.
+ */
+public class QueryPrefetcher implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(QueryPrefetcher.class);
+
+	/**
+	 * Number of observed queries the directions are learned from.
+	 */
+	static final int HISTORY_SIZE = 16;
+
+	/**
+	 * Relative difference of two box sizes still considered the same size.
+	 */
+	private static final double SIZE_TOLERANCE = 1e-6;
+
+	/**
+	 * Longitude and latitude steps to the neighbouring boxes, east and west
+	 * first as maps are usually panned horizontally.
+	 */
+	private static final int[][] DIRECTIONS = { { 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 }, { 1, 1 }, { -1, 1 }, { 1, -1 }, { -1, -1 } };
+
+	private final FlickrDAO dao;
+
+	private final QueryResultCache cache;
+
+	private final int maxPrefetches;
+
+	private final ExecutorService executor;
+
+	private final Deque<FlickrQuery> history = new ArrayDeque<>();
+
+	private final List<Future<?>> pending = new ArrayList<>();
+
+	private final AtomicLong prefetched = new AtomicLong();
+
+	private final AtomicLong stopped = new AtomicLong();
+
+	/**
+	 * @param dao
+	 *            the DAO with the {@link FlickrDAO#setQueryResultCache(QueryResultCache)
+	 *            cache} to fill
+	 * @param maxPrefetches
+	 *            the maximum number of queries prefetched per observed query
+	 */
+	public QueryPrefetcher(FlickrDAO dao, int maxPrefetches) {
+		if (dao.getQueryResultCache() == null) {
+			throw new IllegalArgumentException("Prefetching requires a query result cache");
+		}
+		if (maxPrefetches <= 0) {
+			throw new IllegalArgumentException("maxPrefetches must be positive: " + maxPrefetches);
+		}
+		this.dao = dao;
+		this.cache = dao.getQueryResultCache();
+		this.maxPrefetches = maxPrefetches;
+		this.executor = Executors.newSingleThreadExecutor(ExecutionMode.createDaemonThreadFactory("flickr-prefetch"));
+	}
+
+	/**
+	 * Records the query a client asked for, drops the prefetches of the
+	 * previous query which did not run yet and schedules the prefetches of
+	 * this one.
+	 */
+	public synchronized void observe(FlickrQuery query) {
+		for (Future<?> future : pending) {
+			future.cancel(true);
+		}
+		pending.clear();
+		List<FlickrQuery> predictions = predict(query);
+		history.addLast(new FlickrQuery(query));
+		if (history.size() > HISTORY_SIZE) {
+			history.removeFirst();
+		}
+		TenantContext context = TenantContext.current().withPriority(CallPriority.SPECULATIVE);
+		for (FlickrQuery prediction : predictions) {
+			if (cache.contains(prediction)) {
+				continue;
+			}
+			try {
+				pending.add(executor.submit(() -> prefetch(prediction, context)));
+			} catch (RejectedExecutionException e) {
+				LOGGER.debug("Prefetcher closed, {} not prefetched", Arrays.toString(prediction.getBoundingBox()));
+				return;
+			}
+		}
+	}
+
+	private void prefetch(FlickrQuery query, TenantContext context) {
+		if (Thread.currentThread().isInterrupted()) {
+			return;
+		}
+		try (TenantContext.Scope scope = context.enter()) {
+			Collection<FlickrMessage> flickrPhotos = new LinkedList<>();
+			dao.executeQuery(query, photoId -> !Thread.currentThread().isInterrupted(), flickrPhotos::add);
+			if (Thread.currentThread().isInterrupted()) {
+				stopped.incrementAndGet();
+				return;
+			}
+			cache.put(query, flickrPhotos);
+			prefetched.incrementAndGet();
+		} catch (FlickrException e) {
+			stopped.incrementAndGet();
+			if (FlickrDAO.NO_BUDGET.equals(e.getErrorCode())) {
+				LOGGER.debug("Prefetch of {} stopped, the budget is needed by other calls", Arrays.toString(query.getBoundingBox()));
+			} else {
+				LOGGER.debug("Prefetch of " + Arrays.toString(query.getBoundingBox()) + " failed", e);
+			}
+		}
+	}
+
+	/**
+	 * @return the queries likely asked for after the given one, the most
+	 *         likely first, at most the configured number
+	 */
+	synchronized List<FlickrQuery> predict(FlickrQuery query) {
+		Set<FlickrQuery> predictions = new LinkedHashSet<>();
+		FlickrQuery previous = history.peekLast();
+		if (previous != null && hasSameBox(previous, query)) {
+			FlickrQuery nextWindow = nextTimeWindow(previous, query);
+			if (nextWindow != null) {
+				predictions.add(nextWindow);
+			}
+		}
+		if (query.isGeolocated()) {
+			final int[] counts = new int[DIRECTIONS.length];
+			FlickrQuery before = null;
+			for (FlickrQuery past : history) {
+				if (before != null) {
+					int direction = getDirection(before, past);
+					if (direction >= 0) {
+						counts[direction]++;
+					}
+				}
+				before = past;
+			}
+			int lastDirection = previous != null ? getDirection(previous, query) : -1;
+			if (lastDirection >= 0) {
+				addNeighbour(predictions, query, DIRECTIONS[lastDirection]);
+			}
+			List<Integer> directions = new ArrayList<>(DIRECTIONS.length);
+			for (int direction = 0; direction < DIRECTIONS.length; direction++) {
+				directions.add(direction);
+			}
+			// stable, hence equally frequent directions keep their order
+			directions.sort(Comparator.comparingInt((Integer direction) -> -counts[direction]));
+			for (int direction : directions) {
+				addNeighbour(predictions, query, DIRECTIONS[direction]);
+			}
+		}
+		List<FlickrQuery> result = new ArrayList<>(predictions);
+		return result.size() > maxPrefetches ? result.subList(0, maxPrefetches) : result;
+	}
+
+	/**
+	 * @return the window following the given query by the step from the
+	 *         previous one, <code>null</code> if the windows are not of equal
+	 *         length or the next one starts in the future
+	 */
+	static FlickrQuery nextTimeWindow(FlickrQuery previous, FlickrQuery query) {
+		if (previous.getStart() == null || previous.getEnd() == null || query.getStart() == null || query.getEnd() == null) {
+			return null;
+		}
+		long length = query.getEnd().getMillis() - query.getStart().getMillis();
+		long step = query.getStart().getMillis() - previous.getStart().getMillis();
+		if (step == 0 || length != previous.getEnd().getMillis() - previous.getStart().getMillis()) {
+			return null;
+		}
+		long start = query.getStart().getMillis() + step;
+		if (start > System.currentTimeMillis()) {
+			return null;
+		}
+		FlickrQuery next = new FlickrQuery(query);
+		next.setTimeSpan(new DateTime(start), new DateTime(start + length));
+		return next;
+	}
+
+	/**
+	 * @return the index into {@link #DIRECTIONS} of the step from one box to
+	 *         the other, -1 if they differ in size, time or are not
+	 *         neighbours
+	 */
+	static int getDirection(FlickrQuery from, FlickrQuery to) {
+		if (!from.isGeolocated() || !to.isGeolocated() || !hasSameSize(from, to) || !hasSameTimeSpan(from, to)) {
+			return -1;
+		}
+		double[] fromBox = from.getBoundingBox();
+		double[] toBox = to.getBoundingBox();
+		double width = fromBox[2] - fromBox[0];
+		double height = fromBox[3] - fromBox[1];
+		long dx = Math.round((toBox[0] - fromBox[0]) / width);
+		long dy = Math.round((toBox[1] - fromBox[1]) / height);
+		for (int direction = 0; direction < DIRECTIONS.length; direction++) {
+			if (DIRECTIONS[direction][0] == dx && DIRECTIONS[direction][1] == dy) {
+				return direction;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param cellDegrees
+	 *            the width and height of the cells
+	 * @return the cell of a grid of square cells starting at longitude -180
+	 *         and latitude -90 the point lies in, as minimum longitude,
+	 *         minimum latitude, maximum longitude and maximum latitude. Cells
+	 *         at the east and north edges of the world are cut off there.
+	 */
+	public static double[] getGridCell(double latitude, double longitude, double cellDegrees) {
+		if (cellDegrees <= 0) {
+			throw new IllegalArgumentException("cellDegrees must be positive: " + cellDegrees);
+		}
+		// points on the east and north edges lie in the last cell
+		double column = Math.min(Math.floor((longitude + 180) / cellDegrees), Math.ceil(360 / cellDegrees) - 1);
+		double row = Math.min(Math.floor((latitude + 90) / cellDegrees), Math.ceil(180 / cellDegrees) - 1);
+		double minLon = -180 + column * cellDegrees;
+		double minLat = -90 + row * cellDegrees;
+		return new double[] { minLon, minLat, Math.min(180, minLon + cellDegrees), Math.min(90, minLat + cellDegrees) };
+	}
+
+	private static void addNeighbour(Set<FlickrQuery> predictions, FlickrQuery query, int[] direction) {
+		double[] bbox = query.getBoundingBox();
+		double width = bbox[2] - bbox[0];
+		double height = bbox[3] - bbox[1];
+		double minLon = bbox[0] + direction[0] * width;
+		double minLat = bbox[1] + direction[1] * height;
+		if (minLon < -180 || minLon + width > 180 || minLat < -90 || minLat + height > 90) {
+			return;
+		}
+		FlickrQuery neighbour = new FlickrQuery(query);
+		neighbour.setBoundingBox(minLon, minLat, minLon + width, minLat + height);
+		predictions.add(neighbour);
+	}
+
+	private static boolean hasSameBox(FlickrQuery a, FlickrQuery b) {
+		return Arrays.equals(a.getBoundingBox(), b.getBoundingBox());
+	}
+
+	private static boolean hasSameSize(FlickrQuery a, FlickrQuery b) {
+		double[] boxA = a.getBoundingBox();
+		double[] boxB = b.getBoundingBox();
+		double widthA = boxA[2] - boxA[0];
+		double heightA = boxA[3] - boxA[1];
+		return widthA > 0 && heightA > 0
+				&& Math.abs(widthA - (boxB[2] - boxB[0])) <= widthA * SIZE_TOLERANCE
+				&& Math.abs(heightA - (boxB[3] - boxB[1])) <= heightA * SIZE_TOLERANCE;
+	}
+
+	private static boolean hasSameTimeSpan(FlickrQuery a, FlickrQuery b) {
+		return millis(a.getStart()) == millis(b.getStart()) && millis(a.getEnd()) == millis(b.getEnd());
+	}
+
+	private static long millis(DateTime dateTime) {
+		return dateTime != null ? dateTime.getMillis() : Long.MIN_VALUE;
+	}
+
+	/**
+	 * @return the number of queries prefetched into the cache
+	 */
+	public long getPrefetched() {
+		return prefetched.get();
+	}
+
+	/**
+	 * @return the number of prefetches stopped for lack of budget, by the
+	 *         next query or by a failure
+	 */
+	public long getStopped() {
+		return stopped.get();
+	}
+
+	/**
+	 * Stops the running prefetch and drops the scheduled ones.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		LOGGER.info("{} queries prefetched, {} prefetches stopped", getPrefetched(), getStopped());
+	}
+
+}
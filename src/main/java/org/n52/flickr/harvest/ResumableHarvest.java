@@ -0,0 +1,127 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+import org.n52.flickr.dao.FlickrDAO;
+import org.n52.flickr.dao.QueryProgress;
+import org.n52.flickr.model.FlickrMessage;
+import org.n52.flickr.model.FlickrQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.flickr4java.flickr.FlickrException;
+
+/**
+ * Runs queries whose progress survives a crash of the JVM or an error of the
+ * Flickr API. The covered pages and emitted photos are recorded in a
+ * {@link HarvestJournal}; running the same harvest again skips the covered
+ * pages and never enriches an emitted photo twice. A photo emitted right
+ * before a crash might be emitted again, as it is journaled after it was
+ * passed on.
+ * <p>
+ * The page size of queries with a result budget depends on the budget left,
+ * hence these resume by photo only and fetch their pages again, as do
+ * queries split by tags.
+ */
+public class ResumableHarvest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ResumableHarvest.class);
+
+	private final FlickrDAO dao;
+
+	private final HarvestJournal journal;
+
+	public ResumableHarvest(FlickrDAO dao, HarvestJournal journal) {
+		this.dao = dao;
+		this.journal = journal;
+	}
+
+	/**
+	 * @param harvestId
+	 *            names the harvest in the journal, a harvest with another
+	 *            query under the same id starts over
+	 * @param query
+	 *            should have a fixed maximum upload date, otherwise new
+	 *            uploads shift the page offsets between the runs
+	 * @return the number of photos passed to the consumer by this run
+	 */
+	public int execute(final String harvestId, FlickrQuery query, final Consumer<FlickrMessage> consumer) throws FlickrException, IOException {
+		journal.begin(harvestId, query.getFingerprint());
+		if (journal.isDone(harvestId)) {
+			LOGGER.info("Harvest '{}' is already done", harvestId);
+			return 0;
+		}
+		QueryProgress progress = new QueryProgress();
+		FlickrQuery remaining = query;
+		if (query.hasMaxResults()) {
+			int left = query.getMaxResults() - journal.getEmittedCount(harvestId);
+			if (left <= 0) {
+				journal.finish(harvestId);
+				return 0;
+			}
+			remaining = new FlickrQuery(query);
+			remaining.setMaxResults(left);
+		} else {
+			progress.resumeAt(journal.getCompletedPages(harvestId) + 1);
+			progress.setPageListener(page -> {
+				try {
+					journal.pageCompleted(harvestId, page);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+		if (journal.getEmittedCount(harvestId) > 0) {
+			LOGGER.info("Resuming harvest '{}' at page {} after {} photos",
+					harvestId, progress.getFirstPage(), journal.getEmittedCount(harvestId));
+		}
+		try {
+			int consumed = dao.executeQuery(remaining,
+					photoId -> !journal.isEmitted(harvestId, photoId),
+					flickrMessage -> {
+						consumer.accept(flickrMessage);
+						try {
+							journal.photoEmitted(harvestId, flickrMessage.getIdentifier());
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					},
+					progress);
+			journal.finish(harvestId);
+			return consumed;
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.n52.flickr.model.FlickrQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits the area and time span of a query into tiles and puts them into a
+ * {@link TileQueue}, from which the {@link TileWorker}s of all nodes take
+ * them.
+ */
+public class TileCoordinator {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TileCoordinator.class);
+
+	private final TileQueue queue;
+
+	private final double tileDegrees;
+
+	private final long bucketMillis;
+
+	/**
+	 * @param tileDegrees
+	 *            the width and height of a tile
+	 * @param bucket
+	 *            the time span of a tile, 0 to not split the time span
+	 */
+	public TileCoordinator(TileQueue queue, double tileDegrees, long bucket, TimeUnit unit) {
+		if (tileDegrees <= 0) {
+			throw new IllegalArgumentException("tileDegrees must be positive: " + tileDegrees);
+		}
+		this.queue = queue;
+		this.tileDegrees = tileDegrees;
+		this.bucketMillis = unit.toMillis(bucket);
+	}
+
+	/**
+	 * @param harvestId
+	 *            prefixes the tile ids, tiles of a harvest offered again are
+	 *            skipped while pending or leased
+	 * @return the number of tiles added to the queue
+	 */
+	public int offer(String harvestId, FlickrQuery query) throws IOException {
+		int offered = 0;
+		List<HarvestTile> tiles = split(harvestId, query, tileDegrees, bucketMillis);
+		for (HarvestTile tile : tiles) {
+			if (queue.offer(tile)) {
+				offered++;
+			}
+		}
+		LOGGER.info("{} of {} tiles of harvest '{}' offered", offered, tiles.size(), harvestId);
+		return offered;
+	}
+
+	/**
+	 * Splits row by row from the south west. The time span is split only if
+	 * it is closed at both ends.
+	 */
+	static List<HarvestTile> split(String harvestId, FlickrQuery query, double tileDegrees, long bucketMillis) {
+		if (!query.isGeolocated()) {
+			throw new IllegalArgumentException("Only queries with a bounding box can be split into tiles");
+		}
+		double[] bbox = query.getBoundingBox();
+		int columns = Math.max(1, (int) Math.ceil((bbox[2] - bbox[0]) / tileDegrees));
+		int rows = Math.max(1, (int) Math.ceil((bbox[3] - bbox[1]) / tileDegrees));
+		List<DateTime[]> timeSpans = splitTimeSpan(query.getStart(), query.getEnd(), bucketMillis);
+
+		List<HarvestTile> tiles = new ArrayList<>(rows * columns * timeSpans.size());
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				double[] tileBbox = new double[] {
+						bbox[0] + column * tileDegrees,
+						bbox[1] + row * tileDegrees,
+						Math.min(bbox[2], bbox[0] + (column + 1) * tileDegrees),
+						Math.min(bbox[3], bbox[1] + (row + 1) * tileDegrees) };
+				for (int bucket = 0; bucket < timeSpans.size(); bucket++) {
+					tiles.add(new HarvestTile(String.format("%s_%04d_%04d_%04d", harvestId, row, column, bucket),
+							tileBbox,
+							timeSpans.get(bucket)[0],
+							timeSpans.get(bucket)[1]));
+				}
+			}
+		}
+		return tiles;
+	}
+
+	private static List<DateTime[]> splitTimeSpan(DateTime start, DateTime end, long bucketMillis) {
+		List<DateTime[]> timeSpans = new ArrayList<>();
+		if (start == null || end == null || bucketMillis <= 0) {
+			timeSpans.add(new DateTime[] { start, end });
+			return timeSpans;
+		}
+		for (long from = start.getMillis(); from < end.getMillis(); from += bucketMillis) {
+			timeSpans.add(new DateTime[] { new DateTime(from), new DateTime(Math.min(end.getMillis(), from + bucketMillis)) });
+		}
+		if (timeSpans.isEmpty()) {
+			timeSpans.add(new DateTime[] { start, end });
+		}
+		return timeSpans;
+	}
+
+}
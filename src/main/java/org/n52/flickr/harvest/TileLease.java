@@ -0,0 +1,87 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+/**
+ * The time bounded claim of a worker on a tile. A lease which is neither
+ * renewed nor acknowledged before it expires makes the tile available to
+ * other workers again.
+ */
+public class TileLease {
+
+	private final HarvestTile tile;
+
+	private final String workerId;
+
+	private final String token;
+
+	private final long expiresAt;
+
+	/**
+	 * @param token
+	 *            distinguishes this lease from earlier and later leases on
+	 *            the same tile
+	 * @param expiresAt
+	 *            milliseconds since the epoch
+	 */
+	public TileLease(HarvestTile tile, String workerId, String token, long expiresAt) {
+		this.tile = tile;
+		this.workerId = workerId;
+		this.token = token;
+		this.expiresAt = expiresAt;
+	}
+
+	public HarvestTile getTile() {
+		return tile;
+	}
+
+	public String getWorkerId() {
+		return workerId;
+	}
+
+	public String getToken() {
+		return token;
+	}
+
+	public long getExpiresAt() {
+		return expiresAt;
+	}
+
+	public boolean isExpired() {
+		return System.currentTimeMillis() >= expiresAt;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder(100).append("TileLease [tile=").append(tile.getId())
+				.append(", workerId=").append(workerId)
+				.append(", expiresAt=").append(expiresAt).append("]").toString();
+	}
+
+}
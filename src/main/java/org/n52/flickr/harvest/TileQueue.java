@@ -0,0 +1,90 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work queue of {@link HarvestTile}s shared by the harvester nodes. Workers
+ * claim a tile for a limited time and acknowledge it once harvested. Tiles
+ * whose lease expired, e.g. because the node died, are handed out again, so
+ * each tile is harvested at least once.
+ * <p>
+ * Implementations have to be safe for concurrent use by several threads and,
+ * if shared, by several processes.
+ */
+public interface TileQueue extends Closeable {
+
+	/**
+	 * Adds the tile unless a tile with the same id is pending or leased.
+	 * 
+	 * @return <code>true</code> if the tile was added
+	 */
+	boolean offer(HarvestTile tile) throws IOException;
+
+	/**
+	 * @return a lease on a pending tile or on a tile whose lease expired,
+	 *         <code>null</code> if there is none
+	 */
+	TileLease claim(String workerId, long leaseTime, TimeUnit unit) throws IOException;
+
+	/**
+	 * Extends the lease of a tile taking long.
+	 * 
+	 * @return the extended lease or <code>null</code> if the lease was lost,
+	 *         i.e. it expired and the tile was claimed again
+	 */
+	TileLease renew(TileLease lease, long leaseTime, TimeUnit unit) throws IOException;
+
+	/**
+	 * Removes the harvested tile from the queue.
+	 * 
+	 * @return <code>false</code> if the lease was lost, the tile is then
+	 *         harvested by another worker as well
+	 */
+	boolean acknowledge(TileLease lease) throws IOException;
+
+	/**
+	 * Hands the tile back before its lease expires, e.g. after an error.
+	 */
+	void release(TileLease lease) throws IOException;
+
+	/**
+	 * @return the number of tiles neither acknowledged nor leased
+	 */
+	int getPending() throws IOException;
+
+	/**
+	 * @return the number of leased tiles, including expired leases
+	 */
+	int getLeased() throws IOException;
+
+}
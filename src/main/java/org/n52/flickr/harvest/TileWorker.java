@@ -0,0 +1,244 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.n52.flickr.dao.CallPriority;
+import org.n52.flickr.dao.ExecutionMode;
+import org.n52.flickr.dao.FlickrDAO;
+import org.n52.flickr.dao.QueryProgress;
+import org.n52.flickr.dao.TenantContext;
+import org.n52.flickr.model.FlickrMessage;
+import org.n52.flickr.model.FlickrQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.flickr4java.flickr.FlickrException;
+
+/**
+ * Takes tiles from a {@link TileQueue} one after the other, harvests them and
+ * acknowledges them. The lease is renewed after each page and whenever half
+ * of it has passed while photos are delivered. A tile which fails is
+ * released for a retry by any worker; a tile whose lease was lost is given
+ * up, as another worker harvests it already.
+ */
+public class TileWorker {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TileWorker.class);
+
+	private final FlickrDAO dao;
+
+	private final TileQueue queue;
+
+	private final FlickrQuery template;
+
+	private final BlockingQueue<FlickrMessage> sink;
+
+	private final String workerId;
+
+	private final long leaseMillis;
+
+	private final AtomicLong harvestedTiles = new AtomicLong();
+
+	private final AtomicLong harvestedPhotos = new AtomicLong();
+
+	/**
+	 * The tenant of the creating thread, with bulk priority.
+	 */
+	private final TenantContext tenantContext = TenantContext.current().withPriority(CallPriority.BULK);
+
+	private ScheduledExecutorService scheduler;
+
+	private TileLease lease;
+
+	/**
+	 * @param template
+	 *            provides all constraints of the tile queries but the
+	 *            bounding box and time span, it has to match on all nodes
+	 * @param sink
+	 *            receives the photos, a bounded queue holds back the harvest
+	 *            while it is full
+	 * @param workerId
+	 *            identifies this worker in the logs, e.g. host name and
+	 *            process id
+	 */
+	public TileWorker(FlickrDAO dao,
+			TileQueue queue,
+			FlickrQuery template,
+			BlockingQueue<FlickrMessage> sink,
+			String workerId,
+			long leaseTime,
+			TimeUnit unit) {
+		this.dao = dao;
+		this.queue = queue;
+		this.template = template;
+		this.sink = sink;
+		this.workerId = workerId;
+		this.leaseMillis = unit.toMillis(leaseTime);
+	}
+
+	/**
+	 * Starts polling the queue; when it is empty the worker looks again
+	 * after the given delay.
+	 */
+	public synchronized void start(long pollDelay, TimeUnit unit) {
+		if (isRunning()) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(ExecutionMode.createDaemonThreadFactory("flickr-tile-worker"));
+		scheduler.scheduleWithFixedDelay(() -> {
+			try (TenantContext.Scope scope = tenantContext.enter()) {
+				drain();
+			}
+		}, 0, pollDelay, unit);
+	}
+
+	/**
+	 * Interrupts the tile in progress, its lease expires and the tile is
+	 * harvested by another worker.
+	 */
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	public synchronized boolean isRunning() {
+		return scheduler != null;
+	}
+
+	public long getHarvestedTiles() {
+		return harvestedTiles.get();
+	}
+
+	public long getHarvestedPhotos() {
+		return harvestedPhotos.get();
+	}
+
+	/**
+	 * Harvests tiles until the queue is empty.
+	 */
+	void drain() {
+		try {
+			while (!Thread.currentThread().isInterrupted() && harvestNext()) {
+				// next tile
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Tile queue not accessible, retrying after the poll delay", e);
+		} catch (CancellationException e) {
+			// stopped, the tile in progress is released already
+		} catch (RuntimeException e) {
+			LOGGER.error("Tile worker failed unexpectedly", e);
+		}
+	}
+
+	/**
+	 * @return <code>false</code> if there was no tile to harvest or it failed,
+	 *         the worker then tries again after the poll delay
+	 * @throws CancellationException
+	 *             if interrupted while the sink was full, the tile is
+	 *             released then
+	 */
+	boolean harvestNext() throws IOException {
+		lease = queue.claim(workerId, leaseMillis, TimeUnit.MILLISECONDS);
+		if (lease == null) {
+			return false;
+		}
+		HarvestTile tile = lease.getTile();
+		QueryProgress progress = new QueryProgress();
+		progress.setPageListener(page -> renew(true));
+		try {
+			int photos = dao.executeQuery(tile.toQuery(template), photoId -> true, this::deliver, progress);
+			if (queue.acknowledge(lease)) {
+				harvestedTiles.incrementAndGet();
+				LOGGER.info("{} harvested with {} photos", tile, photos);
+			}
+		} catch (FlickrException e) {
+			LOGGER.warn(String.format("%s failed, releasing it for a retry", tile), e);
+			queue.release(lease);
+			// rather than claiming the released tile again right away
+			return false;
+		} catch (LeaseLostException e) {
+			LOGGER.info("Lease on {} lost, giving it up", tile);
+		} catch (CancellationException e) {
+			LOGGER.info("{} cancelled", tile);
+			queue.release(lease);
+			throw e;
+		} finally {
+			lease = null;
+		}
+		return true;
+	}
+
+	private void deliver(FlickrMessage flickrMessage) {
+		renew(false);
+		try {
+			sink.put(flickrMessage);
+			harvestedPhotos.incrementAndGet();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted while waiting for the sink");
+		}
+	}
+
+	/**
+	 * @param always
+	 *            renews even if less than half of the lease has passed
+	 */
+	private void renew(boolean always) {
+		if (!always && lease.getExpiresAt() - System.currentTimeMillis() > leaseMillis / 2) {
+			return;
+		}
+		try {
+			TileLease renewed = queue.renew(lease, leaseMillis, TimeUnit.MILLISECONDS);
+			if (renewed == null) {
+				throw new LeaseLostException();
+			}
+			lease = renewed;
+		} catch (IOException e) {
+			// the lease might still be renewed in time on the next attempt
+			LOGGER.warn("Could not renew lease on " + lease.getTile(), e);
+		}
+	}
+
+	private static class LeaseLostException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+	}
+
+}
@@ -28,6 +28,8 @@
  */
 package org.n52.flickr.model;
 
+import java.util.Locale;
+
 import org.n52.socialmedia.model.Location;
 
 import com.flickr4java.flickr.places.Place;
@@ -43,9 +45,18 @@ public class FlickrLocation implements Location {
 	private float longitude;
 	private float latitude;
 	private int accuracy;
-	private Place place;
+	private FlickrPlace place;
 
 	public FlickrLocation(float longitude, float latitude, int accuracy, Place place) {
+		this(longitude, latitude, accuracy, place != null ? new FlickrPlace(place.getPlaceId(), place.getName()) : null);
+	}
+
+	/**
+	 * @param place
+	 *            may be shared between locations, see
+	 *            {@link org.n52.flickr.dao.PlaceCache}
+	 */
+	public FlickrLocation(float longitude, float latitude, int accuracy, FlickrPlace place) {
 		this.longitude = longitude;
 		this.latitude = latitude;
 		this.accuracy = accuracy;
@@ -66,17 +77,25 @@ public class FlickrLocation implements Location {
 		return accuracy;
 	}
 
+	public FlickrPlace getPlace() {
+		return place;
+	}
+
+	/**
+	 * @return the Flickr place id or, if not set, an id derived from the
+	 *         coordinates, which is the same for all photos at one position
+	 */
 	@Override
 	public String getId() {
-		if (place != null && place.getPlaceId() != null && !place.getPlaceId().isEmpty()) {
-			return place.getPlaceId();
+		if (place != null && place.hasId()) {
+			return place.getId();
 		}
-		return String.format("%s_place-id-not-set",hashCode());
+		return String.format(Locale.ROOT, "%.6f_%.6f_place-id-not-set", latitude, longitude);
 	}
 
 	@Override
 	public String getName() {
-		if (place != null && place.getName() != null && !place.getName().isEmpty()) {
+		if (place != null && place.hasName()) {
 			return place.getName();
 		}
 		return "place-name-not-set";
@@ -40,6 +40,9 @@ import com.flickr4java.flickr.tags.Tag;
 
 public class FlickrMessage implements HumanVisualPerceptionObservation {
 	
+	private static final String IMAGE_URL = "https://live.staticflickr.com/%s/%s_%s.jpg";
+	private static final String SIZED_IMAGE_URL = "https://live.staticflickr.com/%s/%s_%s_%s.jpg";
+
 	private String id;
 	private FlickrLocation location;
 	private DateTime createdTime;
@@ -50,6 +53,9 @@ public class FlickrMessage implements HumanVisualPerceptionObservation {
 
 	private Collection<Tag> tags;
 	private String title;
+	private DateTime lastUpdate;
+	private String server;
+	private String secret;
 	
 	public FlickrMessage() {}
 	
@@ -91,6 +97,39 @@ public class FlickrMessage implements HumanVisualPerceptionObservation {
 				tags!=null?!tags.isEmpty()?printTags():"tags-not-set":"tags-not-set"));
 	}
 	
+	public String getTitle() {
+		return title;
+	}
+
+	public String getCaption() {
+		return caption;
+	}
+
+	public Collection<Tag> getTags() {
+		return tags;
+	}
+
+	/**
+	 * @return when the photo or its metadata was changed last, might be
+	 *         <code>null</code>
+	 */
+	public DateTime getLastUpdate() {
+		return lastUpdate;
+	}
+
+	/**
+	 * @return the URL of the image in the given size, <code>null</code> if
+	 *         the server or secret of the photo are unknown
+	 */
+	public String getImageUrl(ImageSize size) {
+		if (server == null || secret == null) {
+			return null;
+		}
+		return size.getSuffix() == null
+				? String.format(IMAGE_URL, server, id, secret)
+				: String.format(SIZED_IMAGE_URL, server, id, secret, size.getSuffix());
+	}
+
 	private String printTags() {
 		StringBuilder builder = new StringBuilder();
 		for (Tag tag : tags) {
@@ -134,6 +173,23 @@ public class FlickrMessage implements HumanVisualPerceptionObservation {
 	public void setProcedure(Procedure procedure) {
 		this.procedure = procedure;
 	}
+
+	/**
+	 * The time of the last update describes the version of the photo, not
+	 * the observation, hence it is ignored by {@link #equals(Object)}.
+	 */
+	public void setLastUpdate(Date lastUpdate) {
+		this.lastUpdate = lastUpdate != null ? new DateTime(lastUpdate) : null;
+	}
+
+	/**
+	 * The location of the image files, ignored by {@link #equals(Object)}
+	 * like the time of the last update.
+	 */
+	public void setImageSource(String server, String secret) {
+		this.server = server;
+		this.secret = secret;
+	}
 	
 	/*
 	 * GENERATED with eclipse templates
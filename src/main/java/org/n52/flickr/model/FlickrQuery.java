@@ -28,19 +28,48 @@
  */
 package org.n52.flickr.model;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
 
 import org.joda.time.DateTime;
 
 public class FlickrQuery {
 
+	public static final String MEDIA_ALL = "all";
+	public static final String MEDIA_PHOTOS = "photos";
+	public static final String MEDIA_VIDEOS = "videos";
+
+	public static final String CONTENT_TYPE_PHOTOS = "1";
+	public static final String CONTENT_TYPE_SCREENSHOTS = "2";
+	public static final String CONTENT_TYPE_OTHER = "3";
+
+	public static final String SAFE_SEARCH_SAFE = "1";
+	public static final String SAFE_SEARCH_MODERATE = "2";
+	public static final String SAFE_SEARCH_RESTRICTED = "3";
+
 	private String[] keywords;
+	private TagMode tagMode = TagMode.ALL;
 	private double minimumLongitude = Double.MIN_VALUE;
 	private double minimumLatitude = Double.MIN_VALUE;
 	private double maximumLongitude = Double.MIN_VALUE;
 	private double maximumLatitude = Double.MIN_VALUE;
 	private DateTime minimalDate;
 	private DateTime maximalDate;
+	private int minimumAccuracy;
+	private String contentType;
+	private String media;
+	private String[] licenses;
+	private DateTime minimalUploadDate;
+	private DateTime maximalUploadDate;
+	private String safeSearch;
+	private SortOrder sortOrder;
+	private int maxResults;
 
 	public FlickrQuery(double minimumLongitude,
 			double minimumLatitude,
@@ -55,12 +84,51 @@ public class FlickrQuery {
 		this.maximumLatitude = maximumLatitude;
 		minimalDate = start;
 		maximalDate = end;
+		keywords = tags;
+	}
+
+	/**
+	 * Copies all constraints and filters of the given query.
+	 */
+	public FlickrQuery(FlickrQuery query) {
+		keywords = query.keywords != null ? query.keywords.clone() : null;
+		tagMode = query.tagMode;
+		minimumLongitude = query.minimumLongitude;
+		minimumLatitude = query.minimumLatitude;
+		maximumLongitude = query.maximumLongitude;
+		maximumLatitude = query.maximumLatitude;
+		minimalDate = query.minimalDate;
+		maximalDate = query.maximalDate;
+		minimumAccuracy = query.minimumAccuracy;
+		contentType = query.contentType;
+		media = query.media;
+		licenses = query.licenses != null ? query.licenses.clone() : null;
+		minimalUploadDate = query.minimalUploadDate;
+		maximalUploadDate = query.maximalUploadDate;
+		safeSearch = query.safeSearch;
+		sortOrder = query.sortOrder;
+		maxResults = query.maxResults;
 	}
 
 	public String[] getKeywords() {
 		return keywords;
 	}
 
+	public void setKeywords(String... keywords) {
+		this.keywords = keywords;
+	}
+
+	public TagMode getTagMode() {
+		return tagMode;
+	}
+
+	public void setTagMode(TagMode tagMode) {
+		if (tagMode == null) {
+			throw new IllegalArgumentException("tagMode must not be null");
+		}
+		this.tagMode = tagMode;
+	}
+
 	public String getMinLon() {
 		return Double.toString(minimumLongitude);
 	}
@@ -105,4 +173,274 @@ public class FlickrQuery {
 		return maximalDate != null;
 	}
 
+	/**
+	 * @return minimum longitude, minimum latitude, maximum longitude and
+	 *         maximum latitude like
+	 *         {@link org.n52.socialmedia.util.CoordinateUtil#createBBoxCordinates(double, double, double)}
+	 */
+	public double[] getBoundingBox() {
+		return new double[] { minimumLongitude, minimumLatitude, maximumLongitude, maximumLatitude };
+	}
+
+	public void setBoundingBox(double minimumLongitude, double minimumLatitude, double maximumLongitude, double maximumLatitude) {
+		this.minimumLongitude = minimumLongitude;
+		this.minimumLatitude = minimumLatitude;
+		this.maximumLongitude = maximumLongitude;
+		this.maximumLatitude = maximumLatitude;
+	}
+
+	/**
+	 * @return the start of the time span the photos were taken in, might be
+	 *         <code>null</code>
+	 */
+	public DateTime getStart() {
+		return minimalDate;
+	}
+
+	/**
+	 * @return the end of the time span the photos were taken in, might be
+	 *         <code>null</code>
+	 */
+	public DateTime getEnd() {
+		return maximalDate;
+	}
+
+	/**
+	 * @param start
+	 *            might be <code>null</code> for an open start
+	 * @param end
+	 *            might be <code>null</code> for an open end
+	 */
+	public void setTimeSpan(DateTime start, DateTime end) {
+		minimalDate = start;
+		maximalDate = end;
+	}
+
+	/**
+	 * @param minimumAccuracy
+	 *            the minimum geo accuracy from 1 (world) to 16 (street), 0 for
+	 *            no restriction
+	 */
+	public void setMinimumAccuracy(int minimumAccuracy) {
+		if (minimumAccuracy < 0 || minimumAccuracy > 16) {
+			throw new IllegalArgumentException("Accuracy must be between 1 and 16, or 0 for no restriction: " + minimumAccuracy);
+		}
+		this.minimumAccuracy = minimumAccuracy;
+	}
+
+	public int getMinimumAccuracy() {
+		return minimumAccuracy;
+	}
+
+	public boolean hasMinimumAccuracy() {
+		return minimumAccuracy > 0;
+	}
+
+	/**
+	 * @param contentType
+	 *            one of the <code>CONTENT_TYPE_*</code> constants or any
+	 *            other Flickr content type from 1 to 7
+	 */
+	public void setContentType(String contentType) {
+		this.contentType = contentType;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public boolean hasContentType() {
+		return contentType != null && !contentType.isEmpty();
+	}
+
+	/**
+	 * @param media
+	 *            {@link #MEDIA_ALL}, {@link #MEDIA_PHOTOS} or
+	 *            {@link #MEDIA_VIDEOS}
+	 */
+	public void setMedia(String media) {
+		if (media != null && !MEDIA_ALL.equals(media) && !MEDIA_PHOTOS.equals(media) && !MEDIA_VIDEOS.equals(media)) {
+			throw new IllegalArgumentException("Media type not supported: " + media);
+		}
+		this.media = media;
+	}
+
+	public String getMedia() {
+		return media;
+	}
+
+	public boolean hasMedia() {
+		return media != null;
+	}
+
+	/**
+	 * @param licenses
+	 *            Flickr license ids, see
+	 *            <code>flickr.photos.licenses.getInfo</code>
+	 */
+	public void setLicenses(String... licenses) {
+		this.licenses = licenses;
+	}
+
+	public String[] getLicenses() {
+		return licenses;
+	}
+
+	public boolean hasLicenses() {
+		return licenses != null &&
+				licenses.length > 0;
+	}
+
+	public void setMinUploadDate(DateTime minimalUploadDate) {
+		this.minimalUploadDate = minimalUploadDate;
+	}
+
+	public Date getMinUploadDate() {
+		return minimalUploadDate.toDate();
+	}
+
+	public boolean hasMinUploadDate() {
+		return minimalUploadDate != null;
+	}
+
+	public void setMaxUploadDate(DateTime maximalUploadDate) {
+		this.maximalUploadDate = maximalUploadDate;
+	}
+
+	public Date getMaxUploadDate() {
+		return maximalUploadDate.toDate();
+	}
+
+	public boolean hasMaxUploadDate() {
+		return maximalUploadDate != null;
+	}
+
+	/**
+	 * @param safeSearch
+	 *            one of the <code>SAFE_SEARCH_*</code> constants
+	 */
+	public void setSafeSearch(String safeSearch) {
+		this.safeSearch = safeSearch;
+	}
+
+	public String getSafeSearch() {
+		return safeSearch;
+	}
+
+	public boolean hasSafeSearch() {
+		return safeSearch != null && !safeSearch.isEmpty();
+	}
+
+	public void setSortOrder(SortOrder sortOrder) {
+		this.sortOrder = sortOrder;
+	}
+
+	public SortOrder getSortOrder() {
+		return sortOrder;
+	}
+
+	public boolean hasSortOrder() {
+		return sortOrder != null;
+	}
+
+	/**
+	 * @param maxResults
+	 *            the number of photos after which the pagination and
+	 *            enrichment stop, 0 for all photos. Combine it with a
+	 *            {@link #setSortOrder(SortOrder) sort order} to get the top
+	 *            results, e.g. the most recent or most interesting ones.
+	 */
+	public void setMaxResults(int maxResults) {
+		if (maxResults < 0) {
+			throw new IllegalArgumentException("maxResults must not be negative: " + maxResults);
+		}
+		this.maxResults = maxResults;
+	}
+
+	public int getMaxResults() {
+		return maxResults;
+	}
+
+	public boolean hasMaxResults() {
+		return maxResults > 0;
+	}
+
+	/**
+	 * Queries are equal if Flickr answers them alike: Flickr tags are case
+	 * insensitive, the order of keywords and licenses does not matter and
+	 * dates are compared by instant.
+	 */
+	@Override
+	public int hashCode() {
+		return getNormalizedForm().hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		FlickrQuery other = (FlickrQuery) obj;
+		return getNormalizedForm().equals(other.getNormalizedForm());
+	}
+
+	/**
+	 * @return the SHA-256 digest of the normalized query as hex string, equal
+	 *         for {@link #equals(Object) equal} queries in any JVM, e.g. to
+	 *         recognize the query of a journaled harvest
+	 */
+	public String getFingerprint() {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256")
+					.digest(getNormalizedForm().toString().getBytes(StandardCharsets.UTF_8));
+			StringBuilder fingerprint = new StringBuilder(2 * digest.length);
+			for (byte b : digest) {
+				fingerprint.append(String.format("%02x", b));
+			}
+			return fingerprint.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform supports SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private List<Object> getNormalizedForm() {
+		return Arrays.<Object>asList(normalize(keywords, true),
+				tagMode.name(),
+				minimumLongitude,
+				minimumLatitude,
+				maximumLongitude,
+				maximumLatitude,
+				getMillis(minimalDate),
+				getMillis(maximalDate),
+				minimumAccuracy,
+				contentType,
+				media,
+				normalize(licenses, false),
+				getMillis(minimalUploadDate),
+				getMillis(maximalUploadDate),
+				safeSearch,
+				sortOrder != null ? sortOrder.name() : null,
+				maxResults);
+	}
+
+	private static TreeSet<String> normalize(String[] values, boolean ignoreCase) {
+		TreeSet<String> normalized = new TreeSet<>();
+		if (values != null) {
+			for (String value : values) {
+				if (value != null && !value.trim().isEmpty()) {
+					normalized.add(ignoreCase ? value.trim().toLowerCase(Locale.ROOT) : value.trim());
+				}
+			}
+		}
+		return normalized;
+	}
+
+	private static Long getMillis(DateTime dateTime) {
+		return dateTime != null ? dateTime.getMillis() : null;
+	}
+
 }
@@ -0,0 +1,115 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A named bounding box which is harvested continuously.
+ */
+public class HarvestRegion {
+
+	private String name;
+	private double minimumLongitude;
+	private double minimumLatitude;
+	private double maximumLongitude;
+	private double maximumLatitude;
+
+	public HarvestRegion(String name,
+			double minimumLongitude,
+			double minimumLatitude,
+			double maximumLongitude,
+			double maximumLatitude) {
+		this.name = name;
+		this.minimumLongitude = minimumLongitude;
+		this.minimumLatitude = minimumLatitude;
+		this.maximumLongitude = maximumLongitude;
+		this.maximumLatitude = maximumLatitude;
+	}
+
+	/**
+	 * @param regions
+	 *            semicolon separated list of
+	 *            <code>name:minLon,minLat,maxLon,maxLat</code>
+	 */
+	public static List<HarvestRegion> parse(String regions) {
+		List<HarvestRegion> result = new ArrayList<>();
+		if (regions == null || regions.trim().isEmpty()) {
+			return result;
+		}
+		for (String region : regions.split(";")) {
+			if (region.trim().isEmpty()) {
+				continue;
+			}
+			String[] nameAndBbox = region.split(":");
+			String[] bbox = nameAndBbox.length == 2 ? nameAndBbox[1].split(",") : new String[0];
+			if (bbox.length != 4) {
+				throw new IllegalArgumentException(String.format(
+						"Region '%s' malformed, expected 'name:minLon,minLat,maxLon,maxLat'", region));
+			}
+			result.add(new HarvestRegion(nameAndBbox[0].trim(),
+					Double.parseDouble(bbox[0].trim()),
+					Double.parseDouble(bbox[1].trim()),
+					Double.parseDouble(bbox[2].trim()),
+					Double.parseDouble(bbox[3].trim())));
+		}
+		return result;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public double getMinimumLongitude() {
+		return minimumLongitude;
+	}
+
+	public double getMinimumLatitude() {
+		return minimumLatitude;
+	}
+
+	public double getMaximumLongitude() {
+		return maximumLongitude;
+	}
+
+	public double getMaximumLatitude() {
+		return maximumLatitude;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder(100).append("HarvestRegion [name=").append(name)
+				.append(", bbox=").append(minimumLongitude)
+				.append(",").append(minimumLatitude)
+				.append(",").append(maximumLongitude)
+				.append(",").append(maximumLatitude).append("]").toString();
+	}
+
+}
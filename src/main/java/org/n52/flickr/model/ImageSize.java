@@ -0,0 +1,62 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.model;
+
+/**
+ * The sizes Flickr provides for each photo, by the longest edge in pixels.
+ * The original is left out as it needs a secret of its own.
+ */
+public enum ImageSize {
+
+	SQUARE_75("s"),
+	SQUARE_150("q"),
+	THUMBNAIL_100("t"),
+	SMALL_240("m"),
+	SMALL_320("n"),
+	SMALL_400("w"),
+	MEDIUM_500(null),
+	MEDIUM_640("z"),
+	MEDIUM_800("c"),
+	LARGE_1024("b");
+
+	private final String suffix;
+
+	private ImageSize(String suffix) {
+		this.suffix = suffix;
+	}
+
+	/**
+	 * @return the suffix of the image URL, <code>null</code> for the default
+	 *         size without a suffix
+	 */
+	public String getSuffix() {
+		return suffix;
+	}
+
+}
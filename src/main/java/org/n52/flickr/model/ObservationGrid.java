@@ -0,0 +1,296 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Counts of observations per grid cell and time bucket over a bounding box.
+ * The counts are kept in a single primitive array, so the memory needed
+ * depends on the number of cells and buckets only, not on the number of
+ * photos folded in. Row 0 is the southernmost row and column 0 the
+ * westernmost column. Observations outside of the box or the time span are
+ * only counted in {@link #getOutside()}.
+ */
+public class ObservationGrid {
+
+	private static final int FORMAT_VERSION = 1;
+
+	private final double minimumLongitude;
+	private final double minimumLatitude;
+	private final double maximumLongitude;
+	private final double maximumLatitude;
+	private final int rows;
+	private final int columns;
+	private final long startMillis;
+	private final long bucketMillis;
+	private final int buckets;
+	private final int[] counts;
+	private long outside;
+
+	/**
+	 * Creates a grid with a single time bucket covering all times.
+	 * 
+	 * @param boundingBox
+	 *            <code>minLon, minLat, maxLon, maxLat</code> as returned by
+	 *            {@link FlickrQuery#getBoundingBox()}
+	 */
+	public ObservationGrid(double[] boundingBox, int rows, int columns) {
+		this(boundingBox, rows, columns, Long.MIN_VALUE, 0, 1);
+	}
+
+	/**
+	 * @param boundingBox
+	 *            <code>minLon, minLat, maxLon, maxLat</code> as returned by
+	 *            {@link FlickrQuery#getBoundingBox()}
+	 * @param startMillis
+	 *            the start of the first time bucket in milliseconds since
+	 *            the epoch
+	 * @param bucketMillis
+	 *            the length of a time bucket in milliseconds, ignored for a
+	 *            single bucket
+	 */
+	public ObservationGrid(double[] boundingBox, int rows, int columns, long startMillis, long bucketMillis, int buckets) {
+		if (boundingBox.length != 4 || boundingBox[0] >= boundingBox[2] || boundingBox[1] >= boundingBox[3]) {
+			throw new IllegalArgumentException("Bounding box malformed, expected 'minLon,minLat,maxLon,maxLat': "
+					+ Arrays.toString(boundingBox));
+		}
+		if (rows < 1 || columns < 1 || buckets < 1 || (buckets > 1 && bucketMillis < 1)) {
+			throw new IllegalArgumentException(String.format(
+					"Grid dimensions invalid: %d rows, %d columns, %d buckets of %d ms", rows, columns, buckets, bucketMillis));
+		}
+		if ((long) rows * columns * buckets > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format(
+					"Grid too large: %d rows, %d columns, %d buckets", rows, columns, buckets));
+		}
+		this.minimumLongitude = boundingBox[0];
+		this.minimumLatitude = boundingBox[1];
+		this.maximumLongitude = boundingBox[2];
+		this.maximumLatitude = boundingBox[3];
+		this.rows = rows;
+		this.columns = columns;
+		this.startMillis = startMillis;
+		this.bucketMillis = buckets > 1 ? bucketMillis : 0;
+		this.buckets = buckets;
+		this.counts = new int[rows * columns * buckets];
+	}
+
+	/**
+	 * Counts an observation in its cell and time bucket.
+	 * 
+	 * @param time
+	 *            in milliseconds since the epoch
+	 * @return <code>false</code> if the observation is outside of the grid
+	 */
+	public synchronized boolean add(double latitude, double longitude, long time) {
+		int index = indexOf(latitude, longitude, time);
+		if (index < 0) {
+			outside++;
+			return false;
+		}
+		counts[index]++;
+		return true;
+	}
+
+	/**
+	 * Adds the counts of a grid with the same geometry, e.g. from an earlier
+	 * run loaded with {@link #load(Path)}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the geometry of the grids differs
+	 */
+	public void merge(ObservationGrid other) {
+		if (!hasSameGeometry(other)) {
+			throw new IllegalArgumentException("Grids differ in bounding box, dimensions or time buckets");
+		}
+		int[] otherCounts;
+		long otherOutside;
+		synchronized (other) {
+			otherCounts = other.counts.clone();
+			otherOutside = other.outside;
+		}
+		synchronized (this) {
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] += otherCounts[i];
+			}
+			outside += otherOutside;
+		}
+	}
+
+	public boolean hasSameGeometry(ObservationGrid other) {
+		return Double.doubleToLongBits(minimumLongitude) == Double.doubleToLongBits(other.minimumLongitude)
+				&& Double.doubleToLongBits(minimumLatitude) == Double.doubleToLongBits(other.minimumLatitude)
+				&& Double.doubleToLongBits(maximumLongitude) == Double.doubleToLongBits(other.maximumLongitude)
+				&& Double.doubleToLongBits(maximumLatitude) == Double.doubleToLongBits(other.maximumLatitude)
+				&& rows == other.rows
+				&& columns == other.columns
+				&& startMillis == other.startMillis
+				&& bucketMillis == other.bucketMillis
+				&& buckets == other.buckets;
+	}
+
+	public synchronized int getCount(int row, int column, int bucket) {
+		if (row < 0 || row >= rows || column < 0 || column >= columns || bucket < 0 || bucket >= buckets) {
+			throw new IndexOutOfBoundsException(String.format("Cell %d/%d/%d", row, column, bucket));
+		}
+		return counts[(bucket * rows + row) * columns + column];
+	}
+
+	/**
+	 * @return a copy of the counts, indexed by
+	 *         <code>(bucket * rows + row) * columns + column</code>
+	 */
+	public synchronized int[] getCounts() {
+		return counts.clone();
+	}
+
+	/**
+	 * @return the number of observations counted in the grid, without the
+	 *         ones outside
+	 */
+	public synchronized long getTotal() {
+		long total = 0;
+		for (int count : counts) {
+			total += count;
+		}
+		return total;
+	}
+
+	public synchronized long getOutside() {
+		return outside;
+	}
+
+	public double[] getBoundingBox() {
+		return new double[] { minimumLongitude, minimumLatitude, maximumLongitude, maximumLatitude };
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	public long getBucketMillis() {
+		return bucketMillis;
+	}
+
+	public int getBuckets() {
+		return buckets;
+	}
+
+	/**
+	 * Reads a grid written by {@link #store(Path)}.
+	 */
+	public static ObservationGrid load(Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			int version = in.readInt();
+			if (version != FORMAT_VERSION) {
+				throw new IOException(String.format("Unsupported grid format version %d in %s", version, file));
+			}
+			double[] boundingBox = { in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble() };
+			int rows = in.readInt();
+			int columns = in.readInt();
+			long startMillis = in.readLong();
+			long bucketMillis = in.readLong();
+			int buckets = in.readInt();
+			ObservationGrid grid = new ObservationGrid(boundingBox, rows, columns, startMillis, bucketMillis, buckets);
+			for (int i = 0; i < grid.counts.length; i++) {
+				grid.counts[i] = in.readInt();
+			}
+			grid.outside = in.readLong();
+			return grid;
+		}
+	}
+
+	public synchronized void store(Path file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			out.writeInt(FORMAT_VERSION);
+			out.writeDouble(minimumLongitude);
+			out.writeDouble(minimumLatitude);
+			out.writeDouble(maximumLongitude);
+			out.writeDouble(maximumLatitude);
+			out.writeInt(rows);
+			out.writeInt(columns);
+			out.writeLong(startMillis);
+			out.writeLong(bucketMillis);
+			out.writeInt(buckets);
+			for (int count : counts) {
+				out.writeInt(count);
+			}
+			out.writeLong(outside);
+		}
+	}
+
+	/**
+	 * The maximum bounds belong to the last row and column, so photos on the
+	 * border of the box are not lost.
+	 */
+	private int indexOf(double latitude, double longitude, long time) {
+		if (latitude < minimumLatitude || latitude > maximumLatitude
+				|| longitude < minimumLongitude || longitude > maximumLongitude) {
+			return -1;
+		}
+		int bucket = 0;
+		if (buckets > 1) {
+			if (time < startMillis) {
+				return -1;
+			}
+			long offset = (time - startMillis) / bucketMillis;
+			if (offset >= buckets) {
+				return -1;
+			}
+			bucket = (int) offset;
+		}
+		int row = Math.min(rows - 1,
+				(int) ((latitude - minimumLatitude) / (maximumLatitude - minimumLatitude) * rows));
+		int column = Math.min(columns - 1,
+				(int) ((longitude - minimumLongitude) / (maximumLongitude - minimumLongitude) * columns));
+		return (bucket * rows + row) * columns + column;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("ObservationGrid [%d rows, %d columns, %d buckets, total=%d, outside=%d]",
+				rows, columns, buckets, getTotal(), outside);
+	}
+
+}
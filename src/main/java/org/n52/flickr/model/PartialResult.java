@@ -0,0 +1,111 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.model;
+
+import java.util.Collection;
+
+/**
+ * The results of a query which might have been stopped by its deadline or
+ * an error, together with the extent of the pagination covered.
+ * 
+ * @param <T>
+ *            the type of the results
+ */
+public class PartialResult<T> {
+
+	private final Collection<T> items;
+
+	private final boolean complete;
+
+	private final int pagesCovered;
+
+	private final int pages;
+
+	private final int estimatedTotal;
+
+	private final Exception failure;
+
+	public PartialResult(Collection<T> items, boolean complete, int pagesCovered, int pages, int estimatedTotal, Exception failure) {
+		this.items = items;
+		this.complete = complete;
+		this.pagesCovered = pagesCovered;
+		this.pages = pages;
+		this.estimatedTotal = estimatedTotal;
+		this.failure = failure;
+	}
+
+	public Collection<T> getItems() {
+		return items;
+	}
+
+	/**
+	 * @return <code>true</code> if the query ran to its end, i.e. all pages
+	 *         or the result budget
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public int getPagesCovered() {
+		return pagesCovered;
+	}
+
+	/**
+	 * @return the number of pages known when the query stopped
+	 */
+	public int getPages() {
+		return pages;
+	}
+
+	/**
+	 * @return Flickr's estimate of the number of matching photos, which
+	 *         includes photos skipped for missing geo location
+	 */
+	public int getEstimatedTotal() {
+		return estimatedTotal;
+	}
+
+	/**
+	 * @return the error which stopped the query or <code>null</code>
+	 */
+	public Exception getFailure() {
+		return failure;
+	}
+
+	public boolean hasFailure() {
+		return failure != null;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("PartialResult [items=%d, complete=%s, pagesCovered=%d, pages=%d, estimatedTotal=%d, failure=%s]",
+				items.size(), complete, pagesCovered, pages, estimatedTotal, failure);
+	}
+
+}
@@ -0,0 +1,59 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.model;
+
+import com.flickr4java.flickr.photos.SearchParameters;
+
+/**
+ * Sort orders supported by <code>flickr.photos.search</code>.
+ */
+public enum SortOrder {
+
+	DATE_POSTED_DESC(SearchParameters.DATE_POSTED_DESC),
+	DATE_POSTED_ASC(SearchParameters.DATE_POSTED_ASC),
+	DATE_TAKEN_DESC(SearchParameters.DATE_TAKEN_DESC),
+	DATE_TAKEN_ASC(SearchParameters.DATE_TAKEN_ASC),
+	INTERESTINGNESS_DESC(SearchParameters.INTERESTINGNESS_DESC),
+	INTERESTINGNESS_ASC(SearchParameters.INTERESTINGNESS_ASC),
+	RELEVANCE(SearchParameters.RELEVANCE);
+
+	private final int flickrSort;
+
+	private SortOrder(int flickrSort) {
+		this.flickrSort = flickrSort;
+	}
+
+	/**
+	 * @return the matching constant of {@link SearchParameters}
+	 */
+	public int getFlickrSort() {
+		return flickrSort;
+	}
+
+}
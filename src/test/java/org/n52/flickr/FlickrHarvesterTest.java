@@ -28,10 +28,17 @@
  */
 package org.n52.flickr;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 import java.util.Collection;
+import java.util.Properties;
 
 import org.junit.Ignore;
 import org.junit.Test;
+import org.n52.flickr.dao.ExecutionMode;
 import org.n52.socialmedia.DecodingException;
 import org.n52.socialmedia.model.HumanVisualPerceptionObservation;
 
@@ -44,5 +51,50 @@ public class FlickrHarvesterTest {
 		Collection<HumanVisualPerceptionObservation> observations = new FlickrHarvester().searchForObservationsAt(51.930077892, 7.625061267);
 		// TODO add unit tests
 	}
+
+	@Test
+	public void shouldFallBackToDefaultForMissingOrBlankProperty() {
+		Properties props = new Properties();
+		props.setProperty("ASYNC_POOL_SIZE", "  ");
+
+		assertNull(FlickrHarvester.getStringProperty(props, "ASYNC_POOL_SIZE"));
+		assertEquals(8, FlickrHarvester.getIntProperty(props, "ASYNC_POOL_SIZE", 8));
+		assertEquals(10L, FlickrHarvester.getLongProperty(props, "TILE_LEASE_MINUTES", 10L));
+		assertEquals(ExecutionMode.SEQUENTIAL,
+				FlickrHarvester.getEnumProperty(props, "EXECUTION_MODE", ExecutionMode.class, ExecutionMode.SEQUENTIAL));
+	}
+
+	@Test
+	public void shouldTrimPropertyValues() {
+		Properties props = new Properties();
+		props.setProperty("ASYNC_POOL_SIZE", " 16 ");
+		props.setProperty("HEDGING_PERCENTILE", "0.95 ");
+		props.setProperty("EXECUTION_MODE", " PLATFORM_THREADS");
+
+		assertEquals(16, FlickrHarvester.getIntProperty(props, "ASYNC_POOL_SIZE", 8));
+		assertEquals(0.95, FlickrHarvester.getDoubleProperty(props, "HEDGING_PERCENTILE", 0), 0);
+		assertEquals(ExecutionMode.PLATFORM_THREADS,
+				FlickrHarvester.getEnumProperty(props, "EXECUTION_MODE", ExecutionMode.class, ExecutionMode.SEQUENTIAL));
+	}
+
+	@Test
+	public void shouldNameThePropertyOfAnInvalidValue() {
+		Properties props = new Properties();
+		props.setProperty("API_CALLS_PER_HOUR", "3600/h");
+		props.setProperty("EXECUTION_MODE", "PARALLEL");
+
+		try {
+			FlickrHarvester.getIntProperty(props, "API_CALLS_PER_HOUR", 0);
+			fail("Invalid integer accepted");
+		} catch (IllegalStateException e) {
+			assertEquals("API_CALLS_PER_HOUR must be an integer: 3600/h", e.getMessage());
+		}
+		try {
+			FlickrHarvester.getEnumProperty(props, "EXECUTION_MODE", ExecutionMode.class, ExecutionMode.SEQUENTIAL);
+			fail("Invalid execution mode accepted");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage().startsWith("EXECUTION_MODE must be one of [SEQUENTIAL, PLATFORM_THREADS, VIRTUAL_THREADS]"));
+		}
+	}
 	
 }
@@ -0,0 +1,155 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.n52.flickr.model.FlickrMessage;
+
+public class EncodedObservationCacheTest {
+
+	private final AtomicInteger encodings = new AtomicInteger();
+
+	@Test
+	public void shouldEncodeSameMessageOnce() throws Exception {
+		EncodedObservationCache cache = createCache(10000);
+		FlickrMessage flickrMessage = createMessage("1", "Flooded road");
+
+		cache.get(flickrMessage);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		cache.writeTo(flickrMessage, out);
+
+		assertEquals("<title>Flooded road</title>", new String(out.toByteArray(), StandardCharsets.UTF_8));
+		assertEquals(1, encodings.get());
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void shouldEncodeChangedMessageAgain() {
+		EncodedObservationCache cache = createCache(10000);
+		cache.get(createMessage("1", "Flooded road"));
+
+		cache.get(createMessage("1", "Flooded road near Münster"));
+
+		assertEquals(2, encodings.get());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void shouldEncodeMessageAgainAfterEditWithEqualHashCode() {
+		assertEquals("Aa".hashCode(), "BB".hashCode());
+		EncodedObservationCache cache = createCache(10000);
+		cache.get(createMessage("1", "Aa"));
+
+		ByteBuffer fragment = cache.get(createMessage("1", "BB"));
+
+		assertEquals(2, encodings.get());
+		assertEquals("<title>BB</title>", StandardCharsets.UTF_8.decode(fragment).toString());
+	}
+
+	@Test
+	public void shouldServeMessageOfSameLastUpdateFromCache() {
+		EncodedObservationCache cache = createCache(10000);
+		cache.get(createMessage("1", "Flooded road", 1000L));
+
+		ByteBuffer fragment = cache.get(createMessage("1", "Flooded road", 1000L));
+
+		assertEquals(1, encodings.get());
+		assertEquals(1, cache.getHits());
+		assertEquals("<title>Flooded road</title>", StandardCharsets.UTF_8.decode(fragment).toString());
+	}
+
+	@Test
+	public void shouldEncodeMessageOfNewerLastUpdateAgain() {
+		EncodedObservationCache cache = createCache(10000);
+		cache.get(createMessage("1", "Flooded road", 1000L));
+
+		ByteBuffer fragment = cache.get(createMessage("1", "Flooded road near Münster", 2000L));
+
+		assertEquals(2, encodings.get());
+		assertEquals("<title>Flooded road near Münster</title>", StandardCharsets.UTF_8.decode(fragment).toString());
+	}
+
+	@Test
+	public void shouldEncodeInvalidatedMessageAgain() {
+		EncodedObservationCache cache = createCache(10000);
+		cache.get(createMessage("1", "Flooded road", 1000L));
+
+		cache.invalidate("1");
+		cache.get(createMessage("1", "Flooded road", 1000L));
+
+		assertEquals(2, encodings.get());
+		assertEquals(0, cache.getHits());
+	}
+
+	@Test
+	public void shouldEvictLeastRecentlyUsedBeyondByteBound() {
+		EncodedObservationCache cache = createCache(400);
+		FlickrMessage first = createMessage("1", "Flooded road");
+		cache.get(first);
+		cache.get(createMessage("2", "Flooded meadow"));
+		cache.get(first);
+		cache.get(createMessage("3", "Flooded cellar"));
+
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertTrue(cache.getBytes() <= cache.getMaxBytes());
+		cache.get(first);
+		assertEquals(3, encodings.get());
+	}
+
+	private EncodedObservationCache createCache(long maxBytes) {
+		return new EncodedObservationCache(maxBytes, flickrMessage -> {
+			encodings.incrementAndGet();
+			return "<title>" + flickrMessage.getTitle() + "</title>";
+		});
+	}
+
+	private FlickrMessage createMessage(String id, String title) {
+		FlickrMessage flickrMessage = new FlickrMessage();
+		flickrMessage.setIdentifier(id);
+		flickrMessage.setTitle(title);
+		return flickrMessage;
+	}
+
+	private FlickrMessage createMessage(String id, String title, long lastUpdate) {
+		FlickrMessage flickrMessage = createMessage(id, title);
+		flickrMessage.setLastUpdate(new Date(lastUpdate));
+		return flickrMessage;
+	}
+
+}
@@ -0,0 +1,132 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.n52.flickr.model.AccessToken;
+import org.n52.flickr.model.FlickrMessage;
+import org.n52.flickr.model.FlickrQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.flickr4java.flickr.FlickrException;
+import com.flickr4java.flickr.photos.SearchParameters;
+
+/**
+ * Compares {@link FlickrDAO#executeQuery(FlickrQuery)} in
+ * {@link ExecutionMode#PLATFORM_THREADS} and
+ * {@link ExecutionMode#VIRTUAL_THREADS} with simulated blocking Flickr
+ * calls. Not part of the regular build, run it with
+ * <code>mvn test -Dtest=ExecutionModeBenchmark</code> on a Java 21 runtime.
+ */
+public class ExecutionModeBenchmark {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ExecutionModeBenchmark.class);
+
+	/**
+	 * One result page, enriched by a <code>getLocation</code> and a
+	 * <code>getInfo</code> call per photo.
+	 */
+	private static final int PHOTOS = 500;
+
+	private static final long CALL_LATENCY_MILLIS = 200;
+
+	private static final int PLATFORM_POOL_SIZE = 32;
+
+	private static final int CALLS_PER_SECOND = 500;
+
+	@Test
+	public void compareVirtualAndPlatformThreads() throws Exception {
+		Assume.assumeTrue(ExecutionMode.isVirtualThreadsSupported());
+
+		// warm up
+		run(ExecutionMode.PLATFORM_THREADS);
+		run(ExecutionMode.VIRTUAL_THREADS);
+
+		long platform = run(ExecutionMode.PLATFORM_THREADS);
+		long virtual = run(ExecutionMode.VIRTUAL_THREADS);
+
+		LOGGER.info("{} photos at {} ms latency and {} calls/s: {} platform threads {} ms, virtual threads {} ms",
+				PHOTOS, CALL_LATENCY_MILLIS, CALLS_PER_SECOND, PLATFORM_POOL_SIZE, platform, virtual);
+	}
+
+	private long run(ExecutionMode mode) throws Exception {
+		final RateLimiter rateLimiter = new RateLimiter(CALLS_PER_SECOND, TimeUnit.SECONDS);
+		FlickrDAO dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret") {
+
+			@Override
+			SearchPage fetchPage(SearchParameters params, int perPage, int pageIndex) throws FlickrException {
+				call();
+				SearchPage searchPage = new SearchPage(1, 1, PHOTOS);
+				for (int i = 0; i < PHOTOS; i++) {
+					searchPage.addPhoto(Integer.toString(i), 52f, 7f, 0L, 0L);
+				}
+				return searchPage;
+			}
+
+			@Override
+			FlickrMessage createFlickrMessage(String photoID) throws FlickrException {
+				// getLocation and getInfo
+				call();
+				call();
+				FlickrMessage flickrMessage = new FlickrMessage();
+				flickrMessage.setIdentifier(photoID);
+				return flickrMessage;
+			}
+
+			private void call() throws FlickrException {
+				try {
+					rateLimiter.acquire();
+					Thread.sleep(CALL_LATENCY_MILLIS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new FlickrException("interrupted", "Interrupted while calling");
+				}
+			}
+
+		};
+		ExecutorService executor = mode.createExecutor(PLATFORM_POOL_SIZE);
+		dao.setExecutionMode(mode, executor);
+		try {
+			long start = System.nanoTime();
+			assertEquals(PHOTOS, dao.executeQuery(new FlickrQuery(7.5, 51.9, 7.7, 52.0, null, null, null)).size());
+			return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		} finally {
+			executor.shutdownNow();
+			dao.close();
+		}
+	}
+
+}
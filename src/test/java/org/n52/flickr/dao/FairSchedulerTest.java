@@ -0,0 +1,130 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class FairSchedulerTest {
+
+	private final List<String> granted = Collections.synchronizedList(new ArrayList<String>());
+
+	@Test
+	public void shouldServeInteractiveBeforeBulkCalls() throws Exception {
+		FairScheduler scheduler = new FairScheduler(2, TimeUnit.SECONDS, 10);
+		scheduler.acquire(new TenantContext("a", CallPriority.BULK));
+
+		List<Thread> threads = new ArrayList<>();
+		threads.add(startCall(scheduler, new TenantContext("a", CallPriority.BULK)));
+		awaitArrived(scheduler, 2);
+		threads.add(startCall(scheduler, new TenantContext("b", CallPriority.INTERACTIVE)));
+		awaitArrived(scheduler, 3);
+		join(threads);
+
+		assertEquals(Arrays.asList("b/INTERACTIVE", "a/BULK"), granted);
+	}
+
+	@Test
+	public void shouldShareSlotsByWeight() throws Exception {
+		FairScheduler scheduler = new FairScheduler(5, TimeUnit.SECONDS, 10);
+		scheduler.setWeights("a:3;b:1");
+		scheduler.acquire(new TenantContext("c", CallPriority.BULK));
+
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			threads.add(startCall(scheduler, new TenantContext("a", CallPriority.BULK)));
+			threads.add(startCall(scheduler, new TenantContext("b", CallPriority.BULK)));
+			awaitArrived(scheduler, 2 * i + 3);
+		}
+		join(threads);
+
+		assertEquals(3, Collections.frequency(granted.subList(0, 4), "a/BULK"));
+		assertEquals(4, Collections.frequency(granted, "b/BULK"));
+	}
+
+	@Test(expected = RejectedExecutionException.class)
+	public void shouldRejectCallsBeyondQueueDepth() throws Exception {
+		FairScheduler scheduler = new FairScheduler(1, TimeUnit.HOURS, 1);
+		TenantContext tenant = new TenantContext("a", CallPriority.BULK);
+		scheduler.acquire(tenant);
+		Thread waiting = startCall(scheduler, tenant);
+		try {
+			awaitArrived(scheduler, 2);
+			scheduler.acquire(tenant);
+		} finally {
+			waiting.interrupt();
+			waiting.join();
+		}
+	}
+
+	private Thread startCall(final FairScheduler scheduler, final TenantContext tenant) {
+		Thread thread = new Thread(() -> {
+			try {
+				scheduler.acquire(tenant);
+				granted.add(tenant.toString());
+			} catch (InterruptedException e) {
+				// test finished
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Waits until the given number of calls is granted or waiting.
+	 */
+	private void awaitArrived(FairScheduler scheduler, int calls) throws InterruptedException {
+		while (getArrived(scheduler) < calls) {
+			Thread.sleep(1);
+		}
+	}
+
+	private long getArrived(FairScheduler scheduler) {
+		long arrived = 0;
+		for (TenantUsage usage : scheduler.getUsage()) {
+			arrived += usage.getGranted() + usage.getQueued();
+		}
+		return arrived;
+	}
+
+	private void join(List<Thread> threads) throws InterruptedException {
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+}
@@ -0,0 +1,633 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+import org.junit.Assume;
+import org.junit.Test;
+import org.n52.flickr.model.AccessToken;
+import org.n52.flickr.model.FlickrMessage;
+import org.n52.flickr.model.FlickrQuery;
+import org.n52.flickr.model.PartialResult;
+import org.n52.flickr.model.SortOrder;
+import org.n52.flickr.model.TagMode;
+
+import com.flickr4java.flickr.FlickrException;
+import com.flickr4java.flickr.photos.SearchParameters;
+
+public class FlickrDAOTest {
+
+	@Test
+	public void shouldUseMaximumPageSizeWithoutResultBudget() {
+		assertEquals(500, FlickrDAO.getPhotosPerPage(createQuery(0)));
+	}
+
+	@Test
+	public void shouldFetchSmallBudgetWithinOnePage() {
+		assertEquals(50, FlickrDAO.getPhotosPerPage(createQuery(50)));
+		assertEquals(500, FlickrDAO.getPhotosPerPage(createQuery(500)));
+	}
+
+	@Test
+	public void shouldSpreadLargeBudgetEvenlyOverFewestPages() {
+		assertEquals(400, FlickrDAO.getPhotosPerPage(createQuery(1200)));
+		assertEquals(251, FlickrDAO.getPhotosPerPage(createQuery(501)));
+	}
+
+	@Test
+	public void shouldCreateSearchParametersOfQuery() {
+		FlickrDAO dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret");
+		FlickrQuery query = createQuery(0);
+		query.setMinimumAccuracy(11);
+		query.setSortOrder(SortOrder.DATE_TAKEN_ASC);
+		query.setLicenses("4", "5", "9");
+		query.setMinUploadDate(new DateTime(2015, 3, 1, 0, 0));
+		query.setMaxUploadDate(new DateTime(2015, 3, 31, 0, 0));
+
+		SearchParameters params = dao.createSearchParameters(query);
+
+		assertEquals(11, params.getAccuracy());
+		assertEquals(SearchParameters.DATE_TAKEN_ASC, params.getSort());
+		assertEquals("4,5,9", params.getLicense());
+		assertEquals(new DateTime(2015, 3, 1, 0, 0).toDate(), params.getMinUploadDate());
+		assertEquals(new DateTime(2015, 3, 31, 0, 0).toDate(), params.getMaxUploadDate());
+	}
+
+	@Test
+	public void shouldLeaveOutUnrestrictedAccuracy() {
+		FlickrDAO dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret");
+		FlickrQuery query = createQuery(0);
+		query.setMinimumAccuracy(0);
+
+		SearchParameters params = dao.createSearchParameters(query);
+
+		assertEquals(0, params.getAccuracy());
+		assertNull(params.getLicense());
+		assertNull(params.getMinUploadDate());
+	}
+
+	@Test
+	public void shouldSplitLongAnyTagListIntoChunks() {
+		FlickrQuery query = createQuery(0);
+		query.setKeywords(createTags(45));
+		query.setTagMode(TagMode.ANY);
+
+		assertTrue(FlickrDAO.requiresTagFanOut(query));
+		List<FlickrQuery> subQueries = FlickrDAO.splitByTags(query);
+		assertEquals(3, subQueries.size());
+		assertEquals(20, subQueries.get(0).getKeywords().length);
+		assertEquals(5, subQueries.get(2).getKeywords().length);
+		assertEquals("tag44", subQueries.get(2).getKeywords()[4]);
+		assertEquals(query.getMinLon(), subQueries.get(1).getMinLon());
+		assertEquals(TagMode.ANY, subQueries.get(1).getTagMode());
+	}
+
+	@Test
+	public void shouldNotSplitAllTagQuery() {
+		FlickrQuery query = createQuery(0);
+		query.setKeywords(new String[45]);
+
+		assertFalse(FlickrDAO.requiresTagFanOut(query));
+	}
+
+	@Test
+	public void shouldEnrichNoMoreThanBudgetOverAllTagChunks() throws Exception {
+		final AtomicInteger chunks = new AtomicInteger();
+		final AtomicInteger enrichments = new AtomicInteger();
+		FlickrDAO dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret") {
+
+			@Override
+			SearchPage fetchPage(SearchParameters params, int perPage, int pageIndex) {
+				SearchPage searchPage = new SearchPage(1, 1, 2);
+				searchPage.addPhoto("shared", 52f, 7f, 0L, 0L);
+				searchPage.addPhoto("chunk" + chunks.incrementAndGet(), 52f, 7f, 0L, 0L);
+				return searchPage;
+			}
+
+			@Override
+			FlickrMessage createFlickrMessage(String photoID) {
+				enrichments.incrementAndGet();
+				FlickrMessage flickrMessage = new FlickrMessage();
+				flickrMessage.setIdentifier(photoID);
+				return flickrMessage;
+			}
+
+		};
+		FlickrQuery query = createQuery(3);
+		query.setKeywords(createTags(45));
+		query.setTagMode(TagMode.ANY);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Collection<FlickrMessage> flickrPhotos = dao.executeQueryAsync(query, executor).get(5, TimeUnit.SECONDS);
+
+			List<String> photoIds = new ArrayList<>();
+			for (FlickrMessage flickrMessage : flickrPhotos) {
+				photoIds.add(flickrMessage.getIdentifier());
+			}
+			assertEquals(Arrays.asList("shared", "chunk1", "chunk2"), photoIds);
+			assertEquals(3, enrichments.get());
+			assertEquals(2, chunks.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void shouldShareUnmodifiableResults() throws Exception {
+		FlickrDAO dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret") {
+
+			@Override
+			SearchPage fetchPage(SearchParameters params, int perPage, int pageIndex) {
+				SearchPage searchPage = new SearchPage(1, 1, 1);
+				searchPage.addPhoto("1", 52f, 7f, 0L, 0L);
+				return searchPage;
+			}
+
+			@Override
+			FlickrMessage createFlickrMessage(String photoID) {
+				FlickrMessage flickrMessage = new FlickrMessage();
+				flickrMessage.setIdentifier(photoID);
+				return flickrMessage;
+			}
+
+		};
+		dao.setQueryResultCache(new QueryResultCache(10, 1, TimeUnit.MINUTES));
+
+		assertUnmodifiable(dao.executeQuery(createQuery(0)));
+		// served from the cache
+		assertUnmodifiable(dao.executeQuery(createQuery(0)));
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			assertUnmodifiable(dao.executeQueryAsync(createQuery(1), executor).get(5, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, dao.getQueryResultCache().getHits());
+	}
+
+	@Test
+	public void shouldIssueNoCallAfterDeadline() {
+		FlickrDAO dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret");
+
+		PartialResult<FlickrMessage> result = dao.executeQuery(createQuery(0), DateTime.now().minusMinutes(1));
+
+		assertFalse(result.isComplete());
+		assertFalse(result.hasFailure());
+		assertTrue(result.getItems().isEmpty());
+		assertEquals(0, result.getPagesCovered());
+	}
+
+	@Test
+	public void shouldInterruptPageCallRunningAtDeadline() throws InterruptedException {
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		FlickrDAO dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret") {
+
+			@Override
+			SearchPage fetchPage(SearchParameters params, int perPage, int pageIndex) throws FlickrException {
+				return sleep(interrupted);
+			}
+
+		};
+
+		long start = System.currentTimeMillis();
+		PartialResult<FlickrMessage> result = dao.executeQuery(createQuery(0), DateTime.now().plusMillis(200));
+
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertFalse(result.isComplete());
+		assertFalse(result.hasFailure());
+		assertTrue(result.getItems().isEmpty());
+		assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void shouldInterruptEnrichmentsRunningAtDeadline() throws InterruptedException {
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		FlickrDAO dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret") {
+
+			@Override
+			SearchPage fetchPage(SearchParameters params, int perPage, int pageIndex) {
+				SearchPage searchPage = new SearchPage(1, 1, 2);
+				searchPage.addPhoto("1", 52f, 7f, 0L, 0L);
+				searchPage.addPhoto("2", 52f, 7f, 0L, 0L);
+				return searchPage;
+			}
+
+			@Override
+			FlickrMessage createFlickrMessage(String photoID) throws FlickrException {
+				if ("1".equals(photoID)) {
+					return new FlickrMessage();
+				}
+				return sleep(interrupted);
+			}
+
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		dao.setExecutionMode(ExecutionMode.PLATFORM_THREADS, executor);
+		try {
+			long start = System.currentTimeMillis();
+			PartialResult<FlickrMessage> result = dao.executeQuery(createQuery(0), DateTime.now().plusMillis(200));
+
+			assertTrue(System.currentTimeMillis() - start < 5000);
+			assertFalse(result.isComplete());
+			assertEquals(1, result.getItems().size());
+			assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void shouldFailSpeculativeCallOfCancelledPrefetch() {
+		FlickrDAO dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret");
+		dao.setRateLimiter(new RateLimiter(3600, TimeUnit.HOURS));
+
+		try (TenantContext.Scope scope = new TenantContext("mapping", CallPriority.SPECULATIVE).enter()) {
+			Thread.currentThread().interrupt();
+			dao.getById("1");
+			fail("Call of cancelled prefetch should have failed");
+		} catch (FlickrException e) {
+			assertEquals("interrupted", e.getErrorCode());
+			assertFalse(Thread.currentThread().isInterrupted());
+		}
+	}
+
+	@Test
+	public void shouldFailSpeculativeCallWithoutBudgetLeft() throws Exception {
+		FlickrDAO dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret");
+		RateLimiter rateLimiter = new RateLimiter(1, TimeUnit.HOURS);
+		rateLimiter.acquire();
+		dao.setRateLimiter(rateLimiter);
+
+		try (TenantContext.Scope scope = new TenantContext("mapping", CallPriority.SPECULATIVE).enter()) {
+			dao.getById("1");
+			fail("Speculative call should have failed");
+		} catch (FlickrException e) {
+			assertEquals(FlickrDAO.NO_BUDGET, e.getErrorCode());
+		}
+	}
+
+	/**
+	 * A call hanging until it is interrupted.
+	 */
+	private static <T> T sleep(CountDownLatch interrupted) throws FlickrException {
+		try {
+			Thread.sleep(60000);
+			throw new IllegalStateException("Call was not interrupted");
+		} catch (InterruptedException e) {
+			interrupted.countDown();
+			throw new FlickrException("interrupted", "Interrupted");
+		}
+	}
+
+	private static void assertUnmodifiable(Collection<FlickrMessage> flickrPhotos) {
+		assertEquals(1, flickrPhotos.size());
+		try {
+			flickrPhotos.clear();
+			fail("Shared result should be unmodifiable");
+		} catch (UnsupportedOperationException e) {
+			assertEquals(1, flickrPhotos.size());
+		}
+	}
+
+	@Test
+	public void shouldStopPagingWhenAsyncQueryIsCancelled() throws Exception {
+		final CountDownLatch firstPage = new CountDownLatch(1);
+		final CountDownLatch cancelled = new CountDownLatch(1);
+		final AtomicInteger pageCalls = new AtomicInteger();
+		FlickrDAO dao = createPagingDAO(pageCalls, firstPage, cancelled);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			CompletableFuture<Collection<FlickrMessage>> result = dao.executeQueryAsync(createQuery(0), executor);
+			assertTrue(firstPage.await(5, TimeUnit.SECONDS));
+
+			assertTrue(result.cancel(true));
+			cancelled.countDown();
+
+			assertNoFurtherPages(executor, pageCalls);
+			assertTrue(result.isCancelled());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void shouldCompleteExceptionallyAndStopPagingOnTimeout() throws Exception {
+		final CountDownLatch firstPage = new CountDownLatch(1);
+		final CountDownLatch timedOut = new CountDownLatch(1);
+		final AtomicInteger pageCalls = new AtomicInteger();
+		FlickrDAO dao = createPagingDAO(pageCalls, firstPage, timedOut);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		ScheduledExecutorService timeoutScheduler = Executors.newSingleThreadScheduledExecutor();
+		try {
+			final CompletableFuture<Collection<FlickrMessage>> result = dao.executeQueryAsync(createQuery(0), executor);
+			// as the harvester applies its timeout
+			timeoutScheduler.schedule(() -> {
+				result.completeExceptionally(new TimeoutException("Query timed out"));
+				timedOut.countDown();
+			}, 50, TimeUnit.MILLISECONDS);
+
+			try {
+				result.get(5, TimeUnit.SECONDS);
+				fail("Query should have timed out");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof TimeoutException);
+			}
+			assertNoFurtherPages(executor, pageCalls);
+		} finally {
+			timeoutScheduler.shutdownNow();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void shouldPropagateFailedPageToAsyncQuery() throws Exception {
+		FlickrDAO dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret") {
+
+			@Override
+			SearchPage fetchPage(SearchParameters params, int perPage, int pageIndex) throws FlickrException {
+				if (pageIndex == 2) {
+					throw new FlickrException("105", "Service currently unavailable");
+				}
+				SearchPage searchPage = new SearchPage(pageIndex, 3, 3);
+				searchPage.addPhoto(Integer.toString(pageIndex), 52f, 7f, 0L, 0L);
+				return searchPage;
+			}
+
+			@Override
+			FlickrMessage createFlickrMessage(String photoID) {
+				return new FlickrMessage();
+			}
+
+		};
+		assertFailsWith("105", dao);
+	}
+
+	@Test
+	public void shouldPropagateFailedEnrichmentToAsyncQuery() throws Exception {
+		FlickrDAO dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret") {
+
+			@Override
+			SearchPage fetchPage(SearchParameters params, int perPage, int pageIndex) {
+				SearchPage searchPage = new SearchPage(1, 1, 2);
+				searchPage.addPhoto("1", 52f, 7f, 0L, 0L);
+				searchPage.addPhoto("2", 52f, 7f, 0L, 0L);
+				return searchPage;
+			}
+
+			@Override
+			FlickrMessage createFlickrMessage(String photoID) throws FlickrException {
+				if ("2".equals(photoID)) {
+					throw new FlickrException("1", "Photo not found");
+				}
+				return new FlickrMessage();
+			}
+
+		};
+		assertFailsWith("1", dao);
+	}
+
+	/**
+	 * @return a DAO whose first page of five signals the given latch and
+	 *         waits for the other one
+	 */
+	private static FlickrDAO createPagingDAO(final AtomicInteger pageCalls, final CountDownLatch firstPage, final CountDownLatch proceed) {
+		return new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret") {
+
+			@Override
+			SearchPage fetchPage(SearchParameters params, int perPage, int pageIndex) {
+				pageCalls.incrementAndGet();
+				if (pageIndex == 1) {
+					firstPage.countDown();
+					try {
+						proceed.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				SearchPage searchPage = new SearchPage(pageIndex, 5, 5);
+				searchPage.addPhoto(Integer.toString(pageIndex), 52f, 7f, 0L, 0L);
+				return searchPage;
+			}
+
+			@Override
+			FlickrMessage createFlickrMessage(String photoID) {
+				return new FlickrMessage();
+			}
+
+		};
+	}
+
+	/**
+	 * Waits until the tasks submitted so far have run and asserts no page
+	 * followed the first one.
+	 */
+	private static void assertNoFurtherPages(ExecutorService executor, AtomicInteger pageCalls) throws Exception {
+		for (int i = 0; i < 3; i++) {
+			executor.submit(() -> { }).get(5, TimeUnit.SECONDS);
+		}
+		assertEquals(1, pageCalls.get());
+	}
+
+	private static void assertFailsWith(String errorCode, FlickrDAO dao) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			dao.executeQueryAsync(createQuery(0), executor).get(5, TimeUnit.SECONDS);
+			fail("Query should have failed");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof FlickrException);
+			assertEquals(errorCode, ((FlickrException) e.getCause()).getErrorCode());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void shouldFindTheSameWithPlatformThreadsAsSequentially() throws Exception {
+		assertEquals(executeInMode(ExecutionMode.SEQUENTIAL), executeInMode(ExecutionMode.PLATFORM_THREADS));
+	}
+
+	@Test
+	public void shouldFindTheSameWithVirtualThreadsAsSequentially() throws Exception {
+		Assume.assumeTrue(ExecutionMode.isVirtualThreadsSupported());
+
+		assertEquals(executeInMode(ExecutionMode.SEQUENTIAL), executeInMode(ExecutionMode.VIRTUAL_THREADS));
+	}
+
+	@Test
+	public void shouldHedgeSlowCallWithinBudgetAndCancelTheLoser() throws Exception {
+		FlickrDAO dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret");
+		HedgingPolicy hedgingPolicy = new HedgingPolicy(0.5, 0.2, 16, 4);
+		dao.setHedgingPolicy(hedgingPolicy);
+		try {
+			for (int i = 0; i < 4; i++) {
+				assertEquals("fast", dao.call(() -> respondAfter(20, "fast")));
+			}
+			assertTrue(hedgingPolicy.getHedgeDelayNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+
+			final AtomicInteger attempts = new AtomicInteger();
+			final CountDownLatch loserInterrupted = new CountDownLatch(1);
+			String response = dao.call(() -> {
+				if (attempts.incrementAndGet() > 1) {
+					return "hedge";
+				}
+				try {
+					Thread.sleep(5000);
+				} catch (InterruptedException e) {
+					loserInterrupted.countDown();
+				}
+				return "original";
+			});
+
+			assertEquals("hedge", response);
+			assertEquals(2, attempts.get());
+			assertEquals(1, hedgingPolicy.getHedges());
+			assertEquals(1, hedgingPolicy.getHedgeWins());
+			assertTrue(loserInterrupted.await(1, TimeUnit.SECONDS));
+			// the latency of the original attempt which lost is recorded too
+			assertEquals(5, hedgingPolicy.getSamples());
+
+			// a second hedge in six calls would exceed the budget of a fifth
+			attempts.set(0);
+			assertEquals("slow", dao.call(() -> {
+				attempts.incrementAndGet();
+				return respondAfter(200, "slow");
+			}));
+			assertEquals(1, attempts.get());
+			assertEquals(1, hedgingPolicy.getHedges());
+			assertEquals(6, hedgingPolicy.getCalls());
+		} finally {
+			dao.close();
+		}
+	}
+
+	private static String respondAfter(long millis, String response) throws FlickrException {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FlickrException("interrupted", "Interrupted while calling");
+		}
+		return response;
+	}
+
+	/**
+	 * Runs a query of three pages through the DAO in the given mode, with
+	 * calls taking a few milliseconds and every third photo not geo located.
+	 * 
+	 * @return the ids of the photos found, in the order returned
+	 */
+	private List<String> executeInMode(ExecutionMode mode) throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		FlickrDAO dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret") {
+
+			@Override
+			SearchPage fetchPage(SearchParameters params, int perPage, int pageIndex) throws FlickrException {
+				call();
+				SearchPage searchPage = new SearchPage(pageIndex, 3, 30);
+				for (int i = 0; i < 10; i++) {
+					searchPage.addPhoto(pageIndex + "-" + i, 52f, 7f, 0L, 0L);
+				}
+				return searchPage;
+			}
+
+			@Override
+			FlickrMessage createFlickrMessage(String photoID) throws FlickrException {
+				call();
+				if (photoID.endsWith("3") || photoID.endsWith("6") || photoID.endsWith("9")) {
+					return null;
+				}
+				FlickrMessage flickrMessage = new FlickrMessage();
+				flickrMessage.setIdentifier(photoID);
+				return flickrMessage;
+			}
+
+			private void call() throws FlickrException {
+				calls.incrementAndGet();
+				try {
+					Thread.sleep(2);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new FlickrException("interrupted", "Interrupted while calling");
+				}
+			}
+
+		};
+		ExecutorService executor = mode.createExecutor(4);
+		dao.setExecutionMode(mode, executor);
+		try {
+			List<String> photoIds = new ArrayList<>();
+			for (FlickrMessage flickrMessage : dao.executeQuery(createQuery(0))) {
+				photoIds.add(flickrMessage.getIdentifier());
+			}
+			assertEquals(3 + 30, calls.get());
+			assertEquals(21, photoIds.size());
+			return photoIds;
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+			dao.close();
+		}
+	}
+
+	private static String[] createTags(int count) {
+		String[] tags = new String[count];
+		for (int i = 0; i < tags.length; i++) {
+			tags[i] = "tag" + i;
+		}
+		return tags;
+	}
+
+	private static FlickrQuery createQuery(int maxResults) {
+		FlickrQuery query = new FlickrQuery(7.5, 51.9, 7.7, 52.0, null, null, null);
+		query.setMaxResults(maxResults);
+		return query;
+	}
+
+}
@@ -0,0 +1,315 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.n52.flickr.model.AccessToken;
+import org.n52.flickr.model.FlickrMessage;
+import org.n52.flickr.model.FlickrQuery;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.flickr4java.flickr.FlickrException;
+import com.flickr4java.flickr.photos.SearchParameters;
+
+public class FlickrPublisherTest {
+
+	private static final int PAGES = 3;
+
+	private static final int PHOTOS_PER_PAGE = 5;
+
+	/**
+	 * Runs page and enrichment calls in the calling thread, hence every
+	 * signal has been emitted once a call to the subscription returns.
+	 */
+	private static final Executor DIRECT = Runnable::run;
+
+	private final AtomicInteger pageCalls = new AtomicInteger();
+
+	private final AtomicInteger enrichments = new AtomicInteger();
+
+	private volatile int failingPage;
+
+	private FlickrDAO dao;
+
+	@Before
+	public void setUp() {
+		dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret") {
+
+			@Override
+			SearchPage fetchPage(SearchParameters params, int perPage, int pageIndex) throws FlickrException {
+				pageCalls.incrementAndGet();
+				if (pageIndex == failingPage) {
+					throw new FlickrException("105", "Service currently unavailable");
+				}
+				SearchPage searchPage = new SearchPage(pageIndex, PAGES, PAGES * PHOTOS_PER_PAGE);
+				for (int i = 0; i < PHOTOS_PER_PAGE; i++) {
+					searchPage.addPhoto(pageIndex + "-" + i, 52f, 7f, 0L, 0L);
+				}
+				return searchPage;
+			}
+
+			@Override
+			FlickrMessage createFlickrMessage(String photoID) {
+				enrichments.incrementAndGet();
+				FlickrMessage flickrMessage = new FlickrMessage();
+				flickrMessage.setIdentifier(photoID);
+				return flickrMessage;
+			}
+
+		};
+	}
+
+	@Test
+	public void shouldFetchAndEnrichNoMoreThanRequested() {
+		RecordingSubscriber subscriber = subscribe(createQuery());
+
+		subscriber.subscription.request(3);
+
+		assertEquals(3, subscriber.messages.size());
+		assertEquals(1, pageCalls.get());
+		assertEquals(3, enrichments.get());
+
+		// the rest of the first page and the start of the second one
+		subscriber.subscription.request(4);
+
+		assertEquals(7, subscriber.messages.size());
+		assertEquals(2, pageCalls.get());
+		assertEquals(7, enrichments.get());
+		assertEquals(0, subscriber.completions);
+	}
+
+	@Test
+	public void shouldNotFetchBeforeTheFirstRequest() {
+		RecordingSubscriber subscriber = subscribe(createQuery());
+
+		assertTrue(subscriber.messages.isEmpty());
+		assertEquals(0, pageCalls.get());
+		assertEquals(0, enrichments.get());
+	}
+
+	@Test
+	public void shouldEmitRequestedMessagesOnlyWhenRequestedOneByOne() {
+		final List<String> order = new ArrayList<>();
+		RecordingSubscriber subscriber = new RecordingSubscriber() {
+
+			@Override
+			public void onNext(FlickrMessage flickrMessage) {
+				super.onNext(flickrMessage);
+				order.add(flickrMessage.getIdentifier());
+				// request the next one from within onNext
+				subscription.request(1);
+			}
+
+		};
+		dao.publish(createQuery(), DIRECT).subscribe(subscriber);
+
+		subscriber.subscription.request(1);
+
+		assertEquals(PAGES * PHOTOS_PER_PAGE, subscriber.messages.size());
+		assertEquals(PAGES * PHOTOS_PER_PAGE, enrichments.get());
+		assertEquals("1-0", order.get(0));
+		assertEquals(PAGES + "-" + (PHOTOS_PER_PAGE - 1), order.get(order.size() - 1));
+		assertEquals(1, subscriber.completions);
+	}
+
+	@Test
+	public void shouldReportNonPositiveRequestAsError() {
+		RecordingSubscriber subscriber = subscribe(createQuery());
+
+		subscriber.subscription.request(0);
+
+		assertTrue(subscriber.error instanceof IllegalArgumentException);
+		assertEquals(1, subscriber.errors);
+		assertEquals(0, pageCalls.get());
+
+		subscriber.subscription.request(5);
+
+		assertTrue(subscriber.messages.isEmpty());
+		assertEquals(1, subscriber.errors);
+		assertEquals(0, subscriber.completions);
+	}
+
+	@Test
+	public void shouldStopEmittingAndFetchingWhenCancelledWithinAPage() {
+		RecordingSubscriber subscriber = new RecordingSubscriber() {
+
+			@Override
+			public void onNext(FlickrMessage flickrMessage) {
+				super.onNext(flickrMessage);
+				if (messages.size() == 2) {
+					subscription.cancel();
+				}
+			}
+
+		};
+		dao.publish(createQuery(), DIRECT).subscribe(subscriber);
+
+		subscriber.subscription.request(PHOTOS_PER_PAGE);
+
+		assertEquals(2, subscriber.messages.size());
+		assertEquals(1, pageCalls.get());
+
+		subscriber.subscription.request(10);
+
+		assertEquals(2, subscriber.messages.size());
+		assertEquals(1, pageCalls.get());
+		assertEquals(0, subscriber.completions);
+		assertEquals(0, subscriber.errors);
+	}
+
+	@Test
+	public void shouldCompleteAtTheResultLimit() {
+		FlickrQuery query = createQuery();
+		query.setMaxResults(7);
+		RecordingSubscriber subscriber = subscribe(query);
+
+		subscriber.subscription.request(Long.MAX_VALUE);
+
+		assertEquals(7, subscriber.messages.size());
+		assertEquals(7, enrichments.get());
+		assertEquals(2, pageCalls.get());
+		assertEquals(1, subscriber.completions);
+		assertEquals(0, subscriber.errors);
+	}
+
+	@Test
+	public void shouldCompleteOnceAfterTheLastMessage() {
+		RecordingSubscriber subscriber = subscribe(createQuery());
+
+		subscriber.subscription.request(PAGES * PHOTOS_PER_PAGE);
+
+		assertEquals(PAGES * PHOTOS_PER_PAGE, subscriber.messages.size());
+		assertEquals(1, subscriber.completions);
+		assertEquals(PAGES * PHOTOS_PER_PAGE, subscriber.messagesBeforeTermination);
+
+		subscriber.subscription.request(1);
+
+		assertEquals(PAGES, pageCalls.get());
+		assertEquals(1, subscriber.completions);
+		assertNull(subscriber.error);
+	}
+
+	@Test
+	public void shouldReportFailedPageOnceAndNothingAfterwards() {
+		failingPage = 2;
+		RecordingSubscriber subscriber = subscribe(createQuery());
+
+		subscriber.subscription.request(PHOTOS_PER_PAGE);
+		subscriber.subscription.request(Long.MAX_VALUE);
+
+		assertEquals(PHOTOS_PER_PAGE, subscriber.messages.size());
+		assertEquals(PHOTOS_PER_PAGE, subscriber.messagesBeforeTermination);
+		assertTrue(subscriber.error instanceof FlickrException);
+		assertEquals(1, subscriber.errors);
+		assertEquals(0, subscriber.completions);
+
+		subscriber.subscription.request(1);
+
+		assertEquals(2, pageCalls.get());
+		assertEquals(1, subscriber.errors);
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void shouldRejectNullSubscriber() {
+		dao.publish(createQuery(), DIRECT).subscribe(null);
+	}
+
+	private RecordingSubscriber subscribe(FlickrQuery query) {
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		dao.publish(query, DIRECT).subscribe(subscriber);
+		assertFalse(subscriber.subscription == null);
+		return subscriber;
+	}
+
+	private static FlickrQuery createQuery() {
+		return new FlickrQuery(7.5, 51.9, 7.7, 52.0, null, null, null);
+	}
+
+	private static class RecordingSubscriber implements Subscriber<FlickrMessage> {
+
+		final List<FlickrMessage> messages = new ArrayList<>();
+
+		Subscription subscription;
+
+		Throwable error;
+
+		int errors;
+
+		int completions;
+
+		/**
+		 * Number of messages received before the first terminal signal, -1
+		 * while not terminated.
+		 */
+		int messagesBeforeTermination = -1;
+
+		@Override
+		public void onSubscribe(Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(FlickrMessage flickrMessage) {
+			messages.add(flickrMessage);
+		}
+
+		@Override
+		public void onError(Throwable error) {
+			this.error = error;
+			errors++;
+			terminate();
+		}
+
+		@Override
+		public void onComplete() {
+			completions++;
+			terminate();
+		}
+
+		private void terminate() {
+			if (messagesBeforeTermination < 0) {
+				messagesBeforeTermination = messages.size();
+			}
+		}
+
+	}
+
+}
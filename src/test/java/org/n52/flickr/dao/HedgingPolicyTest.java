@@ -0,0 +1,71 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HedgingPolicyTest {
+
+	@Test
+	public void shouldNotHedgeBeforeMinimumSamples() {
+		HedgingPolicy policy = new HedgingPolicy(0.9, 0.1, 100, 10);
+		for (int i = 1; i < 10; i++) {
+			policy.recordLatency(i);
+		}
+		assertTrue(policy.getHedgeDelayNanos() < 0);
+		policy.recordLatency(10);
+		assertEquals(10, policy.getHedgeDelayNanos());
+	}
+
+	@Test
+	public void shouldTakePercentileOfRecentLatencies() {
+		HedgingPolicy policy = new HedgingPolicy(0.95, 0.1, 100, 10);
+		for (int i = 100; i > 0; i--) {
+			policy.recordLatency(i);
+		}
+		assertEquals(96, policy.getHedgeDelayNanos());
+	}
+
+	@Test
+	public void shouldLimitHedgesToBudget() {
+		HedgingPolicy policy = new HedgingPolicy(0.95, 0.1);
+		for (int i = 0; i < 20; i++) {
+			policy.recordCall();
+		}
+		assertTrue(policy.tryAcquireHedge());
+		assertTrue(policy.tryAcquireHedge());
+		assertFalse(policy.tryAcquireHedge());
+		assertEquals(2, policy.getHedges());
+	}
+
+}
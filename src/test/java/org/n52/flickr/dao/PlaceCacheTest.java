@@ -0,0 +1,114 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.n52.flickr.model.FlickrPlace;
+
+public class PlaceCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void shouldShareInstancePerPlace() {
+		PlaceCache cache = new PlaceCache(10);
+		FlickrPlace place = cache.intern("abc", "Münster");
+
+		assertSame(place, cache.intern("abc", "Münster"));
+		assertNotSame(place, cache.intern("def", "Berlin"));
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void shouldKeepNameOfPlaceSeenWithoutName() {
+		PlaceCache cache = new PlaceCache(10);
+		FlickrPlace place = cache.intern("abc", "Münster");
+
+		assertSame(place, cache.intern("abc", null));
+		assertSame(place, cache.intern("abc", ""));
+	}
+
+	@Test
+	public void shouldAddNameToPlaceSeenWithoutName() {
+		PlaceCache cache = new PlaceCache(10);
+		FlickrPlace unnamed = cache.intern("abc", null);
+		FlickrPlace named = cache.intern("abc", "Münster");
+
+		assertFalse(unnamed.hasName());
+		assertEquals("Münster", named.getName());
+		assertSame(named, cache.intern("abc", null));
+	}
+
+	@Test
+	public void shouldNotCachePlaceWithoutId() {
+		PlaceCache cache = new PlaceCache(10);
+		cache.intern(null, "Somewhere");
+
+		assertEquals(0, cache.size());
+		assertNull(cache.intern(null));
+	}
+
+	@Test
+	public void shouldEvictLeastRecentlyUsedPlace() {
+		PlaceCache cache = new PlaceCache(2);
+		FlickrPlace first = cache.intern("1", "first");
+		cache.intern("2", "second");
+		cache.intern("1", "first");
+		cache.intern("3", "third");
+
+		assertEquals(2, cache.size());
+		assertSame(first, cache.intern("1", "first"));
+	}
+
+	@Test
+	public void shouldRestoreStoredPlaces() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("places.tsv");
+		PlaceCache cache = new PlaceCache(10);
+		cache.intern("abc", "Münster\tAltstadt");
+		cache.intern("def", null);
+		cache.store(file);
+
+		PlaceCache restored = new PlaceCache(10);
+		assertEquals(2, restored.load(file));
+		assertEquals("Münster Altstadt", restored.intern("abc", null).getName());
+		assertFalse(restored.intern("def", null).hasName());
+	}
+
+}
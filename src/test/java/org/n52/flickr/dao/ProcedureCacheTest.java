@@ -0,0 +1,96 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.n52.socialmedia.model.Procedure;
+
+public class ProcedureCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void shouldShareProcedurePerUser() {
+		ProcedureCache cache = new ProcedureCache(10);
+		Procedure procedure = cache.get("42@N01", "alice", "https://www.flickr.com/people/alice/");
+
+		assertSame(procedure, cache.get("42@N01", "alice", "https://www.flickr.com/people/alice/"));
+		assertNotSame(procedure, cache.get("43@N01", "bob", null));
+		assertEquals(2, cache.size());
+		assertEquals("alice", procedure.getName());
+		assertEquals("https://www.flickr.com/people/alice/", procedure.getId());
+	}
+
+	@Test
+	public void shouldIdentifyUserWithoutProfileByPhotostream() {
+		ProcedureCache cache = new ProcedureCache(10);
+
+		assertEquals("https://www.flickr.com/photos/43@N01", cache.get("43@N01", "bob", null).getId());
+		assertEquals("https://www.flickr.com/photos/44@N01", cache.get("44@N01", "carol", "").getId());
+	}
+
+	@Test
+	public void shouldEvictLeastRecentlyUsedUser() {
+		ProcedureCache cache = new ProcedureCache(2);
+		Procedure first = cache.get("1", "first", null);
+		cache.get("2", "second", null);
+		cache.get("1", "first", null);
+		cache.get("3", "third", null);
+
+		assertEquals(2, cache.size());
+		assertSame(first, cache.get("1", "first", null));
+	}
+
+	@Test
+	public void shouldRestoreStoredUsers() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("owners.tsv");
+		ProcedureCache cache = new ProcedureCache(10);
+		cache.get("42@N01", "alice\tsmith", "https://www.flickr.com/people/alice/");
+		cache.get("43@N01", null, null);
+		cache.store(file);
+
+		ProcedureCache restored = new ProcedureCache(10);
+		assertEquals(2, restored.load(file));
+		Procedure alice = restored.get("42@N01", "ignored", "ignored");
+		assertEquals("alice smith", alice.getName());
+		assertEquals("https://www.flickr.com/people/alice/", alice.getId());
+		assertNull(restored.get("43@N01", "ignored", null).getName());
+	}
+
+}
@@ -0,0 +1,107 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+	@Test
+	public void shouldShareExecutionWithConcurrentCaller() throws Exception {
+		final SingleFlight<String, Object> singleFlight = new SingleFlight<>();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Object value = new Object();
+		final AtomicReference<Object> leaderResult = new AtomicReference<>();
+
+		Thread leader = new Thread(() -> {
+			try {
+				leaderResult.set(singleFlight.execute("42", () -> {
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return value;
+				}));
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		leader.start();
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		CompletableFuture<Object> follower = singleFlight.submit("42", () -> CompletableFuture.completedFuture(new Object()));
+		assertFalse(follower.isDone());
+		release.countDown();
+		leader.join(5000);
+
+		assertSame(value, leaderResult.get());
+		assertSame(value, follower.get(5, TimeUnit.SECONDS));
+		assertEquals(1, singleFlight.getExecutions());
+		assertEquals(1, singleFlight.getCoalesced());
+		assertEquals(0, singleFlight.getInFlight());
+	}
+
+	@Test
+	public void shouldCancelExecutionOnlyWhenAllCallersAreDetached() {
+		SingleFlight<String, Object> singleFlight = new SingleFlight<>();
+		CompletableFuture<Object> source = new CompletableFuture<>();
+
+		CompletableFuture<Object> first = singleFlight.submit("42", () -> source);
+		CompletableFuture<Object> second = singleFlight.submit("42", () -> new CompletableFuture<>());
+
+		first.cancel(true);
+		assertFalse(source.isCancelled());
+		second.cancel(true);
+		assertTrue(source.isCancelled());
+		assertEquals(0, singleFlight.getInFlight());
+	}
+
+	@Test
+	public void shouldStartNewExecutionAfterCompletion() throws Exception {
+		SingleFlight<String, Object> singleFlight = new SingleFlight<>();
+		singleFlight.execute("42", () -> "first");
+
+		assertEquals("second", singleFlight.execute("42", () -> "second"));
+		assertEquals(2, singleFlight.getExecutions());
+	}
+
+}
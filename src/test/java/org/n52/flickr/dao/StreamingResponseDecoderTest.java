@@ -0,0 +1,140 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.n52.flickr.model.AccessToken;
+import org.n52.flickr.model.FlickrMessage;
+import org.n52.flickr.model.ImageSize;
+import org.w3c.dom.Element;
+
+import com.flickr4java.flickr.FlickrException;
+import com.flickr4java.flickr.photos.Photo;
+import com.flickr4java.flickr.photos.PhotoUtils;
+
+/**
+ * Checks that {@link StreamingResponseDecoder} yields the same observations
+ * as the flickr4java decoding.
+ */
+public class StreamingResponseDecoderTest {
+
+	private FlickrDAO dao;
+
+	private StreamingResponseDecoder decoder;
+
+	@Before
+	public void setUp() {
+		dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret");
+		// caches of its own, so equal places and owners are not just shared
+		decoder = new StreamingResponseDecoder(new PlaceCache(10), new ProcedureCache(10));
+	}
+
+	@Test
+	public void shouldDecodePhotoInfoLikeFlickr4Java() throws Exception {
+		Photo photo = PhotoUtils.createPhoto(readPhotoElement("photos.getInfo.xml"));
+		FlickrMessage expected = dao.createFlickrMessage(photo, photo.getGeoData());
+
+		FlickrMessage actual;
+		try (InputStream response = getResource("photos.getInfo.xml")) {
+			actual = decoder.decodePhotoInfo(response);
+		}
+
+		assertNotNull(actual);
+		assertEquals(expected.getIdentifier(), actual.getIdentifier());
+		assertEquals(expected.getResult(), actual.getResult());
+		assertEquals(expected.getResultHref(), actual.getResultHref());
+		assertEquals(expected.getPhenomenonTime(), actual.getPhenomenonTime());
+		assertEquals(expected.getResultTime(), actual.getResultTime());
+		assertEquals(expected.getLocation().getLatitude(), actual.getLocation().getLatitude());
+		assertEquals(expected.getLocation().getLongitude(), actual.getLocation().getLongitude());
+		assertEquals(expected.getLocation().getAccuracy(), actual.getLocation().getAccuracy());
+		assertEquals(expected.getLocation().getId(), actual.getLocation().getId());
+		assertEquals(expected.getLocation().getName(), actual.getLocation().getName());
+		assertNotSame(expected.getLocation().getPlace(), actual.getLocation().getPlace());
+		assertEquals(expected.getLocation().getPlace().getId(), actual.getLocation().getPlace().getId());
+		assertEquals(expected.getLocation().getPlace().getName(), actual.getLocation().getPlace().getName());
+		assertNotSame(expected.getProcedure(), actual.getProcedure());
+		assertEquals(expected.getProcedure().getId(), actual.getProcedure().getId());
+		assertEquals(expected.getProcedure().getName(), actual.getProcedure().getName());
+		assertEquals(expected.getLastUpdate(), actual.getLastUpdate());
+		assertEquals(expected.getImageUrl(ImageSize.MEDIUM_640), actual.getImageUrl(ImageSize.MEDIUM_640));
+		assertEquals("https://live.staticflickr.com/7631/16803455046_8f3a2d1b5c_z.jpg", actual.getImageUrl(ImageSize.MEDIUM_640));
+	}
+
+	@Test
+	public void shouldDecodeEnrichablePhotosOfSearchPage() throws Exception {
+		SearchPage searchPage;
+		try (InputStream response = getResource("photos.search.xml")) {
+			searchPage = decoder.decodeSearchPage(response);
+		}
+
+		assertEquals(2, searchPage.getPage());
+		assertEquals(7, searchPage.getPages());
+		assertEquals(19, searchPage.getTotal());
+		assertEquals(3, searchPage.size());
+		assertEquals(Arrays.asList("16803455046", "16803455048"), searchPage.getPhotoIds());
+		assertEquals(51.958312f, searchPage.getLatitude(1), 0f);
+		assertEquals(7.631904f, searchPage.getLongitude(1), 0f);
+		// no date taken in the extras, hence the upload date
+		assertEquals(1426511402000L, searchPage.getTime(1));
+	}
+
+	@Test
+	public void shouldThrowFlickrExceptionOnErrorResponse() throws Exception {
+		try (InputStream response = getResource("error.xml")) {
+			decoder.decodePhotoInfo(response);
+			fail("FlickrException expected");
+		} catch (FlickrException e) {
+			assertEquals("1", e.getErrorCode());
+		}
+	}
+
+	private InputStream getResource(String name) {
+		return getClass().getResourceAsStream(name);
+	}
+
+	private Element readPhotoElement(String name) throws Exception {
+		try (InputStream response = getResource(name)) {
+			Element rsp = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(response).getDocumentElement();
+			return (Element) rsp.getElementsByTagName("photo").item(0);
+		}
+	}
+
+}
@@ -0,0 +1,164 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.n52.flickr.dao.FlickrDAO;
+import org.n52.flickr.model.AccessToken;
+import org.n52.flickr.model.FlickrMessage;
+import org.n52.flickr.model.FlickrQuery;
+import org.n52.flickr.model.HarvestRegion;
+
+public class ContinuousHarvesterTest {
+
+	private static final HarvestRegion MUENSTER = new HarvestRegion("muenster", 7.5, 51.9, 7.7, 52.0);
+
+	private static final HarvestRegion BERLIN = new HarvestRegion("berlin", 13.0, 52.3, 13.8, 52.7);
+
+	private final List<FlickrQuery> queries = new ArrayList<>();
+
+	private final BlockingQueue<FlickrMessage> sink = new LinkedBlockingQueue<>();
+
+	private List<String> photoIds = Arrays.asList("1", "2");
+
+	private FlickrDAO dao;
+
+	@Before
+	public void setUp() {
+		dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret") {
+
+			@Override
+			public int executeQuery(FlickrQuery query, Predicate<String> photoFilter, Consumer<FlickrMessage> consumer) {
+				queries.add(query);
+				int consumed = 0;
+				for (String photoId : photoIds) {
+					if (photoFilter.test(photoId)) {
+						FlickrMessage flickrMessage = new FlickrMessage();
+						flickrMessage.setIdentifier(photoId);
+						consumer.accept(flickrMessage);
+						consumed++;
+					}
+				}
+				return consumed;
+			}
+
+		};
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRequireSearchTermOrRegion() {
+		new ContinuousHarvester(dao, Collections.<String>emptyList(), Collections.<HarvestRegion>emptyList(), sink, 1, TimeUnit.HOURS);
+	}
+
+	@Test
+	public void shouldHarvestEachSearchTermInEachRegion() {
+		ContinuousHarvester harvester = new ContinuousHarvester(dao, Arrays.asList("sunset", " lake "),
+				Arrays.asList(MUENSTER, BERLIN), sink, 0, TimeUnit.MILLISECONDS);
+		for (int i = 0; i < 4; i++) {
+			harvester.tick();
+		}
+
+		Set<String> tasks = new HashSet<>();
+		for (FlickrQuery query : queries) {
+			assertEquals(1, query.getKeywords().length);
+			tasks.add(query.getKeywords()[0] + "@" + query.getMinLon());
+		}
+		assertEquals(new HashSet<>(Arrays.asList("sunset@7.5", "lake@7.5", "sunset@13.0", "lake@13.0")), tasks);
+	}
+
+	@Test
+	public void shouldHarvestRegionWithoutSearchTerm() {
+		ContinuousHarvester harvester = new ContinuousHarvester(dao, Collections.<String>emptyList(),
+				Arrays.asList(MUENSTER), sink, 0, TimeUnit.MILLISECONDS);
+		harvester.tick();
+
+		assertEquals(1, queries.size());
+		assertNull(queries.get(0).getKeywords());
+		assertArrayEquals(new double[] { 7.5, 51.9, 7.7, 52.0 }, queries.get(0).getBoundingBox(), 0d);
+	}
+
+	@Test
+	public void shouldDeliverEachPhotoOnce() {
+		ContinuousHarvester harvester = new ContinuousHarvester(dao, Arrays.asList("sunset"),
+				Collections.<HarvestRegion>emptyList(), sink, 0, TimeUnit.MILLISECONDS);
+		harvester.tick();
+		photoIds = Arrays.asList("2", "3");
+		harvester.tick();
+
+		assertEquals(2, queries.size());
+		assertEquals(3, sink.size());
+		assertEquals(3, harvester.getHarvestedPhotos());
+	}
+
+	@Test
+	public void shouldRequestPhotosUploadedSinceLastRun() {
+		ContinuousHarvester harvester = new ContinuousHarvester(dao, Arrays.asList("sunset"),
+				Collections.<HarvestRegion>emptyList(), sink, 0, TimeUnit.MILLISECONDS);
+		long before = System.currentTimeMillis();
+		harvester.tick();
+		long after = System.currentTimeMillis();
+		harvester.tick();
+
+		assertFalse(queries.get(0).hasMinUploadDate());
+		assertFalse(queries.get(0).isGeolocated());
+		assertTrue(queries.get(1).hasMinUploadDate());
+		long since = queries.get(1).getMinUploadDate().getTime();
+		assertTrue(since >= before && since <= after);
+	}
+
+	@Test
+	public void shouldRunTaskOncePerPeriod() {
+		ContinuousHarvester harvester = new ContinuousHarvester(dao, Arrays.asList("sunset"),
+				Collections.<HarvestRegion>emptyList(), sink, 1, TimeUnit.HOURS);
+		harvester.tick();
+		harvester.tick();
+
+		assertEquals(1, queries.size());
+	}
+
+}
@@ -0,0 +1,143 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileSystemTileQueueTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TileQueue queue;
+
+	private HarvestTile tile;
+
+	@Before
+	public void setUp() throws Exception {
+		queue = new FileSystemTileQueue(folder.getRoot().toPath());
+		tile = new HarvestTile("nrw_0000_0001_0000", new double[] { 7.5, 51.9, 7.7, 52.0 }, new DateTime(1420070400000L), null);
+	}
+
+	@Test
+	public void shouldLeaseEachTileOnce() throws Exception {
+		assertTrue(queue.offer(tile));
+		assertFalse(queue.offer(tile));
+
+		TileLease lease = queue.claim("worker-1", 1, TimeUnit.MINUTES);
+		assertNotNull(lease);
+		assertEquals(tile.getId(), lease.getTile().getId());
+		assertArrayEquals(tile.getBoundingBox(), lease.getTile().getBoundingBox(), 0);
+		assertEquals(tile.getStart().getMillis(), lease.getTile().getStart().getMillis());
+		assertNull(lease.getTile().getEnd());
+		assertNull(queue.claim("worker-2", 1, TimeUnit.MINUTES));
+		assertFalse(queue.offer(tile));
+
+		assertTrue(queue.acknowledge(lease));
+		assertEquals(0, queue.getPending());
+		assertEquals(0, queue.getLeased());
+	}
+
+	@Test
+	public void shouldNotReplacePendingTileByConcurrentOffer() throws Exception {
+		final TileQueue other = new FileSystemTileQueue(folder.getRoot().toPath());
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> offers = new ArrayList<>();
+			for (int i = 0; i < 16; i++) {
+				final TileQueue offering = i % 2 == 0 ? queue : other;
+				offers.add(executor.submit(() -> {
+					start.await();
+					return offering.offer(tile);
+				}));
+			}
+			start.countDown();
+			int accepted = 0;
+			for (Future<Boolean> offer : offers) {
+				if (offer.get()) {
+					accepted++;
+				}
+			}
+			assertEquals(1, accepted);
+			assertEquals(1, queue.getPending());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectTileIdWithLeaseSeparator() throws Exception {
+		queue.offer(new HarvestTile("nrw~0000", tile.getBoundingBox(), null, null));
+	}
+
+	@Test
+	public void shouldReassignExpiredLease() throws Exception {
+		queue.offer(tile);
+		TileLease expired = queue.claim("worker-1", 0, TimeUnit.MILLISECONDS);
+
+		TileLease lease = queue.claim("worker-2", 1, TimeUnit.MINUTES);
+		assertNotNull(lease);
+		assertNull(queue.renew(expired, 1, TimeUnit.MINUTES));
+		assertFalse(queue.acknowledge(expired));
+		assertTrue(queue.acknowledge(lease));
+	}
+
+	@Test
+	public void shouldKeepRenewedLease() throws Exception {
+		queue.offer(tile);
+		TileLease lease = queue.claim("worker-1", 1, TimeUnit.MINUTES);
+
+		TileLease renewed = queue.renew(lease, 2, TimeUnit.MINUTES);
+		assertNotNull(renewed);
+		assertTrue(renewed.getExpiresAt() > lease.getExpiresAt());
+		assertFalse(queue.acknowledge(lease));
+		assertTrue(queue.acknowledge(renewed));
+	}
+
+}
@@ -0,0 +1,133 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HarvestJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void shouldRestoreProgressAfterReopening() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("journal.tsv");
+		try (HarvestJournal journal = new HarvestJournal(file)) {
+			journal.begin("muenster", "42");
+			journal.photoEmitted("muenster", "1");
+			journal.photoEmitted("muenster", "2");
+			journal.pageCompleted("muenster", 1);
+			journal.photoEmitted("muenster", "3");
+		}
+		// torn line of a crash while appending
+		Files.write(file, "PHOTO\tmuen".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		try (HarvestJournal journal = new HarvestJournal(file)) {
+			journal.begin("muenster", "42");
+			assertEquals(1, journal.getCompletedPages("muenster"));
+			assertEquals(3, journal.getEmittedCount("muenster"));
+			assertTrue(journal.isEmitted("muenster", "3"));
+			assertFalse(journal.isDone("muenster"));
+		}
+	}
+
+	@Test
+	public void shouldIgnoreTornStartLine() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("journal.tsv");
+		try (HarvestJournal journal = new HarvestJournal(file)) {
+			journal.begin("muenster", "42");
+			journal.finish("muenster");
+		}
+		Files.write(file, "START\tbielefeld\t".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		try (HarvestJournal journal = new HarvestJournal(file)) {
+			assertTrue(journal.isDone("muenster"));
+			assertFalse(journal.isDone("bielefeld"));
+		}
+		assertEquals(2, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+	}
+
+	@Test
+	public void shouldIgnoreTornPhotoLine() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("journal.tsv");
+		try (HarvestJournal journal = new HarvestJournal(file)) {
+			journal.begin("muenster", "42");
+			journal.photoEmitted("muenster", "1");
+		}
+		// torn from the photo id 123
+		Files.write(file, "PHOTO\tmuenster\t12".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		try (HarvestJournal journal = new HarvestJournal(file)) {
+			assertEquals(1, journal.getEmittedCount("muenster"));
+			assertFalse(journal.isEmitted("muenster", "12"));
+		}
+	}
+
+	@Test
+	public void shouldStartOverForChangedQuery() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("journal.tsv");
+		try (HarvestJournal journal = new HarvestJournal(file)) {
+			journal.begin("muenster", "42");
+			journal.pageCompleted("muenster", 3);
+			journal.begin("muenster", "43");
+
+			assertEquals(0, journal.getCompletedPages("muenster"));
+		}
+	}
+
+	@Test
+	public void shouldCompactFinishedHarvest() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("journal.tsv");
+		try (HarvestJournal journal = new HarvestJournal(file)) {
+			journal.begin("muenster", "42");
+			for (int i = 0; i < 100; i++) {
+				journal.photoEmitted("muenster", Integer.toString(i));
+			}
+			journal.finish("muenster");
+			journal.compact();
+		}
+		assertEquals(2, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+
+		try (HarvestJournal journal = new HarvestJournal(file)) {
+			assertTrue(journal.isDone("muenster"));
+		}
+	}
+
+}
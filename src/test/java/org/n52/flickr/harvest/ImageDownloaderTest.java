@@ -0,0 +1,260 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.n52.flickr.model.FlickrMessage;
+import org.n52.flickr.model.ImageSize;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class ImageDownloaderTest {
+
+	private static final byte[] IMAGE = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<String> ranges = new CopyOnWriteArrayList<>();
+
+	private volatile boolean rangeSupport = true;
+
+	private volatile CountDownLatch requested = new CountDownLatch(0);
+
+	private volatile CountDownLatch release = new CountDownLatch(0);
+
+	private HttpServer server;
+
+	private ExecutorService serverExecutor;
+
+	private CloseableHttpClient httpClient;
+
+	private Path directory;
+
+	@Before
+	public void setUp() throws IOException {
+		serverExecutor = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", this::serve);
+		server.setExecutor(serverExecutor);
+		server.start();
+		httpClient = HttpClients.createDefault();
+		directory = folder.getRoot().toPath().resolve("images");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		release.countDown();
+		httpClient.close();
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		ranges.add(String.valueOf(range));
+		requested.countDown();
+		try {
+			release.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		int offset = range != null && rangeSupport
+				? Integer.parseInt(range.substring("bytes=".length(), range.length() - 1))
+				: 0;
+		if (offset >= IMAGE.length) {
+			exchange.getResponseHeaders().set("Content-Range", "bytes */" + IMAGE.length);
+			exchange.sendResponseHeaders(416, -1);
+		} else {
+			exchange.sendResponseHeaders(offset > 0 ? 206 : 200, IMAGE.length - offset);
+			try (OutputStream body = exchange.getResponseBody()) {
+				body.write(IMAGE, offset, IMAGE.length - offset);
+			}
+		}
+		exchange.close();
+	}
+
+	private FlickrMessage createPhoto(String photoId) {
+		final String url = String.format("http://localhost:%d/%s.jpg", server.getAddress().getPort(), photoId);
+		FlickrMessage photo = new FlickrMessage() {
+
+			@Override
+			public String getImageUrl(ImageSize size) {
+				return url;
+			}
+
+		};
+		photo.setIdentifier(photoId);
+		return photo;
+	}
+
+	private Path writePart(ImageDownloader downloader, String photoId, byte[] content) throws IOException {
+		Path target = downloader.getPath(photoId);
+		return Files.write(target.resolveSibling(target.getFileName() + ".part"), content);
+	}
+
+	@Test
+	public void shouldMovePartFileToImageOnceComplete() throws Exception {
+		try (ImageDownloader downloader = new ImageDownloader(httpClient, directory, ImageSize.SMALL_320, 2)) {
+			Path image = downloader.download(createPhoto("1")).get(10, TimeUnit.SECONDS);
+
+			assertEquals(downloader.getPath("1"), image);
+			assertArrayEquals(IMAGE, Files.readAllBytes(image));
+			assertFalse(Files.exists(image.resolveSibling(image.getFileName() + ".part")));
+			assertEquals(Arrays.asList("null"), ranges);
+			assertEquals(1, downloader.getDownloads());
+			assertEquals(IMAGE.length, downloader.getBytes());
+		}
+	}
+
+	@Test
+	public void shouldResumePartialDownload() throws Exception {
+		try (ImageDownloader downloader = new ImageDownloader(httpClient, directory, ImageSize.SMALL_320, 2)) {
+			writePart(downloader, "1", Arrays.copyOf(IMAGE, 10));
+
+			Path image = downloader.download(createPhoto("1")).get(10, TimeUnit.SECONDS);
+
+			assertArrayEquals(IMAGE, Files.readAllBytes(image));
+			assertEquals(Arrays.asList("bytes=10-"), ranges);
+			assertEquals(1, downloader.getResumed());
+			assertEquals(IMAGE.length - 10, downloader.getBytes());
+		}
+	}
+
+	@Test
+	public void shouldStartOverIfServerIgnoresRange() throws Exception {
+		rangeSupport = false;
+		try (ImageDownloader downloader = new ImageDownloader(httpClient, directory, ImageSize.SMALL_320, 2)) {
+			writePart(downloader, "1", "stale content of another size, longer than the image".getBytes());
+
+			Path image = downloader.download(createPhoto("1")).get(10, TimeUnit.SECONDS);
+
+			assertArrayEquals(IMAGE, Files.readAllBytes(image));
+			assertEquals(Arrays.asList("bytes=52-"), ranges);
+			assertEquals(0, downloader.getResumed());
+		}
+	}
+
+	@Test
+	public void shouldKeepCompletePartFileOnUnsatisfiableRange() throws Exception {
+		try (ImageDownloader downloader = new ImageDownloader(httpClient, directory, ImageSize.SMALL_320, 2)) {
+			writePart(downloader, "1", IMAGE);
+
+			Path image = downloader.download(createPhoto("1")).get(10, TimeUnit.SECONDS);
+
+			assertArrayEquals(IMAGE, Files.readAllBytes(image));
+			assertEquals(Arrays.asList("bytes=" + IMAGE.length + "-"), ranges);
+			assertEquals(1, downloader.getDownloads());
+			assertEquals(0, downloader.getBytes());
+		}
+	}
+
+	@Test
+	public void shouldStartOverIfPartFileIsLongerThanImage() throws Exception {
+		try (ImageDownloader downloader = new ImageDownloader(httpClient, directory, ImageSize.SMALL_320, 2)) {
+			writePart(downloader, "1", Arrays.copyOf(IMAGE, IMAGE.length + 10));
+
+			Path image = downloader.download(createPhoto("1")).get(10, TimeUnit.SECONDS);
+
+			assertArrayEquals(IMAGE, Files.readAllBytes(image));
+			assertEquals(Arrays.asList("bytes=" + (IMAGE.length + 10) + "-", "null"), ranges);
+			assertEquals(1, downloader.getDownloads());
+			assertEquals(IMAGE.length, downloader.getBytes());
+		}
+	}
+
+	@Test
+	public void shouldDownloadImageRequestedTwiceOnlyOnce() throws Exception {
+		requested = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+		try (ImageDownloader downloader = new ImageDownloader(httpClient, directory, ImageSize.SMALL_320, 2)) {
+			CompletableFuture<Path> first = downloader.download(createPhoto("1"));
+			assertTrue(requested.await(10, TimeUnit.SECONDS));
+			CompletableFuture<Path> second = downloader.download(createPhoto("1"));
+			release.countDown();
+
+			assertSame(first, second);
+			assertArrayEquals(IMAGE, Files.readAllBytes(second.get(10, TimeUnit.SECONDS)));
+			assertEquals(first.get(), downloader.download(createPhoto("1")).get(10, TimeUnit.SECONDS));
+			assertEquals(1, ranges.size());
+			assertEquals(1, downloader.getDownloads());
+			assertEquals(2, downloader.getSkipped());
+		}
+	}
+
+	@Test
+	public void shouldRunDownloadInCallerOnceQueueIsFull() throws Exception {
+		requested = new CountDownLatch(2);
+		release = new CountDownLatch(1);
+		try (ImageDownloader downloader = new ImageDownloader(httpClient, directory, ImageSize.SMALL_320, 1)) {
+			for (int i = 0; i <= ImageDownloader.QUEUED_DOWNLOADS_PER_THREAD; i++) {
+				downloader.download(createPhoto(Integer.toString(i)));
+			}
+			Thread caller = new Thread(() -> downloader.download(createPhoto("overflow")));
+			caller.start();
+
+			// the single thread is stuck on the first image, so only the
+			// caller can have sent the second request
+			assertTrue(requested.await(10, TimeUnit.SECONDS));
+			assertTrue(caller.isAlive());
+			release.countDown();
+			caller.join(TimeUnit.SECONDS.toMillis(10));
+			assertFalse(caller.isAlive());
+			assertTrue(Files.exists(downloader.getPath("overflow")));
+		}
+	}
+
+}
@@ -0,0 +1,229 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ObjLongConsumer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.n52.flickr.dao.FlickrDAO;
+import org.n52.flickr.harvest.PhotoChange.Field;
+import org.n52.flickr.harvest.PhotoChange.Type;
+import org.n52.flickr.model.AccessToken;
+import org.n52.flickr.model.FlickrLocation;
+import org.n52.flickr.model.FlickrMessage;
+import org.n52.flickr.model.FlickrPlace;
+import org.n52.flickr.model.FlickrQuery;
+
+import com.flickr4java.flickr.FlickrException;
+
+public class PhotoRefresherTest {
+
+	private final Map<String, Long> lastUpdates = new TreeMap<>();
+
+	private final Map<String, FlickrMessage> photos = new TreeMap<>();
+
+	private final List<String> enriched = new ArrayList<>();
+
+	private final List<PhotoChange> changes = new ArrayList<>();
+
+	private PhotoRefresher refresher;
+
+	@Before
+	public void setUp() {
+		FlickrDAO dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret") {
+
+			@Override
+			public int scanLastUpdates(FlickrQuery query, ObjLongConsumer<String> consumer) {
+				for (Map.Entry<String, Long> lastUpdate : lastUpdates.entrySet()) {
+					consumer.accept(lastUpdate.getKey(), lastUpdate.getValue());
+				}
+				return lastUpdates.size();
+			}
+
+			@Override
+			public FlickrMessage getById(String id) throws FlickrException {
+				enriched.add(id);
+				if (!photos.containsKey(id)) {
+					throw new FlickrException("1", "Photo not found");
+				}
+				return photos.get(id);
+			}
+
+		};
+		refresher = new PhotoRefresher(dao, false);
+	}
+
+	@Test
+	public void shouldEnrichUpdatedPhotosOnly() throws Exception {
+		refresher.track(createPhoto("1", "Flooded road", 1000L));
+		refresher.track(createPhoto("2", "Flooded meadow", 1000L));
+		lastUpdates.put("1", 2000L);
+		lastUpdates.put("2", 1000L);
+		lastUpdates.put("3", 2000L);
+		photos.put("1", createPhoto("1", "Flooded road near Münster", 2000L));
+
+		assertEquals(1, refresh());
+
+		assertEquals(Collections.singletonList("1"), enriched);
+		assertEquals(Type.UPDATED, changes.get(0).getType());
+		assertEquals(EnumSet.of(Field.TITLE), changes.get(0).getFields());
+		assertEquals(0, refresh());
+		assertEquals(1, enriched.size());
+	}
+
+	@Test
+	public void shouldEmitRetitleToTitleWithEqualHashCode() throws Exception {
+		assertEquals("Aa".hashCode(), "BB".hashCode());
+		refresher.track(createPhoto("1", "Aa", 1000L));
+		lastUpdates.put("1", 2000L);
+		photos.put("1", createPhoto("1", "BB", 2000L));
+
+		assertEquals(1, refresh());
+		assertEquals(EnumSet.of(Field.TITLE), changes.get(0).getFields());
+	}
+
+	@Test
+	public void shouldEmitNothingForUpdateOfOtherData() throws Exception {
+		refresher.track(createPhoto("1", "Flooded road", 1000L));
+		lastUpdates.put("1", 2000L);
+		photos.put("1", createPhoto("1", "Flooded road", 2000L));
+
+		assertEquals(0, refresh());
+		assertEquals(1, enriched.size());
+	}
+
+	@Test
+	public void shouldEmitRemovalOfDeletedPhoto() throws Exception {
+		refresher.track(createPhoto("1", "Flooded road", 1000L));
+		refresher.track(createPhoto("2", "Flooded meadow", 1000L));
+		lastUpdates.put("2", 1000L);
+
+		assertEquals(1, refresh());
+
+		assertEquals(Collections.singletonList("1"), enriched);
+		assertEquals(Type.REMOVED, changes.get(0).getType());
+		assertFalse(refresher.isTracked("1"));
+		assertTrue(refresher.isTracked("2"));
+	}
+
+	@Test
+	public void shouldEmitRemovalOfPhotoNotWorthAnEnrichment() throws Exception {
+		refresher.track(createPhoto("1", "Flooded road", 1000L));
+		// reported by the scan, but without location according to getInfo
+		lastUpdates.put("1", 2000L);
+		photos.put("1", null);
+
+		assertEquals(1, refresh());
+
+		assertEquals(Type.REMOVED, changes.get(0).getType());
+		assertFalse(refresher.isTracked("1"));
+	}
+
+	@Test
+	public void shouldNotLookUpMissingPhotosOfScopeWithResultBudget() throws Exception {
+		refresher.track(createPhoto("1", "Flooded road", 1000L));
+		FlickrQuery scope = new FlickrQuery(7.5, 51.9, 7.7, 52.0, null, null, null);
+		scope.setMaxResults(100);
+
+		assertEquals(0, refresher.refresh(Collections.singletonList(scope), changes::add));
+
+		assertTrue(enriched.isEmpty());
+		assertTrue(refresher.isTracked("1"));
+	}
+
+	@Test
+	public void shouldNotLookUpMissingPhotosNoScopeExpects() throws Exception {
+		FlickrMessage elsewhere = createPhoto("1", "Flooded road", 1000L);
+		elsewhere.setLocation(new FlickrLocation(13.4f, 52.5f, 16, (FlickrPlace) null));
+		refresher.track(elsewhere);
+		refresher.track(createPhoto("2", "Flooded meadow", 1000L));
+		FlickrQuery tagged = new FlickrQuery(7.5, 51.9, 7.7, 52.0, null, null, new String[] { "flood" });
+
+		assertEquals(0, refresher.refresh(Collections.singletonList(tagged), changes::add));
+		assertEquals(1, refresh());
+
+		assertEquals(Collections.singletonList("2"), enriched);
+		assertTrue(refresher.isTracked("1"));
+		assertFalse(refresher.isTracked("2"));
+	}
+
+	@Test
+	public void shouldRestoreStoredVersions() throws Exception {
+		refresher.track(createPhoto("1", "Flooded road", 1000L));
+		Path file = Files.createTempFile("photo-versions", ".tsv");
+		try {
+			refresher.store(file);
+			setUp();
+			assertEquals(1, refresher.load(file));
+			assertTrue(refresher.isTracked("1"));
+
+			lastUpdates.put("1", 2000L);
+			photos.put("1", createPhoto("1", "Flooded road", 2000L));
+			assertEquals(0, refresh());
+
+			// the restored position tells the photo is expected by the scope
+			lastUpdates.clear();
+			photos.clear();
+			assertEquals(1, refresh());
+			assertEquals(Type.REMOVED, changes.get(0).getType());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private int refresh() throws FlickrException {
+		return refresher.refresh(Collections.singletonList(new FlickrQuery(7.5, 51.9, 7.7, 52.0, null, null, null)),
+				changes::add);
+	}
+
+	private FlickrMessage createPhoto(String id, String title, long lastUpdate) {
+		FlickrMessage flickrMessage = new FlickrMessage();
+		flickrMessage.setIdentifier(id);
+		flickrMessage.setTitle(title);
+		flickrMessage.setDateTaken(new Date(0L));
+		flickrMessage.setLocation(new FlickrLocation(7.6f, 51.96f, 16, (FlickrPlace) null));
+		flickrMessage.setLastUpdate(new Date(lastUpdate));
+		return flickrMessage;
+	}
+
+}
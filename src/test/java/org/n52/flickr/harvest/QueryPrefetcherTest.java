@@ -0,0 +1,260 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.n52.flickr.dao.CallPriority;
+import org.n52.flickr.dao.FlickrDAO;
+import org.n52.flickr.dao.QueryResultCache;
+import org.n52.flickr.dao.RateLimiter;
+import org.n52.flickr.dao.TenantContext;
+import org.n52.flickr.model.AccessToken;
+import org.n52.flickr.model.FlickrMessage;
+import org.n52.flickr.model.FlickrQuery;
+
+import com.flickr4java.flickr.FlickrException;
+
+public class QueryPrefetcherTest {
+
+	private static final double DELTA = 1e-9;
+
+	private final List<FlickrQuery> fetched = new CopyOnWriteArrayList<>();
+
+	private FlickrDAO dao;
+
+	private QueryPrefetcher prefetcher;
+
+	@Before
+	public void setUp() {
+		dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret") {
+
+			@Override
+			public int executeQuery(FlickrQuery query, Predicate<String> photoFilter, Consumer<FlickrMessage> consumer) {
+				fetched.add(new FlickrQuery(query));
+				return 0;
+			}
+
+		};
+		dao.setQueryResultCache(new QueryResultCache(10, 1, TimeUnit.MINUTES));
+		prefetcher = new QueryPrefetcher(dao, 3);
+	}
+
+	@After
+	public void tearDown() {
+		prefetcher.close();
+	}
+
+	@Test
+	public void shouldPredictTheNextBoxInPanDirectionFirst() {
+		prefetcher.observe(box(10, 50, null, null));
+		prefetcher.observe(box(11, 50, null, null));
+
+		List<FlickrQuery> predictions = prefetcher.predict(box(12, 50, null, null));
+
+		assertEquals(3, predictions.size());
+		assertArrayEquals(new double[] { 13, 50, 14, 51 }, predictions.get(0).getBoundingBox(), DELTA);
+	}
+
+	@Test
+	public void shouldPredictTheNextTimeWindowAtTheSameSite() {
+		DateTime start = new DateTime(2020, 1, 1, 0, 0);
+		prefetcher.observe(box(10, 50, start, start.plusDays(1)));
+
+		List<FlickrQuery> predictions = prefetcher.predict(box(10, 50, start.plusDays(1), start.plusDays(2)));
+
+		assertEquals(start.plusDays(2), predictions.get(0).getStart());
+		assertEquals(start.plusDays(3), predictions.get(0).getEnd());
+		assertArrayEquals(new double[] { 10, 50, 11, 51 }, predictions.get(0).getBoundingBox(), DELTA);
+	}
+
+	@Test
+	public void shouldNotPredictBoxesBeyondTheWorld() {
+		List<FlickrQuery> predictions = prefetcher.predict(box(179, 89, null, null));
+
+		assertEquals(3, predictions.size());
+		for (FlickrQuery prediction : predictions) {
+			double[] bbox = prediction.getBoundingBox();
+			assertTrue(bbox[2] <= 180 && bbox[3] <= 90);
+		}
+	}
+
+	@Test
+	public void shouldFillTheCacheWithPrefetchedQueries() throws InterruptedException {
+		prefetcher.observe(box(10, 50, null, null));
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (prefetcher.getPrefetched() < 3 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(3, prefetcher.getPrefetched());
+		for (FlickrQuery query : fetched) {
+			assertTrue(dao.getQueryResultCache().contains(query));
+		}
+	}
+
+	@Test
+	public void shouldFindTheCellPannedToByAnyDistanceInTheCache() throws InterruptedException {
+		double cellDegrees = 0.2;
+		prefetcher.observe(cell(52.13, 7.57, cellDegrees));
+		awaitPrefetched(3);
+
+		// panned east by a fraction of the cell width, but into the next cell
+		assertTrue(dao.getQueryResultCache().contains(cell(52.05, 7.64, cellDegrees)));
+		assertFalse(dao.getQueryResultCache().contains(cell(52.05, 7.84, cellDegrees)));
+	}
+
+	@Test
+	public void shouldSnapPointsToTheCellTheyLieIn() {
+		assertArrayEquals(new double[] { 7.4, 52, 7.6, 52.2 }, QueryPrefetcher.getGridCell(52.13, 7.41, 0.2), DELTA);
+		assertArrayEquals(new double[] { -7.6, -52.2, -7.4, -52 }, QueryPrefetcher.getGridCell(-52.13, -7.41, 0.2), DELTA);
+		assertArrayEquals(new double[] { 179.8, 89.8, 180, 90 }, QueryPrefetcher.getGridCell(90, 180, 0.2), DELTA);
+	}
+
+	@Test
+	public void shouldStopRunningPrefetchOnceRealDemandNeedsTheBudget() throws Exception {
+		final RateLimiter rateLimiter = new RateLimiter(10, TimeUnit.SECONDS);
+		final CountDownLatch firstPage = new CountDownLatch(1);
+		final CountDownLatch demand = new CountDownLatch(1);
+		FlickrDAO budgetedDao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret") {
+
+			@Override
+			public int executeQuery(FlickrQuery query, Predicate<String> photoFilter, Consumer<FlickrMessage> consumer) throws FlickrException {
+				// two pages, speculative ones only on budget no other call waits for
+				for (int page = 0; page < 2; page++) {
+					if (TenantContext.current().getPriority() == CallPriority.SPECULATIVE && !rateLimiter.tryAcquire()) {
+						throw new FlickrException(FlickrDAO.NO_BUDGET, "No API budget left for speculative calls");
+					}
+					if (page == 0) {
+						firstPage.countDown();
+						try {
+							demand.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				}
+				fetched.add(new FlickrQuery(query));
+				return 0;
+			}
+
+		};
+		budgetedDao.setQueryResultCache(new QueryResultCache(10, 1, TimeUnit.MINUTES));
+		QueryPrefetcher budgetedPrefetcher = new QueryPrefetcher(budgetedDao, 1);
+		try {
+			budgetedPrefetcher.observe(box(10, 50, null, null));
+			assertTrue(firstPage.await(5, TimeUnit.SECONDS));
+			// a client call takes the next slot while the prefetch is running
+			rateLimiter.acquire();
+			demand.countDown();
+
+			long deadline = System.currentTimeMillis() + 5000;
+			while (budgetedPrefetcher.getStopped() < 1 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(1, budgetedPrefetcher.getStopped());
+			assertEquals(0, budgetedPrefetcher.getPrefetched());
+			assertTrue(fetched.isEmpty());
+			assertEquals(0, budgetedDao.getQueryResultCache().size());
+		} finally {
+			budgetedPrefetcher.close();
+		}
+	}
+
+	@Test
+	public void shouldStopRunningPrefetchWhenTheNextQueryIsObserved() throws Exception {
+		final CountDownLatch running = new CountDownLatch(1);
+		FlickrDAO slowDao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret") {
+
+			@Override
+			public int executeQuery(FlickrQuery query, Predicate<String> photoFilter, Consumer<FlickrMessage> consumer) {
+				running.countDown();
+				try {
+					Thread.sleep(5000);
+				} catch (InterruptedException e) {
+					// the DAO stops paging once interrupted and leaves the flag set
+					Thread.currentThread().interrupt();
+					return 0;
+				}
+				fetched.add(new FlickrQuery(query));
+				return 0;
+			}
+
+		};
+		slowDao.setQueryResultCache(new QueryResultCache(10, 1, TimeUnit.MINUTES));
+		QueryPrefetcher slowPrefetcher = new QueryPrefetcher(slowDao, 1);
+		try {
+			slowPrefetcher.observe(box(10, 50, null, null));
+			assertTrue(running.await(5, TimeUnit.SECONDS));
+			slowPrefetcher.observe(box(20, 50, null, null));
+
+			long deadline = System.currentTimeMillis() + 5000;
+			while (slowPrefetcher.getStopped() < 1 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(1, slowPrefetcher.getStopped());
+			assertTrue(fetched.isEmpty());
+			assertFalse(slowDao.getQueryResultCache().contains(box(11, 50, null, null)));
+		} finally {
+			slowPrefetcher.close();
+		}
+	}
+
+	private void awaitPrefetched(int prefetches) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (prefetcher.getPrefetched() < prefetches && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(prefetches, prefetcher.getPrefetched());
+	}
+
+	private static FlickrQuery cell(double latitude, double longitude, double cellDegrees) {
+		double[] bbox = QueryPrefetcher.getGridCell(latitude, longitude, cellDegrees);
+		return new FlickrQuery(bbox[0], bbox[1], bbox[2], bbox[3], null, null, null);
+	}
+
+	private static FlickrQuery box(double minLon, double minLat, DateTime start, DateTime end) {
+		return new FlickrQuery(minLon, minLat, minLon + 1, minLat + 1, start, end, null);
+	}
+
+}
@@ -0,0 +1,160 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.n52.flickr.dao.FlickrDAO;
+import org.n52.flickr.dao.QueryProgress;
+import org.n52.flickr.model.AccessToken;
+import org.n52.flickr.model.FlickrMessage;
+import org.n52.flickr.model.FlickrQuery;
+
+import com.flickr4java.flickr.FlickrException;
+
+public class ResumableHarvestTest {
+
+	private static final int PAGES = 3;
+
+	private static final int PHOTOS_PER_PAGE = 2;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<String> emitted = new ArrayList<>();
+
+	private final List<Integer> firstPages = new ArrayList<>();
+
+	private String failingPhotoId;
+
+	private FlickrDAO dao;
+
+	private Path file;
+
+	@Before
+	public void setUp() {
+		file = folder.getRoot().toPath().resolve("journal.tsv");
+		dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret") {
+
+			@Override
+			public int executeQuery(FlickrQuery query, Predicate<String> photoFilter, Consumer<FlickrMessage> consumer, QueryProgress progress) throws FlickrException {
+				firstPages.add(progress.getFirstPage());
+				int consumed = 0;
+				for (int page = progress.getFirstPage(); page <= PAGES; page++) {
+					for (int i = 1; i <= PHOTOS_PER_PAGE; i++) {
+						String photoId = Integer.toString((page - 1) * PHOTOS_PER_PAGE + i);
+						if (photoId.equals(failingPhotoId)) {
+							throw new FlickrException("105", "Service currently unavailable");
+						}
+						if (photoFilter.test(photoId)) {
+							FlickrMessage flickrMessage = new FlickrMessage();
+							flickrMessage.setIdentifier(photoId);
+							consumer.accept(flickrMessage);
+							consumed++;
+						}
+					}
+					if (progress.getPageListener() != null) {
+						progress.getPageListener().accept(page);
+					}
+				}
+				return consumed;
+			}
+
+		};
+	}
+
+	@Test
+	public void shouldResumeAfterFailureWithoutEmittingTwice() throws Exception {
+		failingPhotoId = "4";
+		try (HarvestJournal journal = new HarvestJournal(file)) {
+			new ResumableHarvest(dao, journal).execute("muenster", createQuery(), this::emit);
+			fail("Harvest should have failed");
+		} catch (FlickrException e) {
+			assertEquals(Arrays.asList("1", "2", "3"), emitted);
+		}
+
+		failingPhotoId = null;
+		try (HarvestJournal journal = new HarvestJournal(file)) {
+			assertEquals(3, new ResumableHarvest(dao, journal).execute("muenster", createQuery(), this::emit));
+		}
+
+		assertEquals(Arrays.asList("1", "2", "3", "4", "5", "6"), emitted);
+		assertEquals(Arrays.asList(1, 2), firstPages);
+	}
+
+	@Test
+	public void shouldNotRunFinishedHarvestAgain() throws Exception {
+		try (HarvestJournal journal = new HarvestJournal(file)) {
+			ResumableHarvest harvest = new ResumableHarvest(dao, journal);
+			assertEquals(6, harvest.execute("muenster", createQuery(), this::emit));
+			assertEquals(0, harvest.execute("muenster", createQuery(), this::emit));
+		}
+		assertEquals(1, firstPages.size());
+	}
+
+	@Test
+	public void shouldStartOverForChangedQuery() throws Exception {
+		failingPhotoId = "4";
+		try (HarvestJournal journal = new HarvestJournal(file)) {
+			new ResumableHarvest(dao, journal).execute("muenster", createQuery(), this::emit);
+			fail("Harvest should have failed");
+		} catch (FlickrException e) {
+			// the first three photos are journaled
+		}
+
+		failingPhotoId = null;
+		FlickrQuery changed = createQuery();
+		changed.setBoundingBox(7.5, 51.9, 7.8, 52.0);
+		try (HarvestJournal journal = new HarvestJournal(file)) {
+			assertEquals(6, new ResumableHarvest(dao, journal).execute("muenster", changed, this::emit));
+		}
+		assertEquals(Arrays.asList(1, 1), firstPages);
+	}
+
+	private void emit(FlickrMessage flickrMessage) {
+		emitted.add(flickrMessage.getIdentifier());
+	}
+
+	private FlickrQuery createQuery() {
+		return new FlickrQuery(7.5, 51.9, 7.7, 52.0, null, null, null);
+	}
+
+}
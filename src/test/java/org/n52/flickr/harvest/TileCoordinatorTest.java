@@ -0,0 +1,59 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.n52.flickr.model.FlickrQuery;
+
+public class TileCoordinatorTest {
+
+	@Test
+	public void shouldSplitAreaAndTimeSpan() {
+		DateTime start = new DateTime(1420070400000L);
+		DateTime end = new DateTime(1420070400000L + TimeUnit.DAYS.toMillis(3));
+		FlickrQuery query = new FlickrQuery(7.0, 51.0, 8.5, 52.0, start, end, null);
+
+		List<HarvestTile> tiles = TileCoordinator.split("nrw", query, 0.5, TimeUnit.DAYS.toMillis(2));
+
+		// 3 columns x 2 rows x 2 time buckets
+		assertEquals(12, tiles.size());
+		assertEquals("nrw_0000_0000_0000", tiles.get(0).getId());
+		assertArrayEquals(new double[] { 8.0, 51.5, 8.5, 52.0 }, tiles.get(11).getBoundingBox(), 1e-9);
+		assertEquals(end.getMillis(), tiles.get(11).getEnd().getMillis());
+		assertEquals(start.getMillis() + TimeUnit.DAYS.toMillis(2), tiles.get(11).getStart().getMillis());
+	}
+
+}
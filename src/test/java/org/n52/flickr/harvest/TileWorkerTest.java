@@ -0,0 +1,185 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.harvest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.n52.flickr.dao.FlickrDAO;
+import org.n52.flickr.dao.QueryProgress;
+import org.n52.flickr.model.AccessToken;
+import org.n52.flickr.model.FlickrMessage;
+import org.n52.flickr.model.FlickrQuery;
+
+import com.flickr4java.flickr.FlickrException;
+
+public class TileWorkerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final AtomicInteger queries = new AtomicInteger();
+
+	private TileQueue queue;
+
+	private BlockingQueue<FlickrMessage> sink;
+
+	/**
+	 * What the DAO does for each tile query.
+	 */
+	private volatile TileHarvest harvest;
+
+	private FlickrDAO dao;
+
+	private TileWorker worker;
+
+	@Before
+	public void setUp() throws Exception {
+		queue = new FileSystemTileQueue(folder.getRoot().toPath());
+		queue.offer(createTile("nrw_0000_0000_0000"));
+		queue.offer(createTile("nrw_0000_0001_0000"));
+		sink = new ArrayBlockingQueue<>(10);
+		dao = new FlickrDAO(new AccessToken("api-key", "shared-secret"), "token", "token-secret") {
+
+			@Override
+			public int executeQuery(FlickrQuery query, Predicate<String> photoFilter, Consumer<FlickrMessage> consumer, QueryProgress progress) throws FlickrException {
+				queries.incrementAndGet();
+				return harvest.run(consumer);
+			}
+
+		};
+		worker = new TileWorker(dao, queue, new FlickrQuery(0, 0, 0, 0, null, null, null), sink, "worker-1", 1, TimeUnit.MINUTES);
+	}
+
+	@Test
+	public void shouldAcknowledgeHarvestedTiles() throws Exception {
+		harvest = consumer -> {
+			consumer.accept(createMessage("1"));
+			return 1;
+		};
+
+		worker.drain();
+
+		assertEquals(2, queries.get());
+		assertEquals(2, worker.getHarvestedTiles());
+		assertEquals(2, worker.getHarvestedPhotos());
+		assertEquals(2, sink.size());
+		assertEquals(0, queue.getPending());
+		assertEquals(0, queue.getLeased());
+	}
+
+	@Test
+	public void shouldReleaseFailedTileForRetry() throws Exception {
+		harvest = consumer -> {
+			throw new FlickrException("105", "Service currently unavailable");
+		};
+
+		worker.drain();
+
+		// the worker waits for the poll delay instead of retrying at once
+		assertEquals(1, queries.get());
+		assertEquals(0, worker.getHarvestedTiles());
+		assertEquals(2, queue.getPending());
+		assertEquals(0, queue.getLeased());
+	}
+
+	@Test
+	public void shouldGiveUpTileWhoseLeaseWasLost() throws Exception {
+		final TileWorker shortLeased = new TileWorker(dao, queue, new FlickrQuery(0, 0, 0, 0, null, null, null), sink, "worker-1", 1, TimeUnit.MILLISECONDS);
+		harvest = consumer -> {
+			try {
+				Thread.sleep(10);
+				// another worker takes over the expired lease
+				assertNotNull(queue.claim("worker-2", 1, TimeUnit.MINUTES));
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+			consumer.accept(createMessage("1"));
+			return 1;
+		};
+
+		assertTrue(shortLeased.harvestNext());
+
+		assertEquals(0, shortLeased.getHarvestedTiles());
+		assertEquals(0, shortLeased.getHarvestedPhotos());
+		assertTrue(sink.isEmpty());
+		// neither acknowledged nor released by the worker which lost it
+		assertEquals(1, queue.getLeased());
+	}
+
+	@Test
+	public void shouldReleaseTileAndStopQuietlyWhenCancelled() throws Exception {
+		harvest = consumer -> {
+			// stopped while waiting for a full sink
+			Thread.currentThread().interrupt();
+			consumer.accept(createMessage("1"));
+			return 1;
+		};
+
+		worker.drain();
+
+		assertTrue(Thread.interrupted());
+		assertEquals(1, queries.get());
+		assertEquals(0, worker.getHarvestedTiles());
+		assertEquals(2, queue.getPending());
+		assertEquals(0, queue.getLeased());
+		assertFalse(worker.isRunning());
+	}
+
+	private static HarvestTile createTile(String id) {
+		return new HarvestTile(id, new double[] { 7.5, 51.9, 7.7, 52.0 }, new DateTime(1420070400000L), null);
+	}
+
+	private static FlickrMessage createMessage(String photoId) {
+		FlickrMessage flickrMessage = new FlickrMessage();
+		flickrMessage.setIdentifier(photoId);
+		return flickrMessage;
+	}
+
+	private interface TileHarvest {
+
+		int run(Consumer<FlickrMessage> consumer) throws FlickrException;
+
+	}
+
+}
@@ -0,0 +1,69 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class FlickrQueryTest {
+
+	@Test
+	public void shouldAcceptAccuracyFromZeroToSixteen() {
+		FlickrQuery query = new FlickrQuery(7.5, 51.9, 7.7, 52.0, null, null, null);
+		query.setMinimumAccuracy(0);
+		assertFalse(query.hasMinimumAccuracy());
+		query.setMinimumAccuracy(16);
+		assertEquals(16, query.getMinimumAccuracy());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectAccuracyAboveSixteen() {
+		new FlickrQuery(7.5, 51.9, 7.7, 52.0, null, null, null).setMinimumAccuracy(17);
+	}
+
+	@Test
+	public void shouldNotShareArraysWithCopy() {
+		String[] tags = { "sunset", "lake" };
+		String[] licenses = { "4", "5" };
+		FlickrQuery query = new FlickrQuery(7.5, 51.9, 7.7, 52.0, null, null, tags);
+		query.setLicenses(licenses);
+		FlickrQuery copy = new FlickrQuery(query);
+
+		tags[0] = "sunrise";
+		licenses[0] = "1";
+
+		assertEquals("sunset", copy.getKeywords()[0]);
+		assertEquals("4", copy.getLicenses()[0]);
+		assertNotEquals(query, copy);
+	}
+
+}
@@ -0,0 +1,76 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class HarvestRegionTest {
+
+	@Test
+	public void shouldParseRegions() {
+		List<HarvestRegion> regions = HarvestRegion.parse("muenster:7.5,51.9,7.7,52.0; berlin : 13.0, 52.3, 13.8, 52.7;");
+
+		assertEquals(2, regions.size());
+		assertEquals("muenster", regions.get(0).getName());
+		assertEquals(7.5, regions.get(0).getMinimumLongitude(), 0d);
+		assertEquals(51.9, regions.get(0).getMinimumLatitude(), 0d);
+		assertEquals(7.7, regions.get(0).getMaximumLongitude(), 0d);
+		assertEquals(52.0, regions.get(0).getMaximumLatitude(), 0d);
+		assertEquals("berlin", regions.get(1).getName());
+		assertEquals(52.7, regions.get(1).getMaximumLatitude(), 0d);
+	}
+
+	@Test
+	public void shouldParseNoRegions() {
+		assertTrue(HarvestRegion.parse(null).isEmpty());
+		assertTrue(HarvestRegion.parse(" ").isEmpty());
+		assertTrue(HarvestRegion.parse(";;").isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectRegionWithoutName() {
+		HarvestRegion.parse("7.5,51.9,7.7,52.0");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectIncompleteBoundingBox() {
+		HarvestRegion.parse("muenster:7.5,51.9,7.7");
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void shouldRejectMalformedCoordinate() {
+		HarvestRegion.parse("muenster:7.5,51.9,7.7,north");
+	}
+
+}
@@ -0,0 +1,99 @@
+/**
+ * ﻿Copyright (C) 2015 - 2015 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * license version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.flickr.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+public class ObservationGridTest {
+
+	private static final double[] BBOX = { 7.0, 51.0, 8.0, 52.0 };
+
+	@Test
+	public void shouldCountPerCellAndBucket() {
+		ObservationGrid grid = new ObservationGrid(BBOX, 2, 4, 1000L, 100L, 3);
+		assertTrue(grid.add(51.1, 7.1, 1000L));
+		assertTrue(grid.add(51.9, 7.9, 1299L));
+		assertTrue(grid.add(52.0, 8.0, 1299L));
+		assertEquals(1, grid.getCount(0, 0, 0));
+		assertEquals(2, grid.getCount(1, 3, 2));
+		assertEquals(3, grid.getTotal());
+	}
+
+	@Test
+	public void shouldCountObservationsOutside() {
+		ObservationGrid grid = new ObservationGrid(BBOX, 2, 2, 1000L, 100L, 3);
+		assertFalse(grid.add(50.9, 7.5, 1000L));
+		assertFalse(grid.add(51.5, 7.5, 999L));
+		assertFalse(grid.add(51.5, 7.5, 1300L));
+		assertEquals(0, grid.getTotal());
+		assertEquals(3, grid.getOutside());
+	}
+
+	@Test
+	public void shouldMergeGridsOfSameGeometry() {
+		ObservationGrid grid = new ObservationGrid(BBOX, 2, 2);
+		grid.add(51.1, 7.1, 0L);
+		ObservationGrid other = new ObservationGrid(BBOX, 2, 2);
+		other.add(51.1, 7.1, 0L);
+		other.add(51.9, 7.9, 0L);
+		grid.merge(other);
+		assertArrayEquals(new int[] { 2, 0, 0, 1 }, grid.getCounts());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectMergeOfDifferentGeometry() {
+		new ObservationGrid(BBOX, 2, 2).merge(new ObservationGrid(BBOX, 2, 3));
+	}
+
+	@Test
+	public void shouldRestoreStoredGrid() throws Exception {
+		ObservationGrid grid = new ObservationGrid(BBOX, 3, 3, 0L, 10L, 2);
+		grid.add(51.5, 7.5, 15L);
+		grid.add(53.0, 7.5, 15L);
+		Path file = Files.createTempFile("grid", ".bin");
+		try {
+			grid.store(file);
+			ObservationGrid restored = ObservationGrid.load(file);
+			assertTrue(grid.hasSameGeometry(restored));
+			assertArrayEquals(grid.getCounts(), restored.getCounts());
+			assertEquals(1, restored.getOutside());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+}